@@ -0,0 +1,151 @@
+package com.microsoft.band.client;
+
+/**
+ * Decides when to step the sampling rate of a device between the active and the still period of an
+ * {@link AdaptiveRatePolicy}, by watching the variance of the acceleration magnitude over a sliding
+ * window of sample timestamps. The rate is lowered once the variance has stayed below the still
+ * threshold for the hold time, and raised as soon as it exceeds the active threshold.
+ * <p>
+ * The controller is fed on the thread delivering the samples and never allocates or blocks there;
+ * it only decides, and the caller performs the switch elsewhere. The window holds at most
+ * {@link #getCapacity()} samples, enough for the whole window at the active rate; at higher rates,
+ * such as those of a {@link SimulatedSampleSource}, it covers the most recent samples only.
+ * </p>
+ *
+ * @see DeviceRecorder
+ */
+class AdaptiveRateController {
+
+    /** standard gravity, subtracted from the magnitudes to keep the sums small and accurate */
+    private static final double GRAVITY = 1.0;
+
+    /** the thresholds */
+    private final AdaptiveRatePolicy policy;
+
+    /** timestamps of the samples in the window, in a circular array */
+    private final long[] timestamps;
+
+    /** acceleration magnitudes minus {@link #GRAVITY} of the samples in the window, in g */
+    private final double[] magnitudes;
+
+    /** index of the oldest sample in the window */
+    private int oldest = 0;
+
+    /** number of samples in the window */
+    private int size = 0;
+
+    /** sum and sum of squares of the {@link #magnitudes} in the window */
+    private double sum = 0, sumSquares = 0;
+
+    /** variance of the magnitudes in the window after the last sample, in g^2 */
+    private volatile double variance = 0;
+
+    /** whether the subject is considered active, i.e. the device is sampled at the active period */
+    private volatile boolean active;
+
+    /** timestamp from which the subject has been still, or -1 if it is not still */
+    private long stillSince = -1;
+
+    /**
+     * Creates a controller
+     * @param policy the thresholds
+     * @param period the current sampling period of the device; the subject is assumed to be active
+     *               unless it is the still period of the policy
+     */
+    AdaptiveRateController(AdaptiveRatePolicy policy, SamplePeriod period) {
+        this.policy = policy;
+        int capacity = (int) Math.max(16, policy.getWindowMillis() / policy.getActivePeriod().getPeriodMillis() + 1);
+        this.timestamps = new long[capacity];
+        this.magnitudes = new double[capacity];
+        this.active = period != policy.getStillPeriod();
+    }
+
+    /**
+     * Adds a sample to the window. Must only be called from a single thread.
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param values array holding the axis values, acceleration first
+     * @param offset index of the first axis value in {@code values}
+     * @return the period to switch to, or null if the rate should stay the same
+     */
+    public SamplePeriod onSample(long timestamp, float[] values, int offset) {
+        double x = values[offset], y = values[offset + 1], z = values[offset + 2];
+        double m = Math.sqrt(x * x + y * y + z * z) - GRAVITY;
+        while (size > 0 && (size == timestamps.length || timestamp - timestamps[oldest] > policy.getWindowMillis())) {
+            double old = magnitudes[oldest];
+            sum -= old;
+            sumSquares -= old * old;
+            oldest = (oldest + 1) % timestamps.length;
+            size--;
+        }
+        int slot = (oldest + size) % timestamps.length;
+        timestamps[slot] = timestamp;
+        magnitudes[slot] = m;
+        size++;
+        sum += m;
+        sumSquares += m * m;
+        if (slot == timestamps.length - 1) {
+            // recompute the sums once per pass over the array, so that rounding errors do not accumulate
+            recomputeSums();
+        }
+        // wait until the window is at least half full, e.g. after the start or a gap in the stream
+        if (size < 4 || timestamp - timestamps[oldest] < policy.getWindowMillis() / 2) {
+            return null;
+        }
+        double mean = sum / size;
+        double v = Math.max(0, sumSquares / size - mean * mean);
+        variance = v;
+        if (active) {
+            if (v >= policy.getStillVariance()) {
+                stillSince = -1;
+            } else if (stillSince < 0) {
+                stillSince = timestamp;
+            } else if (timestamp - stillSince >= policy.getStillHoldMillis()) {
+                active = false;
+                stillSince = -1;
+                return policy.getStillPeriod();
+            }
+        } else if (v > policy.getActiveVariance()) {
+            active = true;
+            return policy.getActivePeriod();
+        }
+        return null;
+    }
+
+    private void recomputeSums() {
+        sum = 0;
+        sumSquares = 0;
+        for (int i = 0; i < size; i++) {
+            double m = magnitudes[(oldest + i) % magnitudes.length];
+            sum += m;
+            sumSquares += m * m;
+        }
+    }
+
+    /**
+     * @return the variance of the acceleration magnitude over the current window, in g^2
+     */
+    public double getVariance() {
+        return variance;
+    }
+
+    /**
+     * @return whether the subject is considered active
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return the maximum number of samples in the window
+     */
+    public int getCapacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return the thresholds
+     */
+    public AdaptiveRatePolicy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,114 @@
+package com.microsoft.band.client;
+
+/**
+ * Thresholds of the {@link AdaptiveRateController}: how the variance of the acceleration magnitude
+ * is measured, at which variance the subject is considered still or active, and which sampling
+ * period is used in each state. The active threshold should be above the still threshold, so that
+ * noise near a single threshold does not make the rate flap.
+ * <p>
+ * Variances are in g squared. A Band lying on a table shows a variance of about 0.00003 g^2, and
+ * walking a variance of 0.05 g^2 or more.
+ * </p>
+ *
+ * @see AdaptiveRateController
+ */
+class AdaptiveRatePolicy {
+
+    /**
+     * measures the variance over 2 s, steps down to {@link SamplePeriod#MS128} after 10 s of
+     * stillness, and back up to {@link SamplePeriod#MS16} as soon as the subject moves
+     */
+    public static final AdaptiveRatePolicy DEFAULT = new AdaptiveRatePolicy(2000, 0.0004, 0.0016, 10000,
+            SamplePeriod.MS16, SamplePeriod.MS128);
+
+    /** duration of the sliding window over which the variance is measured, in milliseconds */
+    private final long windowMillis;
+
+    /** variance below which the subject is considered still, in g^2 */
+    private final double stillVariance;
+
+    /** variance above which the subject is considered active, in g^2 */
+    private final double activeVariance;
+
+    /** how long the subject must stay still before the rate is lowered, in milliseconds */
+    private final long stillHoldMillis;
+
+    /** sampling period while the subject is active */
+    private final SamplePeriod activePeriod;
+
+    /** sampling period while the subject is still */
+    private final SamplePeriod stillPeriod;
+
+    /**
+     * Creates a policy
+     * @param windowMillis duration of the sliding window over which the variance is measured
+     * @param stillVariance variance below which the subject is considered still, in g^2
+     * @param activeVariance variance above which the subject is considered active, in g^2; at least
+     *                       {@code stillVariance}
+     * @param stillHoldMillis how long the subject must stay still before the rate is lowered
+     * @param activePeriod sampling period while the subject is active
+     * @param stillPeriod sampling period while the subject is still
+     */
+    AdaptiveRatePolicy(long windowMillis, double stillVariance, double activeVariance, long stillHoldMillis,
+                       SamplePeriod activePeriod, SamplePeriod stillPeriod) {
+        if (windowMillis <= 0 || !(stillVariance >= 0) || !(activeVariance >= stillVariance) || stillHoldMillis < 0
+                || activePeriod == null || stillPeriod == null) {
+            throw new IllegalArgumentException("Invalid adaptive rate policy: " + windowMillis + " ms window, still below "
+                    + stillVariance + " g^2, active above " + activeVariance + " g^2, hold " + stillHoldMillis + " ms");
+        }
+        this.windowMillis = windowMillis;
+        this.stillVariance = stillVariance;
+        this.activeVariance = activeVariance;
+        this.stillHoldMillis = stillHoldMillis;
+        this.activePeriod = activePeriod;
+        this.stillPeriod = stillPeriod;
+    }
+
+    /**
+     * @return the duration of the sliding window over which the variance is measured, in milliseconds
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @return the variance below which the subject is considered still, in g^2
+     */
+    public double getStillVariance() {
+        return stillVariance;
+    }
+
+    /**
+     * @return the variance above which the subject is considered active, in g^2
+     */
+    public double getActiveVariance() {
+        return activeVariance;
+    }
+
+    /**
+     * @return how long the subject must stay still before the rate is lowered, in milliseconds
+     */
+    public long getStillHoldMillis() {
+        return stillHoldMillis;
+    }
+
+    /**
+     * @return the sampling period while the subject is active
+     */
+    public SamplePeriod getActivePeriod() {
+        return activePeriod;
+    }
+
+    /**
+     * @return the sampling period while the subject is still
+     */
+    public SamplePeriod getStillPeriod() {
+        return stillPeriod;
+    }
+
+    @Override
+    public String toString() {
+        return "variance over " + windowMillis + " ms, " + stillPeriod + " below " + stillVariance + " g^2 for "
+                + stillHoldMillis + " ms, " + activePeriod + " above " + activeVariance + " g^2";
+    }
+}
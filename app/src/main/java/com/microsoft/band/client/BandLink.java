@@ -0,0 +1,73 @@
+package com.microsoft.band.client;
+
+import com.microsoft.band.BandClient;
+import com.microsoft.band.ConnectionState;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connection of a recorded Band, for its {@link ConnectionSupervisor}. Reconnecting drops a
+ * connection which the SDK still reports as up, since the samples only stop when it is stale, then
+ * connects again and subscribes the device's {@link BandSampleSource} and {@link StreamRecorder}
+ * again, since the Band forgets its subscriptions with the connection.
+ *
+ * @see BandClient#getConnectionState()
+ */
+class BandLink implements ConnectionSupervisor.Link {
+
+    /** maximum time to wait for the Band to connect or disconnect */
+    private static final long CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+
+    /** the client of the Band */
+    private final BandClient client;
+
+    /** the recording pipeline of the Band's samples */
+    private final DeviceRecorder recorder;
+
+    /** the source of the Band's samples */
+    private final BandSampleSource source;
+
+    /** the recorder of the Band's low-rate streams, or null */
+    private final StreamRecorder streams;
+
+    /**
+     * Creates the link of a recorded Band
+     * @param client the client of the Band
+     * @param recorder the recording pipeline of the Band's samples
+     * @param source the source of the Band's samples, fed to {@code recorder}
+     * @param streams the recorder of the Band's low-rate streams, or null
+     */
+    BandLink(BandClient client, DeviceRecorder recorder, BandSampleSource source, StreamRecorder streams) {
+        this.client = client;
+        this.recorder = recorder;
+        this.source = source;
+        this.streams = streams;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return client.getConnectionState() == ConnectionState.CONNECTED;
+    }
+
+    @Override
+    public long getSampleCount() {
+        // samples dropped by a full buffer still show that the Band is sending
+        SampleRingBuffer buffer = recorder.getBuffer();
+        return buffer.getPublishedCount() + buffer.getOverflowCount();
+    }
+
+    @Override
+    public boolean reconnect() throws Exception {
+        if (isConnected()) {
+            client.disconnect().await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (client.connect().await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) != ConnectionState.CONNECTED) {
+            return false;
+        }
+        source.resubscribe();
+        if (streams != null) {
+            streams.resubscribe();
+        }
+        return true;
+    }
+}
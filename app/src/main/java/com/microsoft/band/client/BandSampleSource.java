@@ -0,0 +1,117 @@
+package com.microsoft.band.client;
+
+import com.microsoft.band.BandClient;
+import com.microsoft.band.BandIOException;
+import com.microsoft.band.sensors.BandAccelerometerEventListener;
+import com.microsoft.band.sensors.BandGyroscopeEvent;
+import com.microsoft.band.sensors.BandGyroscopeEventListener;
+import com.microsoft.band.sensors.SampleRate;
+
+/**
+ * Samples from the accelerometer and gyroscope of a connected Microsoft Band. Because the
+ * {@link BandGyroscopeEvent} also receives accelerometer readings, we only need to register a
+ * {@link BandGyroscopeEventListener} and no {@link BandAccelerometerEventListener}.
+ *
+ * @see BandClient#getSensorManager()
+ */
+class BandSampleSource implements SampleSource, BandGyroscopeEventListener {
+
+    /** the connected Band */
+    private final BandClient client;
+
+    /** the period at which the Band sends samples */
+    private volatile SamplePeriod period;
+
+    /** reusable holder for the acceleration and angular velocity of the current sample */
+    private final float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** receives the samples, null while stopped */
+    private volatile SampleListener listener;
+
+    /**
+     * Creates a source
+     * @param client a Band client, which must be connected before {@link #start(SampleListener)} is called
+     * @param period the period at which the Band should send samples
+     */
+    BandSampleSource(BandClient client, SamplePeriod period) {
+        this.client = client;
+        this.period = period;
+    }
+
+    @Override
+    public synchronized void start(SampleListener listener) throws BandIOException {
+        this.listener = listener;
+        client.getSensorManager().registerGyroscopeEventListener(this, toSampleRate(period));
+    }
+
+    @Override
+    public synchronized void stop() throws BandIOException {
+        listener = null;
+        client.getSensorManager().unregisterGyroscopeEventListener(this);
+    }
+
+    /**
+     * Subscribes to the gyroscope again after the connection has been restored, since the Band
+     * forgets its subscriptions when it disconnects. Does nothing while stopped.
+     * @throws BandIOException if the Band could not be reached
+     */
+    public synchronized void resubscribe() throws BandIOException {
+        if (listener != null) {
+            client.getSensorManager().registerGyroscopeEventListener(this, toSampleRate(period));
+        }
+    }
+
+    /**
+     * Resubscribes to the gyroscope at the new rate over the existing connection. The SDK has no call
+     * to change the rate of a subscription, so the few samples in flight while the listener is
+     * re-registered may be lost.
+     */
+    @Override
+    public synchronized void setSamplePeriod(SamplePeriod period) throws BandIOException {
+        if (period == this.period) {
+            return;
+        }
+        this.period = period;
+        if (listener != null) {
+            client.getSensorManager().unregisterGyroscopeEventListener(this);
+            client.getSensorManager().registerGyroscopeEventListener(this, toSampleRate(period));
+        }
+    }
+
+    @Override
+    public double getSampleRate() {
+        return period.getRateHz();
+    }
+
+    /**
+     * Returns the Band SDK constant of a sampling period
+     * @param period the sampling period
+     * @return the corresponding {@link SampleRate}
+     */
+    private static SampleRate toSampleRate(SamplePeriod period) {
+        switch (period) {
+            case MS32:
+                return SampleRate.MS32;
+            case MS128:
+                return SampleRate.MS128;
+            default:
+                return SampleRate.MS16;
+        }
+    }
+
+    @Override
+    public void onBandGyroscopeChanged(BandGyroscopeEvent event) {
+        SampleListener l = listener;
+        if (l == null) {
+            return;
+        }
+        // the SDK delivers events on a single thread
+        values[0] = event.getAccelerationX();
+        values[1] = event.getAccelerationY();
+        values[2] = event.getAccelerationZ();
+        values[3] = event.getAngularVelocityX();
+        values[4] = event.getAngularVelocityY();
+        values[5] = event.getAngularVelocityZ();
+        l.onSample(event.getTimestamp(), values, 0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.microsoft.band.client;
+
+import android.util.Log;
+
+import com.microsoft.band.BandClient;
+import com.microsoft.band.BandException;
+import com.microsoft.band.BandIOException;
+import com.microsoft.band.UserConsent;
+import com.microsoft.band.sensors.BandBarometerEvent;
+import com.microsoft.band.sensors.BandBarometerEventListener;
+import com.microsoft.band.sensors.BandGsrEvent;
+import com.microsoft.band.sensors.BandGsrEventListener;
+import com.microsoft.band.sensors.BandHeartRateEvent;
+import com.microsoft.band.sensors.BandHeartRateEventListener;
+import com.microsoft.band.sensors.BandRRIntervalEvent;
+import com.microsoft.band.sensors.BandRRIntervalEventListener;
+import com.microsoft.band.sensors.BandSensorManager;
+import com.microsoft.band.sensors.BandSkinTemperatureEvent;
+import com.microsoft.band.sensors.BandSkinTemperatureEventListener;
+import com.microsoft.band.sensors.HeartRateQuality;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Records of the low-rate sensor streams of a connected Microsoft Band. Each stream has its own
+ * listener and value array, so records of different streams can be delivered concurrently. The
+ * heart rate and RR interval streams require the user's consent, which must have been granted
+ * from an activity beforehand; GSR, barometer and RR interval are only available on the Band 2.
+ *
+ * @see SensorStream
+ */
+class BandStreamSource implements BandHeartRateEventListener, BandSkinTemperatureEventListener,
+        BandGsrEventListener, BandBarometerEventListener, BandRRIntervalEventListener {
+
+    /** used for debugging purposes */
+    private static final String TAG = BandStreamSource.class.getName();
+
+    /** the connected Band */
+    private final BandClient client;
+
+    /** the streams to record */
+    private final Set<SensorStream> streams;
+
+    /** reusable holders for the values of the current record of each stream */
+    private final double[] heartRate = new double[SensorStream.HEART_RATE.getValueCount()];
+    private final double[] skinTemperature = new double[SensorStream.SKIN_TEMPERATURE.getValueCount()];
+    private final double[] gsr = new double[SensorStream.GSR.getValueCount()];
+    private final double[] barometer = new double[SensorStream.BAROMETER.getValueCount()];
+    private final double[] rrInterval = new double[SensorStream.RR_INTERVAL.getValueCount()];
+
+    /** receives the records, null while stopped */
+    private volatile StreamListener listener;
+
+    /**
+     * Creates a source
+     * @param client a Band client, which must be connected before {@link #start(StreamListener)} is called
+     * @param streams the streams to record
+     */
+    BandStreamSource(BandClient client, Set<SensorStream> streams) {
+        this.client = client;
+        this.streams = streams;
+    }
+
+    /**
+     * Subscribes to the requested streams. Streams which the Band does not support, or which lack
+     * the user's consent, are skipped.
+     * @param listener receives the records
+     * @return the streams actually subscribed to
+     */
+    public Set<SensorStream> start(StreamListener listener) {
+        this.listener = listener;
+        BandSensorManager sensors = client.getSensorManager();
+        boolean consent = sensors.getCurrentHeartRateConsent() == UserConsent.GRANTED;
+        Set<SensorStream> started = EnumSet.noneOf(SensorStream.class);
+        for (SensorStream stream : streams) {
+            try {
+                boolean registered;
+                switch (stream) {
+                    case HEART_RATE:
+                        registered = consent && sensors.registerHeartRateEventListener(this);
+                        break;
+                    case SKIN_TEMPERATURE:
+                        registered = sensors.registerSkinTemperatureEventListener(this);
+                        break;
+                    case GSR:
+                        registered = sensors.registerGsrEventListener(this);
+                        break;
+                    case BAROMETER:
+                        registered = sensors.registerBarometerEventListener(this);
+                        break;
+                    case RR_INTERVAL:
+                        registered = consent && sensors.registerRRIntervalEventListener(this);
+                        break;
+                    default:
+                        registered = false;
+                        break;
+                }
+                if (registered) {
+                    started.add(stream);
+                }
+            } catch (BandException e) {
+                Log.w(TAG, "Failed to subscribe to " + stream, e);
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Unsubscribes from all streams
+     * @throws BandIOException if the Band could not be reached
+     */
+    public void stop() throws BandIOException {
+        listener = null;
+        BandSensorManager sensors = client.getSensorManager();
+        sensors.unregisterHeartRateEventListener(this);
+        sensors.unregisterSkinTemperatureEventListener(this);
+        sensors.unregisterGsrEventListener(this);
+        sensors.unregisterBarometerEventListener(this);
+        sensors.unregisterRRIntervalEventListener(this);
+    }
+
+    @Override
+    public void onBandHeartRateChanged(BandHeartRateEvent event) {
+        StreamListener l = listener;
+        if (l != null) {
+            heartRate[0] = event.getHeartRate();
+            heartRate[1] = event.getQuality() == HeartRateQuality.LOCKED ? 1 : 0;
+            l.onRecord(SensorStream.HEART_RATE, event.getTimestamp(), heartRate);
+        }
+    }
+
+    @Override
+    public void onBandSkinTemperatureChanged(BandSkinTemperatureEvent event) {
+        StreamListener l = listener;
+        if (l != null) {
+            skinTemperature[0] = event.getTemperature();
+            l.onRecord(SensorStream.SKIN_TEMPERATURE, event.getTimestamp(), skinTemperature);
+        }
+    }
+
+    @Override
+    public void onBandGsrChanged(BandGsrEvent event) {
+        StreamListener l = listener;
+        if (l != null) {
+            gsr[0] = event.getResistance();
+            l.onRecord(SensorStream.GSR, event.getTimestamp(), gsr);
+        }
+    }
+
+    @Override
+    public void onBandBarometerChanged(BandBarometerEvent event) {
+        StreamListener l = listener;
+        if (l != null) {
+            barometer[0] = event.getAirPressure();
+            barometer[1] = event.getTemperature();
+            l.onRecord(SensorStream.BAROMETER, event.getTimestamp(), barometer);
+        }
+    }
+
+    @Override
+    public void onBandRRIntervalChanged(BandRRIntervalEvent event) {
+        StreamListener l = listener;
+        if (l != null) {
+            rrInterval[0] = event.getInterval();
+            l.onRecord(SensorStream.RR_INTERVAL, event.getTimestamp(), rrInterval);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.microsoft.band.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads a sample log written by {@link BinarySampleWriter}. This class has no Android dependencies,
+ * so that recordings can be processed on a desktop machine as well.
+ * <p>
+ * A record which was only partially written, e.g. because the application was killed during a
+ * recording, is ignored. A record whose bytes are all zero ends the log: it is the preallocated
+ * tail of a {@link MappedSampleWriter} segment which was not truncated because the application
+ * was killed before closing it.
+ * </p>
+ * <pre>
+ *   BinarySampleReader reader = new BinarySampleReader(new FileInputStream(file));
+ *   while (reader.next()) {
+ *       long timestamp = reader.getTimestamp();
+ *       float[] values = reader.getValues();
+ *       ...
+ *   }
+ *   reader.close();
+ * </pre>
+ *
+ * @see BinarySampleWriter
+ * @see SampleLogConverter
+ */
+class BinarySampleReader implements SampleReader {
+
+    /** the underlying input stream */
+    private final InputStream in;
+
+    /** version of the record layout, from the file header */
+    private final int version;
+
+    /** size of one record in bytes, from the file header */
+    private final int recordSize;
+
+    /** bytes of the current record */
+    private final ByteBuffer record;
+
+    /** timestamp of the current sample */
+    private long timestamp;
+
+    /** axis values of the current sample */
+    private final float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /**
+     * Creates a reader and validates the file header
+     * @param in the input stream, positioned at the start of the file
+     * @throws IOException if the stream is not a supported binary sample log
+     */
+    BinarySampleReader(InputStream in) throws IOException {
+        this.in = in;
+        ByteBuffer header = ByteBuffer.allocate(BinarySampleWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (!readFully(header.array(), BinarySampleWriter.HEADER_SIZE)) {
+            throw new EOFException("Missing binary sample log header");
+        }
+        if (header.getInt() != BinarySampleWriter.MAGIC) {
+            throw new IOException("Not a binary sample log");
+        }
+        version = header.getShort() & 0xffff;
+        int headerSize = header.getShort() & 0xffff;
+        recordSize = header.getShort() & 0xffff;
+        int valuesPerRecord = header.getShort() & 0xffff;
+        if (version < 1 || headerSize < BinarySampleWriter.HEADER_SIZE
+                || recordSize < BinarySampleWriter.RECORD_SIZE
+                || valuesPerRecord != SampleEncoder.VALUES_PER_SAMPLE) {
+            throw new IOException("Unsupported binary sample log: version " + version + ", header size "
+                    + headerSize + ", record size " + recordSize + ", values per record " + valuesPerRecord);
+        }
+        skipFully(headerSize - BinarySampleWriter.HEADER_SIZE);
+        record = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (!readFully(record.array(), recordSize) || isZero(record.array())) {
+            return false;
+        }
+        record.clear();
+        timestamp = record.getLong();
+        for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+            values[i] = record.getFloat();
+        }
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the version of the record layout declared in the file header
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads exactly {@code length} bytes unless the end of the stream is reached first
+     * @return true if all bytes were read, false if the stream ended early
+     */
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int count = in.read(buffer, n, length - n);
+            if (count < 0) {
+                return false;
+            }
+            n += count;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether all bytes of the buffer are zero
+     */
+    private static boolean isZero(byte[] buffer) {
+        for (byte b : buffer) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Truncated binary sample log header");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
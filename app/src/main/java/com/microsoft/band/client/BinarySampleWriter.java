@@ -0,0 +1,153 @@
+package com.microsoft.band.client;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes samples as fixed-size binary records, which take about a third of the space of the CSV
+ * log and require no formatting. All values are little-endian.
+ * <p>
+ * The file starts with a {@value #HEADER_SIZE}-byte header:
+ * </p>
+ * <pre>
+ *   int32  magic             {@link #MAGIC} ("IMUB" in file order)
+ *   uint16 version           {@link #VERSION}
+ *   uint16 header size       {@value #HEADER_SIZE}
+ *   uint16 record size       {@value #RECORD_SIZE}
+ *   uint16 values per record {@value SampleEncoder#VALUES_PER_SAMPLE}
+ *   int32  reserved          0
+ * </pre>
+ * <p>
+ * followed by one record per sample: an int64 timestamp and six float32 values (acceleration x/y/z,
+ * then angular velocity x/y/z). Readers should honor the header and record sizes, so that later
+ * versions can append fields.
+ * </p>
+ *
+ * @see BinarySampleReader
+ * @see SampleLogConverter
+ */
+class BinarySampleWriter implements SampleWriter {
+
+    /** identifies a binary sample log */
+    public static final int MAGIC = 0x42554d49;
+
+    /** version of the record layout written by this class */
+    public static final int VERSION = 1;
+
+    /** size of the file header in bytes */
+    public static final int HEADER_SIZE = 16;
+
+    /** size of one sample record in bytes */
+    public static final int RECORD_SIZE = 8 + 4 * SampleEncoder.VALUES_PER_SAMPLE;
+
+    /** number of records collected before they are passed to the output stream */
+    private static final int RECORDS_PER_BLOCK = 256;
+
+    /** the underlying output stream */
+    private final OutputStream out;
+
+    /** descriptor of the underlying file for {@link #sync()}, or null if unknown */
+    private final FileDescriptor fd;
+
+    /** block of encoded records not yet passed to {@link #out} */
+    private final ByteBuffer block = ByteBuffer.allocate(RECORDS_PER_BLOCK * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Creates a binary writer and writes the file header
+     * @param out the output stream, positioned at the start of the file
+     * @throws IOException if the header could not be written
+     */
+    BinarySampleWriter(OutputStream out) throws IOException {
+        this(out, null);
+    }
+
+    /**
+     * Creates a binary writer on a file, which can also be synchronized to the storage device. The
+     * records are already collected into blocks, so the file needs no additional buffering.
+     * @param file the file output stream, positioned at the start of the file
+     * @throws IOException if the header could not be written
+     */
+    BinarySampleWriter(FileOutputStream file) throws IOException {
+        this(file, file.getFD());
+    }
+
+    /**
+     * Creates a binary writer on a stream which ultimately writes to the given file
+     * @param out the output stream, e.g. a {@link GzipBlockOutputStream} wrapping the file
+     * @param fd descriptor of the underlying file, or null if unknown
+     * @throws IOException if the header could not be written
+     */
+    BinarySampleWriter(OutputStream out, FileDescriptor fd) throws IOException {
+        this.out = out;
+        this.fd = fd;
+        writeHeader(block);
+    }
+
+    /**
+     * Encodes the file header
+     * @param buffer little-endian buffer receiving the {@value #HEADER_SIZE} header bytes
+     */
+    static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.putShort((short) RECORD_SIZE);
+        buffer.putShort((short) SampleEncoder.VALUES_PER_SAMPLE);
+        buffer.putInt(0);
+    }
+
+    /**
+     * Encodes a single sample record
+     * @param buffer little-endian buffer receiving the {@value #RECORD_SIZE} record bytes
+     * @param timestamp the sample timestamp
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     */
+    static void writeRecord(ByteBuffer buffer, long timestamp, float[] values, int offset) {
+        buffer.putLong(timestamp);
+        for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+            buffer.putFloat(values[offset + i]);
+        }
+    }
+
+    @Override
+    public void write(long timestamp, float[] values, int offset) throws IOException {
+        if (block.remaining() < RECORD_SIZE) {
+            writeBlock();
+        }
+        writeRecord(block, timestamp, values, offset);
+    }
+
+    /**
+     * Passes the collected records to the output stream
+     * @throws IOException if the stream fails
+     */
+    private void writeBlock() throws IOException {
+        out.write(block.array(), 0, block.position());
+        block.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        flush();
+        if (fd != null) {
+            fd.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+}
@@ -0,0 +1,231 @@
+package com.microsoft.band.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads a sample log written by {@link CompressedSampleWriter}. A block which was only partially
+ * written, e.g. because the application was killed during a recording, is ignored.
+ *
+ * @see CompressedSampleWriter
+ * @see SampleLogConverter
+ */
+class CompressedSampleReader implements SampleReader {
+
+    /** the underlying input stream */
+    private final InputStream in;
+
+    /** header of the current block */
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(CompressedSampleWriter.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** payload of the current block */
+    private final byte[] payload = new byte[CompressedSampleWriter.MAX_PAYLOAD_SIZE];
+
+    /** little-endian view of {@link #payload} */
+    private final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** size of the current payload in bytes */
+    private int payloadSize;
+
+    /** index of the next byte of the bit stream in {@link #payload} */
+    private int position;
+
+    /** bits read from {@link #payload} but not yet consumed, right-aligned */
+    private long pendingBits;
+
+    /** number of valid bits in {@link #pendingBits} */
+    private int pendingCount;
+
+    /** number of samples in the current block not yet returned */
+    private int remaining = 0;
+
+    /** whether the next sample is the first of its block */
+    private boolean firstInBlock;
+
+    /** timestamp and timestamp delta of the current sample */
+    private long timestamp, delta;
+
+    /** raw float bits of each axis value of the current sample */
+    private final int[] bits = new int[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** leading and trailing zeros of each axis' last stored XOR window */
+    private final int[] leadingZeros = new int[SampleEncoder.VALUES_PER_SAMPLE];
+    private final int[] trailingZeros = new int[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** axis values of the current sample */
+    private final float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /**
+     * Creates a reader and validates the file header
+     * @param in the input stream, positioned at the start of the file
+     * @throws IOException if the stream is not a supported compressed sample log
+     */
+    CompressedSampleReader(InputStream in) throws IOException {
+        this.in = in;
+        ByteBuffer header = ByteBuffer.allocate(BinarySampleWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (!readFully(header.array(), BinarySampleWriter.HEADER_SIZE)) {
+            throw new EOFException("Missing compressed sample log header");
+        }
+        if (header.getInt() != CompressedSampleWriter.MAGIC) {
+            throw new IOException("Not a compressed sample log");
+        }
+        int version = header.getShort() & 0xffff;
+        int headerSize = header.getShort() & 0xffff;
+        header.getShort();
+        int valuesPerRecord = header.getShort() & 0xffff;
+        if (version != CompressedSampleWriter.VERSION || headerSize != BinarySampleWriter.HEADER_SIZE
+                || valuesPerRecord != SampleEncoder.VALUES_PER_SAMPLE) {
+            throw new IOException("Unsupported compressed sample log: version " + version + ", header size "
+                    + headerSize + ", values per record " + valuesPerRecord);
+        }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (remaining == 0 && !readBlock()) {
+            return false;
+        }
+        if (firstInBlock) {
+            payloadBuffer.clear();
+            timestamp = payloadBuffer.getLong();
+            delta = 0;
+            for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+                bits[i] = payloadBuffer.getInt();
+                leadingZeros[i] = -1;
+                trailingZeros[i] = 0;
+            }
+            position = payloadBuffer.position();
+            pendingBits = 0;
+            pendingCount = 0;
+            firstInBlock = false;
+        } else {
+            decodeTimestamp();
+            for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+                decodeValue(i);
+            }
+        }
+        for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+            values[i] = Float.intBitsToFloat(bits[i]);
+        }
+        remaining--;
+        return true;
+    }
+
+    /**
+     * Reads the next block into memory
+     * @return true if a complete block was read, false at the end of the log
+     */
+    private boolean readBlock() throws IOException {
+        if (!readFully(blockHeader.array(), CompressedSampleWriter.BLOCK_HEADER_SIZE)) {
+            return false;
+        }
+        blockHeader.clear();
+        payloadSize = blockHeader.getInt();
+        int samples = blockHeader.getInt();
+        if (payloadSize < CompressedSampleWriter.FIRST_SAMPLE_SIZE || payloadSize > payload.length
+                || samples <= 0 || samples > CompressedSampleWriter.SAMPLES_PER_BLOCK) {
+            throw new IOException("Corrupt block: " + payloadSize + " bytes, " + samples + " samples");
+        }
+        if (!readFully(payload, payloadSize)) {
+            return false;
+        }
+        remaining = samples;
+        firstInBlock = true;
+        return true;
+    }
+
+    private void decodeTimestamp() throws IOException {
+        long dod;
+        if (readBits(1) == 0) {
+            dod = 0;
+        } else if (readBits(1) == 0) {
+            dod = readBits(7) - 63;
+        } else if (readBits(1) == 0) {
+            dod = readBits(9) - 255;
+        } else if (readBits(1) == 0) {
+            dod = readBits(12) - 2047;
+        } else {
+            dod = (readBits(32) << 32) | readBits(32);
+        }
+        delta += dod;
+        timestamp += delta;
+    }
+
+    private void decodeValue(int axis) throws IOException {
+        if (readBits(1) == 0) {
+            return;
+        }
+        int xor;
+        if (readBits(1) == 0) {
+            if (leadingZeros[axis] < 0) {
+                throw new IOException("Corrupt block: missing XOR window");
+            }
+            int length = 32 - leadingZeros[axis] - trailingZeros[axis];
+            xor = (int) readBits(length) << trailingZeros[axis];
+        } else {
+            int leading = (int) readBits(5);
+            int length = (int) readBits(5) + 1;
+            int trailing = 32 - leading - length;
+            if (trailing < 0) {
+                throw new IOException("Corrupt block: invalid XOR window");
+            }
+            xor = (int) readBits(length) << trailing;
+            leadingZeros[axis] = leading;
+            trailingZeros[axis] = trailing;
+        }
+        bits[axis] ^= xor;
+    }
+
+    /**
+     * Consumes the next {@code count} bits of the bit stream
+     * @param count number of bits, at most 32
+     * @return the bits, right-aligned
+     */
+    private long readBits(int count) throws IOException {
+        while (pendingCount < count) {
+            if (position >= payloadSize) {
+                throw new IOException("Corrupt block: bit stream too short");
+            }
+            pendingBits = (pendingBits << 8) | (payload[position++] & 0xff);
+            pendingCount += 8;
+        }
+        pendingCount -= count;
+        long value = (pendingBits >>> pendingCount) & ((1L << count) - 1);
+        pendingBits &= (1L << pendingCount) - 1;
+        return value;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public float[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Reads exactly {@code length} bytes unless the end of the stream is reached first
+     * @return true if all bytes were read, false if the stream ended early
+     */
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int count = in.read(buffer, n, length - n);
+            if (count < 0) {
+                return false;
+            }
+            n += count;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,299 @@
+package com.microsoft.band.client;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes samples with a lossless, block-structured compression codec modeled on the Gorilla time
+ * series encoding. Consecutive Band samples have nearly constant timestamp deltas and slowly varying
+ * axis values, so timestamps are stored as delta-of-deltas and each axis value as the XOR with its
+ * previous value, using variable-length bit fields.
+ * <p>
+ * The file starts with the {@link BinarySampleWriter} header layout, with magic {@link #MAGIC}
+ * ("IMUZ") and a record size of 0. It is followed by blocks, each of which can be decoded on its
+ * own because the codec state is reset at every block boundary:
+ * </p>
+ * <pre>
+ *   int32 payload size in bytes
+ *   int32 number of samples n (at least 1)
+ *   payload:
+ *     int64 timestamp of the first sample
+ *     6 x int32 raw float bits of the first sample
+ *     bit stream for samples 2..n, most significant bit first, padded to a whole byte
+ * </pre>
+ * <p>
+ * Per sample, the bit stream holds the delta-of-delta d of the timestamp (the first delta of a block
+ * is taken relative to 0):
+ * </p>
+ * <pre>
+ *   '0'                             d == 0
+ *   '10'   + 7 bits  (d + 63)       -63 &lt;= d &lt;= 64
+ *   '110'  + 9 bits  (d + 255)      -255 &lt;= d &lt;= 256
+ *   '1110' + 12 bits (d + 2047)     -2047 &lt;= d &lt;= 2048
+ *   '1111' + 64 bits d              otherwise
+ * </pre>
+ * <p>
+ * followed by the XOR x of each axis value's bits with those of the previous sample:
+ * </p>
+ * <pre>
+ *   '0'                                               x == 0
+ *   '10' + meaningful bits                            same leading/trailing zero window as before
+ *   '11' + 5 bits leading zeros + 5 bits (length - 1) + meaningful bits
+ * </pre>
+ * <p>
+ * A block is completed when it holds {@link #SAMPLES_PER_BLOCK} samples or when the writer is
+ * flushed, so frequent flushing produces smaller blocks and a lower compression ratio.
+ * </p>
+ *
+ * @see CompressedSampleReader
+ */
+class CompressedSampleWriter implements SampleWriter {
+
+    /** identifies a compressed sample log */
+    public static final int MAGIC = 0x5a554d49;
+
+    /** version of the block layout written by this class */
+    public static final int VERSION = 1;
+
+    /** size of a block header in bytes: payload size and sample count */
+    public static final int BLOCK_HEADER_SIZE = 8;
+
+    /** size of the uncompressed first sample at the start of each payload */
+    public static final int FIRST_SAMPLE_SIZE = BinarySampleWriter.RECORD_SIZE;
+
+    /** maximum number of samples per block */
+    public static final int SAMPLES_PER_BLOCK = 1024;
+
+    /** maximum number of bits used to encode one sample after the first */
+    private static final int MAX_SAMPLE_BITS = (4 + 64) + SampleEncoder.VALUES_PER_SAMPLE * (2 + 5 + 5 + 32);
+
+    /** maximum payload size of a block in bytes */
+    public static final int MAX_PAYLOAD_SIZE = FIRST_SAMPLE_SIZE + ((SAMPLES_PER_BLOCK - 1) * MAX_SAMPLE_BITS + 7) / 8;
+
+    /** the underlying output stream */
+    private final OutputStream out;
+
+    /** descriptor of the underlying file for {@link #sync()}, or null if unknown */
+    private final FileDescriptor fd;
+
+    /** the block being encoded, including its header */
+    private final byte[] block = new byte[BLOCK_HEADER_SIZE + MAX_PAYLOAD_SIZE];
+
+    /** little-endian view of {@link #block} */
+    private final ByteBuffer blockBuffer = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** index of the next byte of the bit stream in {@link #block} */
+    private int position;
+
+    /** bits not yet written to {@link #block}, right-aligned */
+    private long pendingBits;
+
+    /** number of valid bits in {@link #pendingBits}, always less than 8 between calls */
+    private int pendingCount;
+
+    /** number of samples in the current block */
+    private int blockSamples = 0;
+
+    /** timestamp and timestamp delta of the previous sample */
+    private long previousTimestamp, previousDelta;
+
+    /** raw float bits of each axis value of the previous sample */
+    private final int[] previousBits = new int[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** leading and trailing zeros of each axis' last stored XOR window */
+    private final int[] previousLeading = new int[SampleEncoder.VALUES_PER_SAMPLE];
+    private final int[] previousTrailing = new int[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** total number of samples and bytes written, including headers */
+    private long sampleCount = 0, byteCount = 0;
+
+    /**
+     * Creates a compressed writer and writes the file header
+     * @param out the output stream, positioned at the start of the file
+     * @throws IOException if the header could not be written
+     */
+    CompressedSampleWriter(OutputStream out) throws IOException {
+        this(out, null);
+    }
+
+    /**
+     * Creates a compressed writer on a file, which can also be synchronized to the storage device
+     * @param file the file output stream, positioned at the start of the file
+     * @throws IOException if the header could not be written
+     */
+    CompressedSampleWriter(FileOutputStream file) throws IOException {
+        this(file, file.getFD());
+    }
+
+    /**
+     * Creates a compressed writer on a stream which ultimately writes to the given file
+     * @param out the output stream, positioned at the start of the file
+     * @param fd descriptor of the underlying file, or null if unknown
+     * @throws IOException if the header could not be written
+     */
+    CompressedSampleWriter(OutputStream out, FileDescriptor fd) throws IOException {
+        this.out = out;
+        this.fd = fd;
+        ByteBuffer header = ByteBuffer.allocate(BinarySampleWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) BinarySampleWriter.HEADER_SIZE);
+        header.putShort((short) 0);
+        header.putShort((short) SampleEncoder.VALUES_PER_SAMPLE);
+        header.putInt(0);
+        out.write(header.array());
+        byteCount += BinarySampleWriter.HEADER_SIZE;
+    }
+
+    @Override
+    public void write(long timestamp, float[] values, int offset) throws IOException {
+        if (blockSamples == 0) {
+            startBlock(timestamp, values, offset);
+        } else {
+            encodeTimestamp(timestamp);
+            for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+                encodeValue(i, Float.floatToRawIntBits(values[offset + i]));
+            }
+        }
+        blockSamples++;
+        sampleCount++;
+        if (blockSamples == SAMPLES_PER_BLOCK) {
+            writeBlock();
+        }
+    }
+
+    private void startBlock(long timestamp, float[] values, int offset) {
+        blockBuffer.clear();
+        blockBuffer.position(BLOCK_HEADER_SIZE);
+        blockBuffer.putLong(timestamp);
+        for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+            int bits = Float.floatToRawIntBits(values[offset + i]);
+            blockBuffer.putInt(bits);
+            previousBits[i] = bits;
+            previousLeading[i] = -1;
+            previousTrailing[i] = 0;
+        }
+        position = blockBuffer.position();
+        pendingBits = 0;
+        pendingCount = 0;
+        previousTimestamp = timestamp;
+        previousDelta = 0;
+    }
+
+    private void encodeTimestamp(long timestamp) {
+        long delta = timestamp - previousTimestamp;
+        long dod = delta - previousDelta;
+        if (dod == 0) {
+            writeBits(0, 1);
+        } else if (dod >= -63 && dod <= 64) {
+            writeBits(0x2, 2);
+            writeBits(dod + 63, 7);
+        } else if (dod >= -255 && dod <= 256) {
+            writeBits(0x6, 3);
+            writeBits(dod + 255, 9);
+        } else if (dod >= -2047 && dod <= 2048) {
+            writeBits(0xe, 4);
+            writeBits(dod + 2047, 12);
+        } else {
+            writeBits(0xf, 4);
+            writeBits(dod >>> 32, 32);
+            writeBits(dod, 32);
+        }
+        previousTimestamp = timestamp;
+        previousDelta = delta;
+    }
+
+    private void encodeValue(int axis, int bits) {
+        int xor = bits ^ previousBits[axis];
+        previousBits[axis] = bits;
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        int leading = Integer.numberOfLeadingZeros(xor);
+        int trailing = Integer.numberOfTrailingZeros(xor);
+        if (previousLeading[axis] >= 0 && leading >= previousLeading[axis] && trailing >= previousTrailing[axis]) {
+            int length = 32 - previousLeading[axis] - previousTrailing[axis];
+            writeBits(0x2, 2);
+            writeBits((xor >>> previousTrailing[axis]) & 0xffffffffL, length);
+        } else {
+            int length = 32 - leading - trailing;
+            writeBits(0x3, 2);
+            writeBits(leading, 5);
+            writeBits(length - 1, 5);
+            writeBits((xor >>> trailing) & 0xffffffffL, length);
+            previousLeading[axis] = leading;
+            previousTrailing[axis] = trailing;
+        }
+    }
+
+    /**
+     * Appends the lowest {@code count} bits of {@code value} to the bit stream
+     * @param value the bits to write, right-aligned
+     * @param count number of bits, at most 32
+     */
+    private void writeBits(long value, int count) {
+        pendingBits = (pendingBits << count) | (value & ((1L << count) - 1));
+        pendingCount += count;
+        while (pendingCount >= 8) {
+            pendingCount -= 8;
+            block[position++] = (byte) (pendingBits >>> pendingCount);
+        }
+        pendingBits &= (1L << pendingCount) - 1;
+    }
+
+    /**
+     * Completes the current block and passes it to the output stream
+     */
+    private void writeBlock() throws IOException {
+        if (pendingCount > 0) {
+            block[position++] = (byte) (pendingBits << (8 - pendingCount));
+            pendingCount = 0;
+        }
+        blockBuffer.putInt(0, position - BLOCK_HEADER_SIZE);
+        blockBuffer.putInt(4, blockSamples);
+        out.write(block, 0, position);
+        byteCount += position;
+        blockSamples = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (blockSamples > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        flush();
+        if (fd != null) {
+            fd.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    /**
+     * @return the number of samples written so far
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the number of bytes passed to the output stream so far, including all headers
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+}
@@ -0,0 +1,77 @@
+package com.microsoft.band.client;
+
+import java.util.Locale;
+
+/**
+ * Accumulates the compression ratio and cost of the blocks written by one or more
+ * {@link GzipBlockOutputStream}s, e.g. all segments of a session. Updated by the writer thread and
+ * read by other threads, so the figures may be slightly out of date but are never torn.
+ */
+class CompressionStats {
+
+    /** number of blocks compressed */
+    private long blocks;
+
+    /** number of bytes before and after compression, the latter including gzip headers and trailers */
+    private long rawBytes, compressedBytes;
+
+    /** total and maximum time spent compressing a block, in nanoseconds */
+    private long nanos, maxNanos;
+
+    /**
+     * Records a compressed block
+     * @param raw number of bytes before compression
+     * @param compressed number of bytes after compression
+     * @param elapsedNanos time spent compressing the block
+     */
+    synchronized void addBlock(int raw, int compressed, long elapsedNanos) {
+        blocks++;
+        rawBytes += raw;
+        compressedBytes += compressed;
+        nanos += elapsedNanos;
+        if (elapsedNanos > maxNanos) {
+            maxNanos = elapsedNanos;
+        }
+    }
+
+    /**
+     * @return the number of blocks compressed
+     */
+    public synchronized long getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the ratio of uncompressed to compressed bytes, or 0 if nothing was compressed
+     */
+    public synchronized double getRatio() {
+        return compressedBytes == 0 ? 0 : (double) rawBytes / compressedBytes;
+    }
+
+    /**
+     * @return the mean time spent compressing a block, in microseconds
+     */
+    public synchronized long getMeanBlockMicros() {
+        return blocks == 0 ? 0 : nanos / blocks / 1000;
+    }
+
+    /**
+     * @return the longest time spent compressing a block, in microseconds
+     */
+    public synchronized long getMaxBlockMicros() {
+        return maxNanos / 1000;
+    }
+
+    /**
+     * @return the mean time spent compressing one kilobyte of input, in microseconds
+     */
+    public synchronized double getMicrosPerKilobyte() {
+        return rawBytes == 0 ? 0 : nanos / 1000.0 / (rawBytes / 1024.0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d blocks, %d -> %d bytes (ratio %.2f), mean %d us/block, max %d us/block",
+                blocks, rawBytes, compressedBytes, getRatio(), getMeanBlockMicros(), getMaxBlockMicros());
+    }
+}
@@ -0,0 +1,403 @@
+package com.microsoft.band.client;
+
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the connection of one device during a recording and restores it when it is lost. Every
+ * {@link #getCheckIntervalMillis()} the supervisor checks that the device is connected and that its
+ * samples are still flowing, since a Band out of range may stop sending samples long before the SDK
+ * reports it as disconnected. When either check fails, an outage starts: the supervisor reconnects
+ * the device and registers its listeners again, immediately and then with exponential backoff,
+ * until samples flow again.
+ * <p>
+ * The delay before the n-th retry is drawn uniformly between half and all of {@code base * 2^(n-1)},
+ * capped at a maximum, so that several devices dropped together do not retry in lockstep. The
+ * outage is considered over once a sample arrives after a successful reconnection; it is then
+ * reported with its start, the time of the last sample seen before it, and its end, so that the gap
+ * in the logs is explicit. An outage still in progress when the supervisor is stopped is reported
+ * as not recovered.
+ * </p>
+ *
+ * @see SensorService
+ */
+class ConnectionSupervisor implements Runnable {
+
+    /** The connection of a device, as seen by the supervisor */
+    interface Link {
+
+        /**
+         * @return whether the device is currently connected
+         */
+        boolean isConnected();
+
+        /**
+         * @return the number of samples received from the device so far
+         */
+        long getSampleCount();
+
+        /**
+         * Re-establishes the connection of the device, dropping it first if it still appears to be
+         * up, then registers its listeners again. Called on the supervisor thread; may block.
+         * @return true if the device is connected and its listeners registered
+         * @throws Exception if the device could not be reached
+         */
+        boolean reconnect() throws Exception;
+    }
+
+    /** receives the outages of a device */
+    interface Listener {
+
+        /**
+         * Called on the supervisor thread when an outage starts
+         * @param supervisor the supervisor of the device
+         * @param start time of the last sample seen before the outage, in milliseconds since the epoch
+         */
+        void onConnectionLost(ConnectionSupervisor supervisor, long start);
+
+        /**
+         * Called on the supervisor thread when an attempt to reconnect fails
+         * @param supervisor the supervisor of the device
+         * @param attempt number of attempts made so far in this outage
+         * @param retryMillis time until the next attempt, in milliseconds
+         * @param error the error raised by the attempt, or null if the device did not connect or did
+         *              not send samples
+         */
+        void onReconnectFailed(ConnectionSupervisor supervisor, int attempt, long retryMillis, Exception error);
+
+        /**
+         * Called when an outage is over, on the supervisor thread, or on the thread stopping the
+         * supervisor if the outage was still in progress
+         * @param supervisor the supervisor of the device
+         * @param start time of the last sample seen before the outage, in milliseconds since the epoch
+         * @param end time at which samples flowed again, or at which the supervisor was stopped
+         * @param attempts number of attempts made to reconnect
+         * @param recovered whether the connection was restored
+         */
+        void onOutage(ConnectionSupervisor supervisor, long start, long end, int attempts, boolean recovered);
+    }
+
+    /** tag used for debugging purposes */
+    private static final String TAG = ConnectionSupervisor.class.getName();
+
+    /** default time between two checks of the connection, in milliseconds */
+    static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+
+    /** default time without samples after which the connection is considered lost, dozens of samples at the lowest rate */
+    static final long DEFAULT_STALL_TIMEOUT_MILLIS = 5000;
+
+    /** default delay before the first retry, in milliseconds */
+    static final long DEFAULT_BASE_BACKOFF_MILLIS = 1000;
+
+    /** default maximum delay between two retries, in milliseconds */
+    static final long DEFAULT_MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    /** short identifier of the device */
+    private final String name;
+
+    /** the connection of the device */
+    private final Link link;
+
+    /** receives the outages */
+    private final Listener listener;
+
+    /** time between two checks, time without samples after which the connection is lost, in milliseconds */
+    private final long checkIntervalMillis, stallTimeoutMillis;
+
+    /** delay before the first retry and maximum delay between retries, in milliseconds */
+    private final long baseBackoffMillis, maxBackoffMillis;
+
+    /** jitter of the retry delays, only used by the supervisor thread */
+    private final Random random;
+
+    /** sample count at the last check, only used by the supervisor thread */
+    private long lastSampleCount;
+
+    /** time at which the sample count last changed, from {@link System#nanoTime()} and the wall clock */
+    private long lastProgressNanos, lastProgressMillis;
+
+    /** start of the outage in progress, guarded by this, 0 if the connection is up */
+    private long outageStart = 0;
+
+    /** number of attempts made in the outage in progress, guarded by this */
+    private int attempts = 0;
+
+    /** whether the last attempt reconnected the device, which must now send samples */
+    private boolean awaitingSamples = false;
+
+    /** number of outages and of reconnection attempts so far */
+    private volatile int outageCount, attemptCount;
+
+    /** the supervisor thread, only non-null while running, guarded by this */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a supervisor with the default timing; call {@link #start()} to begin watching
+     * @param name short identifier of the device
+     * @param link the connection of the device
+     * @param listener receives the outages
+     */
+    ConnectionSupervisor(String name, Link link, Listener listener) {
+        this(name, link, listener, DEFAULT_CHECK_INTERVAL_MILLIS, DEFAULT_STALL_TIMEOUT_MILLIS,
+                DEFAULT_BASE_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, new Random());
+    }
+
+    /**
+     * Creates a supervisor; call {@link #start()} to begin watching
+     * @param name short identifier of the device
+     * @param link the connection of the device
+     * @param listener receives the outages
+     * @param checkIntervalMillis time between two checks of the connection, in milliseconds
+     * @param stallTimeoutMillis time without samples after which the connection is considered lost
+     * @param baseBackoffMillis delay before the first retry, in milliseconds
+     * @param maxBackoffMillis maximum delay between two retries, in milliseconds
+     * @param random source of the jitter of the retry delays
+     */
+    ConnectionSupervisor(String name, Link link, Listener listener, long checkIntervalMillis,
+                         long stallTimeoutMillis, long baseBackoffMillis, long maxBackoffMillis, Random random) {
+        if (checkIntervalMillis <= 0 || stallTimeoutMillis < checkIntervalMillis || baseBackoffMillis <= 0
+                || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("Invalid supervision: check every " + checkIntervalMillis
+                    + " ms, stall after " + stallTimeoutMillis + " ms, backoff " + baseBackoffMillis + " to "
+                    + maxBackoffMillis + " ms");
+        }
+        this.name = name;
+        this.link = link;
+        this.listener = listener;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.random = random;
+    }
+
+    /**
+     * Starts the supervisor thread, once the device is recording
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        lastSampleCount = link.getSampleCount();
+        lastProgressNanos = System.nanoTime();
+        lastProgressMillis = System.currentTimeMillis();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "Supervisor-" + name);
+            }
+        });
+        executor.schedule(this, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the supervisor thread, interrupting an attempt in progress, and reports an outage still
+     * in progress as not recovered. Blocks until the thread has finished, so that the device is not
+     * reconnected once this method has returned.
+     */
+    public void stop() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = executor;
+            executor = null;
+        }
+        if (stopping == null) {
+            return;
+        }
+        stopping.shutdownNow();
+        try {
+            stopping.awaitTermination(DEFAULT_MAX_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long start;
+        int outageAttempts;
+        synchronized (this) {
+            start = outageStart;
+            outageAttempts = attempts;
+            outageStart = 0;
+        }
+        if (start != 0) {
+            listener.onOutage(this, start, System.currentTimeMillis(), outageAttempts, false);
+        }
+    }
+
+    /**
+     * Checks the connection or, during an outage, makes an attempt to restore it, then schedules the
+     * next run
+     */
+    @Override
+    public void run() {
+        long delay;
+        try {
+            delay = isOutage() ? recover() : check();
+        } catch (RuntimeException e) {
+            Log.e(TAG, name + ": failed to supervise the connection", e);
+            delay = checkIntervalMillis;
+        }
+        synchronized (this) {
+            if (executor != null && !executor.isShutdown()) {
+                executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return whether an outage is in progress
+     */
+    private synchronized boolean isOutage() {
+        return outageStart != 0;
+    }
+
+    /**
+     * Checks that the device is connected and sending samples, and starts an outage if not
+     * @return the time until the next run, in milliseconds
+     */
+    private long check() {
+        long now = System.nanoTime();
+        boolean stalled = !updateProgress(now)
+                && now - lastProgressNanos >= TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+        if (!stalled && link.isConnected()) {
+            return checkIntervalMillis;
+        }
+        synchronized (this) {
+            outageStart = lastProgressMillis;
+            attempts = 0;
+        }
+        outageCount++;
+        awaitingSamples = false;
+        Log.w(TAG, name + (stalled ? ": no samples for " + TimeUnit.NANOSECONDS.toMillis(now - lastProgressNanos)
+                + " ms" : ": disconnected"));
+        listener.onConnectionLost(this, lastProgressMillis);
+        // the first attempt is made right away
+        return 0;
+    }
+
+    /**
+     * Makes an attempt to restore the connection, or checks that the previous one brought the samples back
+     * @return the time until the next run, in milliseconds
+     */
+    private long recover() {
+        long now = System.nanoTime();
+        if (awaitingSamples) {
+            if (updateProgress(now)) {
+                long start, end = lastProgressMillis;
+                int outageAttempts;
+                synchronized (this) {
+                    start = outageStart;
+                    outageAttempts = attempts;
+                    outageStart = 0;
+                }
+                awaitingSamples = false;
+                Log.i(TAG, name + ": reconnected after " + (end - start) + " ms and " + outageAttempts + " attempts");
+                listener.onOutage(this, start, end, outageAttempts, true);
+                return checkIntervalMillis;
+            }
+            if (now - lastProgressNanos < TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis) && link.isConnected()) {
+                return checkIntervalMillis;
+            }
+            // reconnected, but the samples did not come back
+            awaitingSamples = false;
+            return retry(null);
+        }
+        int attempt;
+        synchronized (this) {
+            attempt = ++attempts;
+        }
+        attemptCount++;
+        try {
+            if (link.reconnect()) {
+                // the outage is over once a sample arrives, which the stall timeout waits for
+                awaitingSamples = true;
+                lastProgressNanos = System.nanoTime();
+                lastSampleCount = link.getSampleCount();
+                return Math.min(checkIntervalMillis, stallTimeoutMillis);
+            }
+            return retry(null);
+        } catch (InterruptedException e) {
+            // the supervisor is being stopped
+            Thread.currentThread().interrupt();
+            return checkIntervalMillis;
+        } catch (Exception e) {
+            Log.w(TAG, name + ": reconnection attempt " + attempt + " failed", e);
+            return retry(e);
+        }
+    }
+
+    /**
+     * Reports a failed attempt and computes the delay before the next one
+     * @param error the error raised by the attempt, or null
+     * @return the delay before the next attempt, in milliseconds
+     */
+    private long retry(Exception error) {
+        int attempt;
+        synchronized (this) {
+            attempt = attempts;
+        }
+        long delay = getBackoffMillis(attempt);
+        listener.onReconnectFailed(this, attempt, delay, error);
+        return delay;
+    }
+
+    /**
+     * Records the samples received since the last call
+     * @param now the current time, from {@link System#nanoTime()}
+     * @return true if samples were received
+     */
+    private boolean updateProgress(long now) {
+        long count = link.getSampleCount();
+        if (count == lastSampleCount) {
+            return false;
+        }
+        lastSampleCount = count;
+        lastProgressNanos = now;
+        lastProgressMillis = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Computes the jittered delay before a retry
+     * @param attempt number of attempts already made, at least 1
+     * @return a delay between half and all of {@code base * 2^(attempt-1)}, capped at the maximum, in milliseconds
+     */
+    long getBackoffMillis(int attempt) {
+        long delay = maxBackoffMillis;
+        if (attempt <= 30) {
+            delay = Math.min(maxBackoffMillis, baseBackoffMillis << (attempt - 1));
+        }
+        return delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+    }
+
+    /**
+     * @return the short identifier of the device
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time between two checks of the connection, in milliseconds
+     */
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    /**
+     * @return the number of outages so far
+     */
+    public int getOutageCount() {
+        return outageCount;
+    }
+
+    /**
+     * @return the number of reconnection attempts so far
+     */
+    public int getAttemptCount() {
+        return attemptCount;
+    }
+}
@@ -18,10 +18,62 @@ class Constants {
         int SENSOR_STARTED = 2;
         int SENSOR_STOPPED = 3;
         int STATUS = 4;
+        int SET_SAMPLE_RATE = 5;
+        int GESTURE = 6;
+        int SAMPLES = 7;
+        int REGISTER_PREVIEW = 8;
+        int UNREGISTER_PREVIEW = 9;
+        int SHARED_RING = 10;
+        int SAMPLES_AVAILABLE = 11;
     }
 
     public interface KEY {
         String STATUS = "edu.umass.cs.mygestures.key.status";
+        String SAMPLE_FORMAT = "edu.umass.cs.mygestures.key.sample-format";
+        String MEMORY_MAPPED = "edu.umass.cs.mygestures.key.memory-mapped";
+        String DEFLATE_LEVEL = "edu.umass.cs.mygestures.key.deflate-level";
+        String FLUSH_SAMPLES = "edu.umass.cs.mygestures.key.flush-samples";
+        String FLUSH_INTERVAL_MILLIS = "edu.umass.cs.mygestures.key.flush-interval-millis";
+        String SYNC_FLUSHES = "edu.umass.cs.mygestures.key.sync-flushes";
+        String LOG_MODE = "edu.umass.cs.mygestures.key.log-mode";
+        String LOG_EVERY = "edu.umass.cs.mygestures.key.log-every";
+        String SAMPLE_SOURCE = "edu.umass.cs.mygestures.key.sample-source";
+        String SIMULATED_RATE = "edu.umass.cs.mygestures.key.simulated-rate";
+        String SIMULATED_DEVICES = "edu.umass.cs.mygestures.key.simulated-devices";
+        String SENSOR_STREAMS = "edu.umass.cs.mygestures.key.sensor-streams";
+        String REPLAY_FILE = "edu.umass.cs.mygestures.key.replay-file";
+        String SAMPLE_RATE = "edu.umass.cs.mygestures.key.sample-rate";
+        String ADAPTIVE_RATE = "edu.umass.cs.mygestures.key.adaptive-rate";
+        String MOTION_WINDOW_MILLIS = "edu.umass.cs.mygestures.key.motion-window-millis";
+        String STILL_VARIANCE = "edu.umass.cs.mygestures.key.still-variance";
+        String ACTIVE_VARIANCE = "edu.umass.cs.mygestures.key.active-variance";
+        String STILL_HOLD_MILLIS = "edu.umass.cs.mygestures.key.still-hold-millis";
+        String EXTRACT_FEATURES = "edu.umass.cs.mygestures.key.extract-features";
+        String FEATURE_WINDOW_MILLIS = "edu.umass.cs.mygestures.key.feature-window-millis";
+        String FEATURE_HOP_MILLIS = "edu.umass.cs.mygestures.key.feature-hop-millis";
+        String RAW_SAMPLES = "edu.umass.cs.mygestures.key.raw-samples";
+        String SPECTRAL_SIZE = "edu.umass.cs.mygestures.key.spectral-size";
+        String SPECTRAL_HOP = "edu.umass.cs.mygestures.key.spectral-hop";
+        String SPECTRAL_BANDS = "edu.umass.cs.mygestures.key.spectral-bands";
+        String RESAMPLE_RATE = "edu.umass.cs.mygestures.key.resample-rate";
+        String RESAMPLE_INTERPOLATION = "edu.umass.cs.mygestures.key.resample-interpolation";
+        String RESAMPLE_MAX_GAP_MILLIS = "edu.umass.cs.mygestures.key.resample-max-gap-millis";
+        String DETECTORS = "edu.umass.cs.mygestures.key.detectors";
+        String THRESHOLD_G = "edu.umass.cs.mygestures.key.threshold-g";
+        String PEAK_DPS = "edu.umass.cs.mygestures.key.peak-dps";
+        String DTW_TEMPLATE = "edu.umass.cs.mygestures.key.dtw-template";
+        String DTW_THRESHOLD_G = "edu.umass.cs.mygestures.key.dtw-threshold-g";
+        String DEVICE = "edu.umass.cs.mygestures.key.device";
+        String GESTURE = "edu.umass.cs.mygestures.key.gesture";
+        String GESTURE_START = "edu.umass.cs.mygestures.key.gesture-start";
+        String GESTURE_END = "edu.umass.cs.mygestures.key.gesture-end";
+        String GESTURE_SCORE = "edu.umass.cs.mygestures.key.gesture-score";
+        String GESTURE_LATENCY_MILLIS = "edu.umass.cs.mygestures.key.gesture-latency-millis";
+        String TIMESTAMPS = "edu.umass.cs.mygestures.key.timestamps";
+        String VALUES = "edu.umass.cs.mygestures.key.values";
+        String SHARED_MEMORY = "edu.umass.cs.mygestures.key.shared-memory";
+        String RING_DESCRIPTOR = "edu.umass.cs.mygestures.key.ring-descriptor";
+        String SEQUENCE = "edu.umass.cs.mygestures.key.sequence";
     }
 
     public interface NOTIFICATION_ID {
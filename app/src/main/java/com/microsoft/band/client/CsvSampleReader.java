@@ -0,0 +1,88 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a sample log in the CSV layout of sensor_data.csv, as written by {@link CsvSampleWriter}:
+ * one sample per line, the timestamp followed by the six axis values. Empty lines are skipped.
+ * <p>
+ * A NUL character ends the log, together with the line it is on: it starts the preallocated tail of
+ * a {@link MappedSampleWriter} segment which was not truncated because the application was killed
+ * before closing it, and the line before it may have been cut short.
+ * </p>
+ *
+ * @see SampleLogConverter#open(java.io.File)
+ */
+class CsvSampleReader implements SampleReader {
+
+    /** the log */
+    private final BufferedReader in;
+
+    /** name of the log, for error messages */
+    private final String name;
+
+    /** values of the current sample */
+    private final float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** timestamp of the current sample */
+    private long timestamp;
+
+    /** number of the current line */
+    private int lineNumber = 0;
+
+    /**
+     * Creates a reader
+     * @param in the log, closed with the reader
+     * @param name name of the log, for error messages
+     */
+    CsvSampleReader(Reader in, String name) {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        this.name = name;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) {
+                return false;
+            }
+            lineNumber++;
+            if (line.indexOf('\0') >= 0) {
+                return false;
+            }
+        } while (line.isEmpty());
+        String[] fields = line.split(",");
+        if (fields.length != SampleEncoder.VALUES_PER_SAMPLE + 1) {
+            throw new IOException(name + ":" + lineNumber + ": expected "
+                    + (SampleEncoder.VALUES_PER_SAMPLE + 1) + " fields");
+        }
+        try {
+            timestamp = Long.parseLong(fields[0]);
+            for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+                values[i] = Float.parseFloat(fields[i + 1]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(name + ":" + lineNumber + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public float[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * Writes samples as lines of comma-separated values: the timestamp followed by the acceleration
+ * and angular velocity along each axis. This is the format of the sensor_data.csv log.
+ *
+ * @see SampleEncoder
+ * @see FileUtil#getFileWriter(String)
+ */
+class CsvSampleWriter implements SampleWriter {
+
+    /** the underlying file writer */
+    private final BufferedWriter out;
+
+    /** descriptor of the underlying file for {@link #sync()}, or null if unknown */
+    private final FileDescriptor fd;
+
+    /** formats samples into a reusable buffer */
+    private final SampleEncoder encoder = new SampleEncoder();
+
+    /**
+     * Creates a CSV writer on top of an existing file writer
+     * @param out file writer, e.g. from {@link FileUtil#getFileWriter(String)}
+     */
+    CsvSampleWriter(BufferedWriter out) {
+        this.out = out;
+        this.fd = null;
+    }
+
+    /**
+     * Creates a CSV writer on a file, which can also be synchronized to the storage device
+     * @param file the file output stream
+     * @throws IOException if the file descriptor is invalid
+     */
+    CsvSampleWriter(FileOutputStream file) throws IOException {
+        this(file, file.getFD());
+    }
+
+    /**
+     * Creates a CSV writer on a stream which ultimately writes to the given file
+     * @param out the output stream, e.g. a {@link GzipBlockOutputStream} wrapping the file
+     * @param fd descriptor of the underlying file, or null if unknown
+     */
+    CsvSampleWriter(OutputStream out, FileDescriptor fd) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out));
+        this.fd = fd;
+    }
+
+    @Override
+    public void write(long timestamp, float[] values, int offset) throws IOException {
+        int length = encoder.encode(timestamp, values, offset);
+        out.write(encoder.getBuffer(), 0, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        out.flush();
+        if (fd != null) {
+            fd.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        out.close();
+    }
+}
@@ -0,0 +1,132 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * A {@link SampleStage} which writes one CSV line per record, e.g. per analyzed window, after a
+ * header line holding the column names. The file is written, flushed and synchronized together with
+ * the raw log.
+ * <p>
+ * Records are short and frequent, so each line is built in the reusable {@link #line} and copied
+ * into a reusable character buffer rather than into a new string. Lines are typically written from
+ * the callback of an analyzer, which cannot throw: an error is kept and thrown by
+ * {@link #throwPendingError()} once the sample has been processed.
+ * </p>
+ *
+ * @see FeatureWriter
+ * @see SpectralWriter
+ */
+abstract class CsvStage extends SampleStage {
+
+    /** file name of the CSV file */
+    private final String fileName;
+
+    /** the CSV file */
+    private BufferedWriter out;
+
+    /** descriptor of the CSV file, for {@link #syncOutput()} */
+    private FileDescriptor fd;
+
+    /** reusable buffer for the line being written */
+    protected final StringBuilder line = new StringBuilder();
+
+    /** characters of the line being written, grown as needed */
+    private char[] chars = new char[256];
+
+    /** error raised while writing a line from a callback */
+    private IOException error;
+
+    /**
+     * Creates a stage; the subclass creates the file with {@link #create(File, String, String[])}
+     * once its parameters are validated
+     * @param fileName name of the CSV file
+     */
+    CsvStage(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Creates the CSV file, then writes and flushes the header line. Must be called by the
+     * constructor of the subclass.
+     * @param directory directory in which to create the file
+     * @param columns the first column names, already separated by commas
+     * @param names the remaining column names
+     * @throws IOException if the file could not be created
+     */
+    protected void create(File directory, String columns, String[] names) throws IOException {
+        FileOutputStream file = new FileOutputStream(new File(directory, fileName));
+        fd = file.getFD();
+        out = new BufferedWriter(new OutputStreamWriter(file, "US-ASCII"));
+        line.setLength(0);
+        line.append(columns);
+        for (String name : names) {
+            line.append(',').append(name);
+        }
+        write();
+        out.flush();
+    }
+
+    /**
+     * Writes {@link #line} followed by a line break. An error is kept for {@link #throwPendingError()}.
+     */
+    protected void writeLine() {
+        try {
+            write();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Writes {@link #line} followed by a line break, without allocating once the buffer is large enough
+     */
+    private void write() throws IOException {
+        line.append('\n');
+        int length = line.length();
+        if (length > chars.length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        line.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+    }
+
+    /**
+     * Throws the error raised by the last {@link #writeLine()}, if any, and clears it
+     * @throws IOException the error
+     */
+    protected void throwPendingError() throws IOException {
+        if (error != null) {
+            IOException e = error;
+            error = null;
+            throw e;
+        }
+    }
+
+    @Override
+    protected void flushOutput() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    protected void syncOutput() throws IOException {
+        out.flush();
+        fd.sync();
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+}
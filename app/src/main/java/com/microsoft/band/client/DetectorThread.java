@@ -0,0 +1,226 @@
+package com.microsoft.band.client;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread that runs the {@link GestureDetector}s of one device. It drains its own
+ * {@link SampleRingBuffer}, fed by the {@link DeviceRecorder} next to that of the
+ * {@link SampleWriterThread}, so that flushes and syncs of the logs never delay a detection. The
+ * latency of a detection is thus bounded by the short idle wait of the thread plus the look-ahead
+ * of the detector, e.g. the confirmation delay of a {@link PeakDetector}.
+ * <p>
+ * The time spent by the detectors on each sample, and the delay between the timestamp of the sample
+ * completing a detection and its report, are recorded. The delay is only meaningful for live
+ * sources, whose timestamps follow the wall clock.
+ * </p>
+ *
+ * @see SensorService
+ */
+class DetectorThread extends Thread implements GestureDetector.Listener {
+
+    /** receives the gestures detected on a device */
+    interface Listener {
+
+        /**
+         * Called on the detector thread when a gesture is detected
+         * @param device short identifier of the device
+         * @param detector the detector
+         * @param start timestamp at which the gesture starts, in milliseconds
+         * @param end timestamp of the sample which completed the detection
+         * @param score strength of the detection, in the units of the detector
+         * @param latencyMillis time between {@code end} and the report
+         */
+        void onGesture(String device, GestureDetector detector, long start, long end, double score,
+                       long latencyMillis);
+    }
+
+    /** tag used for debugging purposes */
+    private static final String TAG = DetectorThread.class.getName();
+
+    /** maximum number of samples processed per drain, so that shutdown requests are noticed promptly */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /** time to sleep when the buffer is empty, which bounds the added latency */
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /** short identifier of the device */
+    private final String device;
+
+    /** the detectors, fed in order */
+    private final GestureDetector[] detectors;
+
+    /** queue between the source's thread and this thread */
+    private final SampleRingBuffer buffer;
+
+    /** receives the gestures */
+    private final Listener listener;
+
+    /** number of samples processed */
+    private volatile long sampleCount;
+
+    /** total and maximum time spent by the detectors on one sample, in nanoseconds */
+    private volatile long detectNanos, maxDetectNanos;
+
+    /** number of gestures detected */
+    private volatile long gestureCount;
+
+    /** longest delay between a completing sample and its report, in milliseconds */
+    private volatile long maxLatencyMillis;
+
+    /** cleared to request that the thread stop */
+    private volatile boolean running = true;
+
+    /**
+     * Creates a detector thread; call {@link #start()} to begin detecting
+     * @param device short identifier of the device
+     * @param detectors the detectors of the device
+     * @param bufferCapacity number of samples that can be queued for detection
+     * @param listener receives the gestures
+     */
+    DetectorThread(String device, List<GestureDetector> detectors, int bufferCapacity, Listener listener) {
+        super("Detector-" + device);
+        this.device = device;
+        this.detectors = detectors.toArray(new GestureDetector[detectors.size()]);
+        this.buffer = new SampleRingBuffer(bufferCapacity);
+        this.listener = listener;
+    }
+
+    /**
+     * Queues a sample for detection. Must only be called from the thread delivering the samples.
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     */
+    void offer(long timestamp, float[] values, int offset) {
+        buffer.offer(timestamp, values, offset);
+    }
+
+    @Override
+    public void run() {
+        // unlike the writer thread, detection is latency sensitive
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+        SampleWriter sink = new DetectorSink();
+        try {
+            while (running) {
+                if (buffer.drainTo(sink, MAX_BATCH_SIZE) == 0) {
+                    LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+                }
+            }
+            while (buffer.drainTo(sink, MAX_BATCH_SIZE) > 0) {
+                // detect in whatever was queued before the shutdown request
+            }
+        } catch (IOException e) {
+            // the sink never throws
+            Log.e(TAG, "Failed to run the detectors", e);
+        }
+    }
+
+    /**
+     * Feeds the drained samples to the detectors, timing them
+     */
+    private class DetectorSink implements SampleWriter {
+
+        @Override
+        public void write(long timestamp, float[] values, int offset) {
+            long start = System.nanoTime();
+            for (GestureDetector detector : detectors) {
+                detector.onSample(timestamp, values, offset, DetectorThread.this);
+            }
+            long elapsed = System.nanoTime() - start;
+            detectNanos += elapsed;
+            if (elapsed > maxDetectNanos) {
+                maxDetectNanos = elapsed;
+            }
+            sampleCount++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Override
+    public void onGesture(GestureDetector detector, long start, long end, double score) {
+        long latency = System.currentTimeMillis() - end;
+        if (latency > maxLatencyMillis) {
+            maxLatencyMillis = latency;
+        }
+        gestureCount++;
+        try {
+            listener.onGesture(device, detector, start, end, score, latency);
+        } catch (RuntimeException e) {
+            Log.e(TAG, device + ": failed to report a gesture of " + detector.getName(), e);
+        }
+    }
+
+    /**
+     * @return the queue between the source and this thread, for its usage statistics
+     */
+    public SampleRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the number of samples processed so far
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the mean time spent by all detectors on one sample, in nanoseconds
+     */
+    public long getMeanDetectNanos() {
+        long count = sampleCount;
+        return count == 0 ? 0 : detectNanos / count;
+    }
+
+    /**
+     * @return the longest time spent by all detectors on one sample, in microseconds
+     */
+    public long getMaxDetectMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxDetectNanos);
+    }
+
+    /**
+     * @return the number of gestures detected so far
+     */
+    public long getGestureCount() {
+        return gestureCount;
+    }
+
+    /**
+     * @return the longest delay between the sample completing a detection and its report, in milliseconds
+     */
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    /**
+     * Stops the thread after the remaining samples have been processed. Blocks until the thread has
+     * finished.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
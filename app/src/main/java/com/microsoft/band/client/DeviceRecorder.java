@@ -0,0 +1,372 @@
+package com.microsoft.band.client;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * The recording pipeline of one device: its {@link SampleSource}, a {@link SampleRingBuffer}, and a
+ * {@link SampleWriterThread} draining the buffer into the device's own {@link RollingSampleWriter},
+ * through a chain of {@link SampleStage}s such as a {@link FeatureWriter} or a {@link SpectralWriter},
+ * headed by a {@link TimingAnalyzer} which watches the timestamps for gaps and jitter.
+ * Devices share nothing, so a slow or stalled device never delays the others and no lock is taken
+ * on the sample path.
+ * <p>
+ * Optionally, an {@link AdaptiveRateController} watches the samples and decides when to switch the
+ * sampling rate; the switch itself is performed on a separate executor, since it may involve a
+ * round trip to the Band. Every rate change is recorded in the session's {@link EventLog}.
+ * </p>
+ * <p>
+ * Gesture detectors, if any, run on a {@link DetectorThread} with its own buffer, which the source's
+ * thread fills alongside that of the writer thread.
+ * </p>
+ *
+ * @see SensorService
+ * @see SessionManifest
+ */
+class DeviceRecorder implements SampleListener {
+
+    /** tag used for debugging purposes */
+    private static final String TAG = DeviceRecorder.class.getName();
+
+    /** short identifier of the device, included in its file names */
+    private final String name;
+
+    /** the source of the samples */
+    private final SampleSource source;
+
+    /** queue between the source's thread and the {@link #writerThread} */
+    private final SampleRingBuffer buffer;
+
+    /** raw log of the device, or null if only the output of the stages is recorded */
+    private final RollingSampleWriter writer;
+
+    /** the processing stages of the samples, in the order in which they receive them */
+    private final List<SampleStage> stages;
+
+    /** watches the timestamps for gaps and jitter, at the head of the chain of stages */
+    private final TimingAnalyzer timing;
+
+    /** thread which writes the queued samples to the log */
+    private final SampleWriterThread writerThread;
+
+    /** rate-limited debug output of the samples, null if disabled */
+    private final SampleLogTap logTap;
+
+    /** decides when to switch the sampling rate, null unless the rate is adaptive */
+    private volatile AdaptiveRateController rateController;
+
+    /** live preview of the samples, or null */
+    private SampleListener preview;
+
+    /** shared-memory ring of the samples for clients, or null */
+    private SharedSampleRing sharedRing;
+
+    /** thread running the gesture detectors of the device, or null if there are none */
+    private DetectorThread detectorThread;
+
+    /** performs the rate switches decided by the {@link #rateController} */
+    private Executor rateExecutor;
+
+    /** log of the rate changes, or null */
+    private EventLog eventLog;
+
+    /**
+     * Creates a recorder; call {@link #start()} to begin recording
+     * @param name short identifier of the device
+     * @param source the source of the samples
+     * @param writer raw log of the device, or null if only the output of the stages is recorded;
+     *               closed when the recorder stops
+     * @param stages processing stages of the samples, possibly empty; each forwards the samples to
+     *               the next, and the last to {@code writer}. Closed when the recorder stops
+     * @param policy when to flush and sync the log
+     * @param bufferCapacity number of samples that can be queued for writing
+     * @param logTap rate-limited debug output of the samples, or null
+     */
+    DeviceRecorder(String name, SampleSource source, RollingSampleWriter writer, List<SampleStage> stages,
+                   FlushPolicy policy, int bufferCapacity, SampleLogTap logTap) {
+        SampleWriter sink = writer;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            stages.get(i).setNext(sink);
+            sink = stages.get(i);
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("Nothing to record");
+        }
+        this.name = name;
+        this.source = source;
+        this.buffer = new SampleRingBuffer(bufferCapacity);
+        this.writer = writer;
+        this.stages = Collections.unmodifiableList(stages);
+        this.timing = new TimingAnalyzer(name);
+        timing.setNext(sink);
+        this.writerThread = new SampleWriterThread(name, buffer, timing, policy);
+        this.logTap = logTap;
+    }
+
+    /**
+     * Adapts the sampling rate to the motion of the subject. Must be called before {@link #start()}.
+     * @param controller decides when to switch the sampling rate
+     * @param executor performs the switches, off the thread delivering the samples
+     */
+    public void setRateController(AdaptiveRateController controller, Executor executor) {
+        this.rateController = controller;
+        this.rateExecutor = executor;
+    }
+
+    /**
+     * Runs gesture detectors on the samples, on their own thread so that the writes of the log never
+     * delay a detection. Must be called before {@link #start()}.
+     * @param detectors the detectors of this device, not shared with other devices
+     * @param bufferCapacity number of samples that can be queued for detection
+     * @param listener receives the gestures, on the detector thread
+     */
+    public void setDetectors(List<GestureDetector> detectors, int bufferCapacity, DetectorThread.Listener listener) {
+        this.detectorThread = detectors.isEmpty() ? null : new DetectorThread(name, detectors, bufferCapacity, listener);
+    }
+
+    /**
+     * Reports the failure of the log, after which no more samples are written. Must be called before
+     * {@link #start()}.
+     * @param listener receives the failure, on the writer thread
+     */
+    public void setWriteFailureListener(SampleWriterThread.Listener listener) {
+        writerThread.setListener(listener);
+    }
+
+    /**
+     * Feeds a live preview with the samples. Must be called before {@link #start()}.
+     * @param preview receives every sample on the source's thread, and must return immediately
+     */
+    public void setPreview(SampleListener preview) {
+        this.preview = preview;
+    }
+
+    /**
+     * Writes the samples into a ring shared with clients. Must be called before {@link #start()}.
+     * @param ring receives every sample on the source's thread
+     */
+    public void setSharedRing(SharedSampleRing ring) {
+        this.sharedRing = ring;
+    }
+
+    /**
+     * Records the rate changes and the gaps of the device in the given log. Must be called before
+     * {@link #start()}.
+     * @param eventLog log of the session's events
+     */
+    public void setEventLog(EventLog eventLog) {
+        this.eventLog = eventLog;
+        timing.setEventLog(eventLog);
+    }
+
+    /**
+     * Starts the writer thread, then the source
+     * @throws Exception if the source could not be started, in which case the log is closed
+     */
+    public void start() throws Exception {
+        if (writer != null) {
+            writer.setSampleRate(source.getSampleRate(), 0);
+        }
+        timing.setSampleRate(source.getSampleRate(), 0);
+        writerThread.start();
+        if (detectorThread != null) {
+            detectorThread.start();
+        }
+        try {
+            source.start(this);
+        } catch (Exception e) {
+            writerThread.shutdown();
+            if (detectorThread != null) {
+                detectorThread.shutdown();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the source, then writes the remaining samples and closes the log, and runs the detectors
+     * on their remaining samples. Blocks until the log is closed and the detectors have finished.
+     * @throws Exception if the source could not be stopped cleanly; the log is closed regardless
+     */
+    public void stop() throws Exception {
+        try {
+            stopSource();
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Stops the source, the first half of {@link #stop()}, so that all devices can be stopped
+     * before any log is flushed
+     * @throws Exception if the source could not be stopped cleanly
+     */
+    public void stopSource() throws Exception {
+        source.stop();
+    }
+
+    /**
+     * Writes the remaining samples and closes the log, and runs the detectors on their remaining
+     * samples, once the source is stopped. Blocks until the log is closed and the detectors have finished.
+     */
+    public void finish() {
+        writerThread.shutdown();
+        if (detectorThread != null) {
+            detectorThread.shutdown();
+        }
+    }
+
+    /**
+     * Switches the sampling rate of the source without stopping the recording. The log starts a new
+     * segment with the first sample queued once the switch is requested, tagged with the new rate.
+     * An explicitly requested rate overrides the {@link AdaptiveRateController}, which is disabled.
+     * @param period the new time between samples
+     * @throws Exception if the source could not be switched, in which case it keeps its old rate
+     */
+    public void setSamplePeriod(SamplePeriod period) throws Exception {
+        rateController = null;
+        switchSamplePeriod(period, System.currentTimeMillis(), "reason=requested");
+    }
+
+    /**
+     * Switches the sampling rate of the source and records the change. The new rate applies from the
+     * first sample queued once the switch is requested; the source may take a moment to apply it, so
+     * the few samples it delivers meanwhile are still at the old rate, although tagged with the new one.
+     * @param period the new time between samples
+     * @param timestamp time of the decision, in milliseconds
+     * @param detail the reason for the change, as {@link EventLog} key/value pairs
+     */
+    private synchronized void switchSamplePeriod(SamplePeriod period, long timestamp, String detail) throws Exception {
+        // read before the switch, since new-rate samples may be queued before it returns
+        long fromSample = buffer.getPublishedCount();
+        source.setSamplePeriod(period);
+        double rate = source.getSampleRate();
+        if (writer != null) {
+            writer.setSampleRate(rate, fromSample);
+        }
+        timing.setSampleRate(rate, fromSample);
+        for (SampleStage stage : stages) {
+            stage.setSampleRate(rate, fromSample);
+        }
+        if (eventLog != null) {
+            eventLog.write(timestamp, name, EventLog.SAMPLE_RATE, "rate_hz=" + rate + " " + detail);
+        }
+    }
+
+    /**
+     * A rate switch decided by a {@link AdaptiveRateController}
+     */
+    private class RateSwitch implements Runnable {
+        private final AdaptiveRateController controller;
+        private final SamplePeriod period;
+        private final long timestamp;
+        private final double variance;
+
+        RateSwitch(AdaptiveRateController controller, SamplePeriod period, long timestamp, double variance) {
+            this.controller = controller;
+            this.period = period;
+            this.timestamp = timestamp;
+            this.variance = variance;
+        }
+
+        @Override
+        public void run() {
+            if (rateController != controller) {
+                // an explicitly requested rate has overridden the controller in the meantime
+                return;
+            }
+            try {
+                switchSamplePeriod(period, timestamp, String.format(Locale.US, "reason=%s variance=%.7f",
+                        period == controller.getPolicy().getStillPeriod() ? "still" : "active", variance));
+            } catch (Exception e) {
+                Log.e(TAG, name + ": failed to switch to " + period, e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of samples per second the source currently delivers
+     */
+    public double getSampleRate() {
+        return source.getSampleRate();
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values, int offset) {
+        // the source delivers samples on a single thread, which is the only producer of the buffer
+        buffer.offer(timestamp, values, offset);
+        if (detectorThread != null) {
+            detectorThread.offer(timestamp, values, offset);
+        }
+        if (preview != null) {
+            preview.onSample(timestamp, values, offset);
+        }
+        if (sharedRing != null) {
+            sharedRing.onSample(timestamp, values, offset);
+        }
+        AdaptiveRateController controller = rateController;
+        if (controller != null) {
+            SamplePeriod period = controller.onSample(timestamp, values, offset);
+            if (period != null) {
+                rateExecutor.execute(new RateSwitch(controller, period, timestamp, controller.getVariance()));
+            }
+        }
+        if (SampleLogTap.ENABLED && logTap != null) {
+            logTap.onSample(timestamp, values, offset);
+        }
+    }
+
+    /**
+     * @return the short identifier of the device
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the queue between the source and the writer thread, for its usage statistics
+     */
+    public SampleRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the analyzer of the timestamps, for its gap and jitter statistics
+     */
+    public TimingAnalyzer getTimingAnalyzer() {
+        return timing;
+    }
+
+    /**
+     * @return the raw log of the device, for its compression statistics, or null if only the output
+     *         of the stages is recorded
+     */
+    public RollingSampleWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return the thread running the gesture detectors, for its statistics, or null if there are none
+     */
+    public DetectorThread getDetectorThread() {
+        return detectorThread;
+    }
+
+    /**
+     * @return the processing stages of the samples, for their output files and statistics
+     */
+    public List<SampleStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * @return the writer thread, for its flush and sync latencies
+     */
+    public SampleWriterThread getWriterThread() {
+        return writerThread;
+    }
+}
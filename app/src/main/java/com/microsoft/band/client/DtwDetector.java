@@ -0,0 +1,148 @@
+package com.microsoft.band.client;
+
+import java.util.Arrays;
+
+/**
+ * Detects occurrences of a recorded template of a {@link GestureDetector.Signal} with dynamic time
+ * warping, so that a gesture is recognized even if it is performed a little faster or slower than
+ * the template. The template is a sequence of values of the signal at the sample rate of the
+ * recording, e.g. the acceleration magnitudes of one example of the gesture.
+ * <p>
+ * Matches are searched in the stream with the SPRING algorithm (Sakurai et al., "Stream Monitoring
+ * under the Time Warping Distance", ICDE 2007): one column of the warping matrix is kept per
+ * template value, together with the timestamp at which each warping path starts, so each sample
+ * costs time proportional to the template length and nothing is allocated. The distance of a match
+ * is the sum of the absolute differences along its path, divided by the template length; a match
+ * closer than the threshold is reported once no overlapping match can be closer, or at the latest
+ * a maximum delay after it ended, which bounds the latency of the detection. Its score is the
+ * distance.
+ * </p>
+ */
+class DtwDetector implements GestureDetector {
+
+    /** name of the detector */
+    private final String name;
+
+    /** the watched signal */
+    private final Signal signal;
+
+    /** the template values */
+    private final double[] template;
+
+    /** maximum distance of a match, summed over the template */
+    private final double maxDistance;
+
+    /** maximum time between the end of a match and its report, in milliseconds */
+    private final long maxDelayMillis;
+
+    /** cumulative distances of the previous and the current column of the warping matrix */
+    private double[] distances, nextDistances;
+
+    /** start timestamps of the warping paths of the previous and the current column */
+    private long[] starts, nextStarts;
+
+    /** distance of the best match not yet reported, infinite if there is none */
+    private double bestDistance = Double.POSITIVE_INFINITY;
+
+    /** start and end timestamps of the best match not yet reported */
+    private long bestStart, bestEnd;
+
+    /**
+     * Creates a detector
+     * @param name name of the detector, reported with its gestures
+     * @param signal the watched signal
+     * @param template the values of the signal during an example of the gesture, at least two
+     * @param threshold maximum mean distance per template value of a match, in the units of the signal
+     * @param maxDelayMillis maximum time between the end of a match and its report, in milliseconds
+     */
+    DtwDetector(String name, Signal signal, float[] template, double threshold, long maxDelayMillis) {
+        if (template.length < 2 || !(threshold > 0) || maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("Invalid DTW detector: template of " + template.length
+                    + " values, threshold " + threshold + ", delay " + maxDelayMillis + " ms");
+        }
+        this.name = name;
+        this.signal = signal;
+        this.template = new double[template.length];
+        for (int i = 0; i < template.length; i++) {
+            this.template[i] = template[i];
+        }
+        this.maxDistance = threshold * template.length;
+        this.maxDelayMillis = maxDelayMillis;
+        // index 0 is the empty prefix of the template, from which a path may start at any sample
+        distances = new double[template.length + 1];
+        nextDistances = new double[template.length + 1];
+        starts = new long[template.length + 1];
+        nextStarts = new long[template.length + 1];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        distances[0] = 0;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values, int offset, Listener listener) {
+        double value = signal.of(values, offset);
+        int m = template.length;
+        nextDistances[0] = 0;
+        nextStarts[0] = timestamp;
+        for (int i = 1; i <= m; i++) {
+            // extend the cheapest of the paths ending at the previous template value or sample
+            double best = nextDistances[i - 1];
+            long start = nextStarts[i - 1];
+            if (distances[i] < best) {
+                best = distances[i];
+                start = starts[i];
+            }
+            if (distances[i - 1] <= best) {
+                best = distances[i - 1];
+                start = i == 1 ? timestamp : starts[i - 1];
+            }
+            nextDistances[i] = best + Math.abs(value - template[i - 1]);
+            nextStarts[i] = start;
+        }
+
+        if (bestDistance <= maxDistance) {
+            boolean confirmed = timestamp - bestEnd >= maxDelayMillis;
+            if (!confirmed) {
+                // no path still running can end in a closer match overlapping the best one
+                confirmed = true;
+                for (int i = 1; i <= m; i++) {
+                    if (nextDistances[i] < bestDistance && nextStarts[i] <= bestEnd) {
+                        confirmed = false;
+                        break;
+                    }
+                }
+            }
+            if (confirmed) {
+                listener.onGesture(this, bestStart, timestamp, bestDistance / m);
+                bestDistance = Double.POSITIVE_INFINITY;
+                // drop the paths overlapping the reported match
+                for (int i = 1; i <= m; i++) {
+                    if (nextStarts[i] <= bestEnd) {
+                        nextDistances[i] = Double.POSITIVE_INFINITY;
+                    }
+                }
+            }
+        }
+        if (nextDistances[m] <= maxDistance && nextDistances[m] < bestDistance) {
+            bestDistance = nextDistances[m];
+            bestStart = nextStarts[m];
+            bestEnd = timestamp;
+        }
+
+        double[] swapDistances = distances;
+        distances = nextDistances;
+        nextDistances = swapDistances;
+        long[] swapStarts = starts;
+        starts = nextStarts;
+        nextStarts = swapStarts;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + signal + " template of " + template.length + " values)";
+    }
+}
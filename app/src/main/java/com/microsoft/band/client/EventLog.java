@@ -0,0 +1,96 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Log of the notable events of a recording session, which are needed to interpret the sample logs:
+ * <ul>
+ *   <li>{@link #SAMPLE_RATE}: the sampling rate of a device changed</li>
+ *   <li>{@link #GESTURE}: a gesture was detected</li>
+ *   <li>{@link #OUTAGE}: the connection of a device was lost, then restored or given up</li>
+ *   <li>{@link #GAP}: samples are missing between two timestamps</li>
+ *   <li>{@link #TIMING}: summary of the gaps and jitter of a device</li>
+ * </ul>
+ * The log {@code <name>_<session>_events.csv} lists one event per line: its timestamp, the device it
+ * concerns, the kind of event and a detail made of space-separated {@code key=value} pairs, e.g.
+ * <pre>
+ *   1447859700123,band0,sample_rate,rate_hz=7.8125 reason=still variance=0.0000312
+ * </pre>
+ * <p>
+ * Events are rare, so each line is flushed immediately. Events may be written from any thread;
+ * events written after the log is closed are ignored.
+ * </p>
+ *
+ * @see SessionManifest
+ */
+class EventLog {
+
+    /** header line of the log */
+    static final String HEADER = "timestamp,device,event,detail";
+
+    /** kind of event written when the sampling rate of a device changes */
+    static final String SAMPLE_RATE = "sample_rate";
+
+    /** kind of event written when a {@link GestureDetector} detects a gesture */
+    static final String GESTURE = "gesture";
+
+    /** kind of event written when the connection of a device is restored, or given up at the end of the session */
+    static final String OUTAGE = "outage";
+
+    /** kind of event written when a {@link TimingAnalyzer} finds a gap between two samples */
+    static final String GAP = "gap";
+
+    /** kind of event summarizing the gaps and jitter of a device at the end of the session */
+    static final String TIMING = "timing";
+
+    /** the log file, null once closed */
+    private BufferedWriter out;
+
+    /**
+     * Creates the event log of a session
+     * @param directory directory containing the logs of the session
+     * @param name common file name of the session's files
+     * @param session session id
+     * @throws IOException if the log could not be created
+     */
+    EventLog(File directory, String name, String session) throws IOException {
+        out = new BufferedWriter(new FileWriter(new File(directory, name + "_" + session + "_events.csv")));
+        out.write(HEADER);
+        out.newLine();
+        out.flush();
+    }
+
+    /**
+     * Writes an event
+     * @param timestamp time of the event, in milliseconds since the epoch like the sample timestamps
+     * @param device short identifier of the device
+     * @param event kind of event, e.g. {@link #SAMPLE_RATE}
+     * @param detail space-separated {@code key=value} pairs, without commas or line breaks
+     * @throws IOException if the event could not be written
+     */
+    public synchronized void write(long timestamp, String device, String event, String detail) throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.write(timestamp + "," + device + "," + event + "," + detail);
+        out.newLine();
+        out.flush();
+    }
+
+    /**
+     * Closes the log
+     * @throws IOException if the log could not be closed
+     */
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+}
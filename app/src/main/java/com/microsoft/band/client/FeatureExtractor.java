@@ -0,0 +1,291 @@
+package com.microsoft.band.client;
+
+import java.util.Arrays;
+
+/**
+ * Computes features of the accelerometer/gyroscope samples over sliding windows, e.g. windows of
+ * 2 s every second (50% overlap). Windows are aligned on the sample timestamps: the first window
+ * starts with the first sample, and window n covers the samples with timestamps in
+ * {@code [start + n * hop, start + n * hop + window)}.
+ * <p>
+ * For each of the {@link SampleEncoder#VALUES_PER_SAMPLE} axes, a window yields the mean, the
+ * variance, the root mean square, the number of zero crossings and the energy (sum of squares); it
+ * also yields the Pearson correlation of each pair of accelerometer axes and of each pair of
+ * gyroscope axes. See {@link #FEATURE_NAMES} for the order of the features.
+ * </p>
+ * <p>
+ * The samples of the current window are kept in growable circular arrays, together with running
+ * sums of the values, their squares, their pairwise products and the sign changes. Adding a sample
+ * or evicting one from the window updates the sums in constant time, so the cost per sample does not
+ * depend on the window size. To keep rounding errors from accumulating, the sums are recomputed from
+ * the stored samples every {@link #RECOMPUTE_WINDOWS} windows.
+ * </p>
+ *
+ * @see FeatureWriter
+ */
+class FeatureExtractor {
+
+    /** receives the features of each completed window */
+    interface Listener {
+
+        /**
+         * Called for each window holding at least one sample
+         * @param start timestamp at which the window starts, in milliseconds
+         * @param end timestamp at which the window ends, exclusive
+         * @param samples number of samples in the window
+         * @param features the {@link #FEATURE_NAMES} features of the window; only valid during the call
+         */
+        void onFeatures(long start, long end, int samples, double[] features);
+    }
+
+    /** number of axes */
+    private static final int AXES = SampleEncoder.VALUES_PER_SAMPLE;
+
+    /** names of the axes, in the order of the sample values */
+    private static final String[] AXIS_NAMES = {"ax", "ay", "az", "gx", "gy", "gz"};
+
+    /** names of the per-axis features */
+    private static final String[] AXIS_FEATURES = {"mean", "var", "rms", "zc", "energy"};
+
+    /** pairs of axes whose correlation is computed: those of the accelerometer, then of the gyroscope */
+    private static final int[][] PAIRS = {{0, 1}, {0, 2}, {1, 2}, {3, 4}, {3, 5}, {4, 5}};
+
+    /** names of the features, in the order in which they are passed to the {@link Listener} */
+    static final String[] FEATURE_NAMES = createFeatureNames();
+
+    /** number of windows between recomputations of the running sums */
+    static final int RECOMPUTE_WINDOWS = 64;
+
+    /** duration of a window, in milliseconds */
+    private final long windowMillis;
+
+    /** time between the starts of consecutive windows, in milliseconds */
+    private final long hopMillis;
+
+    /** receives the features */
+    private final Listener listener;
+
+    /** timestamps of the samples in the window, in a circular array */
+    private long[] timestamps = new long[128];
+
+    /** axis values of the samples in the window, {@link #AXES} per sample */
+    private float[] values = new float[timestamps.length * AXES];
+
+    /** for each sample and axis, 1 if the sign of the value differs from that of the previous sample */
+    private byte[] crossings = new byte[timestamps.length * AXES];
+
+    /** index of the oldest sample in the window */
+    private int oldest = 0;
+
+    /** number of samples in the window */
+    private int size = 0;
+
+    /** running sums per axis of the values, their squares and the sign changes */
+    private final double[] sum = new double[AXES], sumSquares = new double[AXES];
+    private final int[] sumCrossings = new int[AXES];
+
+    /** running sums of the products of each pair in {@link #PAIRS} */
+    private final double[] sumProducts = new double[PAIRS.length];
+
+    /** axis values of the previous sample, for the zero crossings */
+    private final float[] previous = new float[AXES];
+
+    /** whether a sample has been received */
+    private boolean started = false;
+
+    /** end of the current window, exclusive */
+    private long windowEnd;
+
+    /** number of windows completed */
+    private long windowCount = 0;
+
+    /** reusable holder for the features of a window */
+    private final double[] features = new double[FEATURE_NAMES.length];
+
+    /**
+     * Creates an extractor
+     * @param windowMillis duration of a window, in milliseconds
+     * @param hopMillis time between the starts of consecutive windows, at most {@code windowMillis}
+     * @param listener receives the features
+     */
+    FeatureExtractor(long windowMillis, long hopMillis, Listener listener) {
+        if (windowMillis <= 0 || hopMillis <= 0 || hopMillis > windowMillis) {
+            throw new IllegalArgumentException("Invalid feature window: " + windowMillis + " ms every " + hopMillis + " ms");
+        }
+        this.windowMillis = windowMillis;
+        this.hopMillis = hopMillis;
+        this.listener = listener;
+    }
+
+    private static String[] createFeatureNames() {
+        String[] names = new String[AXES * AXIS_FEATURES.length + PAIRS.length];
+        int i = 0;
+        for (String axis : AXIS_NAMES) {
+            for (String feature : AXIS_FEATURES) {
+                names[i++] = axis + "_" + feature;
+            }
+        }
+        for (int[] pair : PAIRS) {
+            names[i++] = "corr_" + AXIS_NAMES[pair[0]] + "_" + AXIS_NAMES[pair[1]];
+        }
+        return names;
+    }
+
+    /**
+     * Adds a sample, completing the windows which end before it. Samples must arrive in timestamp order.
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param sample array holding the axis values
+     * @param offset index of the first axis value in {@code sample}
+     */
+    public void onSample(long timestamp, float[] sample, int offset) {
+        if (!started) {
+            started = true;
+            windowEnd = timestamp + windowMillis;
+        }
+        if (timestamp >= windowEnd) {
+            completeWindows(timestamp);
+        }
+        if (size == timestamps.length) {
+            grow();
+        }
+        int slot = (oldest + size) % timestamps.length;
+        timestamps[slot] = timestamp;
+        int base = slot * AXES;
+        for (int axis = 0; axis < AXES; axis++) {
+            float v = sample[offset + axis];
+            values[base + axis] = v;
+            sum[axis] += v;
+            sumSquares[axis] += (double) v * v;
+            // a sample only crosses zero relative to a previous sample in the window
+            byte crossed = (byte) (size > 0 && (v < 0) != (previous[axis] < 0) ? 1 : 0);
+            crossings[base + axis] = crossed;
+            sumCrossings[axis] += crossed;
+            previous[axis] = v;
+        }
+        for (int p = 0; p < PAIRS.length; p++) {
+            sumProducts[p] += (double) sample[offset + PAIRS[p][0]] * sample[offset + PAIRS[p][1]];
+        }
+        size++;
+    }
+
+    /**
+     * Completes the windows ending at or before the given timestamp
+     * @param timestamp timestamp of the sample about to be added
+     */
+    private void completeWindows(long timestamp) {
+        while (timestamp >= windowEnd) {
+            evictBefore(windowEnd - windowMillis);
+            if (size > 0) {
+                emit(windowEnd - windowMillis, windowEnd);
+                if (++windowCount % RECOMPUTE_WINDOWS == 0) {
+                    recomputeSums();
+                }
+            }
+            windowEnd += hopMillis;
+            if (size == 0 && timestamp - windowEnd >= windowMillis) {
+                // skip the empty windows of a gap in the stream, keeping the alignment
+                windowEnd += (timestamp - windowEnd) / hopMillis * hopMillis;
+            }
+        }
+        evictBefore(windowEnd - windowMillis);
+    }
+
+    /**
+     * Removes the samples older than the given timestamp from the window
+     * @param start timestamp of the oldest sample to keep
+     */
+    private void evictBefore(long start) {
+        while (size > 0 && timestamps[oldest] < start) {
+            int base = oldest * AXES;
+            for (int axis = 0; axis < AXES; axis++) {
+                float v = values[base + axis];
+                sum[axis] -= v;
+                sumSquares[axis] -= (double) v * v;
+                sumCrossings[axis] -= crossings[base + axis];
+            }
+            for (int p = 0; p < PAIRS.length; p++) {
+                sumProducts[p] -= (double) values[base + PAIRS[p][0]] * values[base + PAIRS[p][1]];
+            }
+            oldest = (oldest + 1) % timestamps.length;
+            size--;
+        }
+        if (size > 0) {
+            // the crossing of the new oldest sample refers to a sample outside of the window
+            int base = oldest * AXES;
+            for (int axis = 0; axis < AXES; axis++) {
+                sumCrossings[axis] -= crossings[base + axis];
+                crossings[base + axis] = 0;
+            }
+        }
+    }
+
+    private void emit(long start, long end) {
+        int i = 0;
+        for (int axis = 0; axis < AXES; axis++) {
+            double mean = sum[axis] / size;
+            double meanSquare = sumSquares[axis] / size;
+            features[i++] = mean;
+            features[i++] = Math.max(0, meanSquare - mean * mean);
+            features[i++] = Math.sqrt(Math.max(0, meanSquare));
+            features[i++] = sumCrossings[axis];
+            features[i++] = sumSquares[axis];
+        }
+        for (int p = 0; p < PAIRS.length; p++) {
+            int a = PAIRS[p][0], b = PAIRS[p][1];
+            double meanA = sum[a] / size, meanB = sum[b] / size;
+            double covariance = sumProducts[p] / size - meanA * meanB;
+            double varianceA = sumSquares[a] / size - meanA * meanA;
+            double varianceB = sumSquares[b] / size - meanB * meanB;
+            double denominator = Math.sqrt(Math.max(0, varianceA) * Math.max(0, varianceB));
+            // the correlation is undefined if an axis is constant
+            features[i++] = denominator > 0 ? Math.max(-1, Math.min(1, covariance / denominator)) : 0;
+        }
+        listener.onFeatures(start, end, size, features);
+    }
+
+    private void recomputeSums() {
+        Arrays.fill(sum, 0);
+        Arrays.fill(sumSquares, 0);
+        Arrays.fill(sumCrossings, 0);
+        Arrays.fill(sumProducts, 0);
+        for (int n = 0; n < size; n++) {
+            int base = ((oldest + n) % timestamps.length) * AXES;
+            for (int axis = 0; axis < AXES; axis++) {
+                float v = values[base + axis];
+                sum[axis] += v;
+                sumSquares[axis] += (double) v * v;
+                sumCrossings[axis] += crossings[base + axis];
+            }
+            for (int p = 0; p < PAIRS.length; p++) {
+                sumProducts[p] += (double) values[base + PAIRS[p][0]] * values[base + PAIRS[p][1]];
+            }
+        }
+    }
+
+    /**
+     * Doubles the capacity of the circular arrays, moving the oldest sample to index 0
+     */
+    private void grow() {
+        int capacity = timestamps.length * 2;
+        long[] newTimestamps = new long[capacity];
+        float[] newValues = new float[capacity * AXES];
+        byte[] newCrossings = new byte[capacity * AXES];
+        for (int n = 0; n < size; n++) {
+            int slot = (oldest + n) % timestamps.length;
+            newTimestamps[n] = timestamps[slot];
+            System.arraycopy(values, slot * AXES, newValues, n * AXES, AXES);
+            System.arraycopy(crossings, slot * AXES, newCrossings, n * AXES, AXES);
+        }
+        timestamps = newTimestamps;
+        values = newValues;
+        crossings = newCrossings;
+        oldest = 0;
+    }
+
+    /**
+     * @return the number of windows completed so far
+     */
+    public long getWindowCount() {
+        return windowCount;
+    }
+}
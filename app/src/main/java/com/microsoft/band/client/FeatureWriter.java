@@ -0,0 +1,64 @@
+package com.microsoft.band.client;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Passes samples through a {@link FeatureExtractor} and writes the features of each window as a
+ * line of the CSV file {@code <name>_<session>_features.csv}. The first line holds the column
+ * names: the start and end timestamps of the window, its number of samples and the
+ * {@link FeatureExtractor#FEATURE_NAMES}.
+ * <p>
+ * A window yields one short line per hop. The last, incomplete window is not written when the file
+ * is closed.
+ * </p>
+ *
+ * @see DeviceRecorder
+ */
+class FeatureWriter extends CsvStage implements FeatureExtractor.Listener {
+
+    /** computes the features */
+    private final FeatureExtractor extractor;
+
+    /**
+     * Creates the feature file and writes its header line
+     * @param directory directory in which to create the feature file
+     * @param name common file name of the device's files
+     * @param session session id, included in the file name
+     * @param windowMillis duration of a window, in milliseconds
+     * @param hopMillis time between the starts of consecutive windows
+     * @throws IOException if the file could not be created
+     */
+    FeatureWriter(File directory, String name, String session, long windowMillis, long hopMillis)
+            throws IOException {
+        super(name + "_" + session + "_features.csv");
+        this.extractor = new FeatureExtractor(windowMillis, hopMillis, this);
+        create(directory, "window_start,window_end,samples", FeatureExtractor.FEATURE_NAMES);
+    }
+
+    @Override
+    protected void process(long timestamp, float[] values, int offset) throws IOException {
+        extractor.onSample(timestamp, values, offset);
+        throwPendingError();
+    }
+
+    @Override
+    public void onFeatures(long start, long end, int samples, double[] features) {
+        line.setLength(0);
+        line.append(start).append(',').append(end).append(',').append(samples);
+        for (double feature : features) {
+            line.append(',').append((float) feature);
+        }
+        writeLine();
+    }
+
+    @Override
+    public String getStreamName() {
+        return SessionManifest.FEATURES_STREAM;
+    }
+
+    @Override
+    public long getRecordCount() {
+        return extractor.getWindowCount();
+    }
+}
@@ -5,6 +5,7 @@ import android.util.Log;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 
@@ -23,11 +24,14 @@ class FileUtil {
     /** CSV extension */
     private static final String CSV_EXTENSION = ".csv";
 
+    /** number of bytes preallocated for each memory-mapped segment */
+    private static final int MAPPED_SEGMENT_SIZE = 16 * 1024 * 1024;
+
     /**
      * Returns a root directory where the logging takes place
      * @return File of the root directory
      */
-    private static File getStorageLocation(){
+    static File getStorageLocation(){
         File root = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), DEFAULT_DIRECTORY);
         if(!root.exists())
             if (!root.mkdir()){
@@ -54,6 +58,127 @@ class FileUtil {
         return out;
     }
 
+    /**
+     * Opens a buffered sample writer on the given file
+     * @param file the file, which is overwritten
+     * @param format the storage format
+     * @return the sample writer
+     * @throws IOException if the file could not be opened
+     */
+    static SampleWriter openSampleWriter(File file, SampleFormat format) throws IOException {
+        switch (format) {
+            case BINARY:
+                return new BinarySampleWriter(new FileOutputStream(file));
+            case COMPRESSED:
+                return new CompressedSampleWriter(new FileOutputStream(file));
+            case CSV:
+            default:
+                return new CsvSampleWriter(new FileOutputStream(file));
+        }
+    }
+
+    /**
+     * Opens a sample writer on the given file whose output is compressed in independent gzip blocks
+     * @param file the file, which is overwritten
+     * @param format the storage format of the uncompressed data
+     * @param level deflate compression level, from 1 (fastest) to 9 (smallest)
+     * @param stats receives the ratio and cost of each compressed block
+     * @return the sample writer
+     * @throws IOException if the file could not be opened
+     */
+    static SampleWriter openGzipSampleWriter(File file, SampleFormat format, int level, CompressionStats stats)
+            throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        GzipBlockOutputStream out = new GzipBlockOutputStream(stream, level, stats);
+        switch (format) {
+            case BINARY:
+                return new BinarySampleWriter(out, stream.getFD());
+            case COMPRESSED:
+                return new CompressedSampleWriter(out, stream.getFD());
+            case CSV:
+            default:
+                return new CsvSampleWriter(out, stream.getFD());
+        }
+    }
+
+    /**
+     * Returns a sample writer which splits a session into segment files and lists them in a manifest
+     * @param filename common file name of the session's files (without extension!)
+     * @param session session id, included in every file name
+     * @param format the storage format of the segments
+     * @param memoryMapped whether to write segments through memory-mapped, preallocated files
+     * @param deflateLevel gzip compression level of the segments from 1 to 9, or 0 for uncompressed segments
+     * @param maxSamples maximum number of samples per segment
+     * @param maxDurationMillis maximum time spanned by a segment, in milliseconds
+     * @return the sample writer, or null if the manifest or the first segment could not be created
+     */
+    public static RollingSampleWriter getRollingSampleWriter(String filename, String session, SampleFormat format,
+                                                             boolean memoryMapped, int deflateLevel,
+                                                             int maxSamples, long maxDurationMillis){
+        try{
+            return new RollingSampleWriter(getStorageLocation(), filename, session, format, memoryMapped,
+                    MAPPED_SEGMENT_SIZE, deflateLevel, maxSamples, maxDurationMillis);
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a processing stage which records the windowed features of a device's samples
+     * @param filename common file name of the device's files (without extension!)
+     * @param session session id, included in the file name
+     * @param windowMillis duration of a feature window, in milliseconds
+     * @param hopMillis time between the starts of consecutive windows, in milliseconds
+     * @return the stage, or null if the feature file could not be created
+     */
+    public static FeatureWriter getFeatureWriter(String filename, String session, long windowMillis, long hopMillis){
+        try{
+            return new FeatureWriter(getStorageLocation(), filename, session, windowMillis, hopMillis);
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a processing stage which records the spectral features of a device's samples
+     * @param filename common file name of the device's files (without extension!)
+     * @param session session id, included in the file name
+     * @param size number of samples per window, a power of two
+     * @param hop number of samples between the starts of consecutive windows
+     * @param bandEdges edges of the frequency bands in Hz, in increasing order
+     * @return the stage, or null if the spectrum file could not be created
+     */
+    public static SpectralWriter getSpectralWriter(String filename, String session, int size, int hop,
+                                                   double[] bandEdges){
+        try{
+            return new SpectralWriter(getStorageLocation(), filename, session, size, hop, bandEdges);
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a processing stage which records a device's samples resampled onto a uniform grid
+     * @param filename common file name of the device's files (without extension!)
+     * @param session session id, included in the file name
+     * @param rateHz number of samples per second of the resampled log
+     * @param interpolation the interpolation method
+     * @param maxGapMillis longest interval between two samples across which values are interpolated
+     * @return the stage, or null if the resampled log could not be created
+     */
+    public static ResampleWriter getResampleWriter(String filename, String session, double rateHz,
+                                                   Resampler.Interpolation interpolation, long maxGapMillis){
+        try{
+            return new ResampleWriter(getStorageLocation(), filename, session, rateHz, interpolation, maxGapMillis);
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     /**
      * Write the log to the specified file writer
      * @param s log to write
@@ -0,0 +1,76 @@
+package com.microsoft.band.client;
+
+/**
+ * Durability policy of a recording: how often written samples are flushed from the application's
+ * buffers to the operating system, and how often flushed samples are forced to the storage device.
+ * Flushing and syncing are performed by the {@link SampleWriterThread}, never on the Band callback
+ * thread.
+ * <p>
+ * If the process is killed, at most the samples written since the last flush are lost, i.e. fewer
+ * than {@link #getFlushSamples()} samples or {@link #getFlushIntervalMillis()} milliseconds of data,
+ * plus whatever is still queued in the {@link SampleRingBuffer}. If the device loses power, the
+ * samples since the last sync may be lost as well. Flushing and syncing less often reduces the CPU
+ * and battery cost of a recording.
+ * </p>
+ *
+ * @see SampleWriter#flush()
+ * @see SampleWriter#sync()
+ */
+class FlushPolicy {
+
+    /** flushes about once per second at 62 Hz and syncs about every ten seconds */
+    public static final FlushPolicy DEFAULT = new FlushPolicy(64, 1000, 10);
+
+    /** maximum number of samples written between flushes */
+    private final int flushSamples;
+
+    /** maximum time between flushes, in milliseconds */
+    private final long flushIntervalMillis;
+
+    /** number of flushes between syncs, or 0 to never sync before the writer is closed */
+    private final int syncFlushes;
+
+    /**
+     * Creates a policy
+     * @param flushSamples flush after this many samples have been written since the last flush
+     * @param flushIntervalMillis flush when this many milliseconds have passed since the last flush
+     *                            and samples have been written since
+     * @param syncFlushes force the samples to the storage device on every n-th flush, or 0 for never
+     */
+    FlushPolicy(int flushSamples, long flushIntervalMillis, int syncFlushes) {
+        if (flushSamples <= 0 || flushIntervalMillis <= 0 || syncFlushes < 0) {
+            throw new IllegalArgumentException("Invalid flush policy: " + flushSamples + " samples, "
+                    + flushIntervalMillis + " ms, sync every " + syncFlushes + " flushes");
+        }
+        this.flushSamples = flushSamples;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.syncFlushes = syncFlushes;
+    }
+
+    /**
+     * @return the maximum number of samples written between flushes
+     */
+    public int getFlushSamples() {
+        return flushSamples;
+    }
+
+    /**
+     * @return the maximum time between flushes, in milliseconds
+     */
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * @return the number of flushes between syncs, or 0 if the writer never syncs
+     */
+    public int getSyncFlushes() {
+        return syncFlushes;
+    }
+
+    @Override
+    public String toString() {
+        return "flush every " + flushSamples + " samples or " + flushIntervalMillis + " ms, "
+                + (syncFlushes == 0 ? "no sync" : "sync every " + syncFlushes + " flushes");
+    }
+}
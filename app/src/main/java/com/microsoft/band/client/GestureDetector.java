@@ -0,0 +1,72 @@
+package com.microsoft.band.client;
+
+/**
+ * A streaming detector of gestures or other events in the accelerometer/gyroscope samples of one
+ * device. Detectors are fed every sample by a {@link DetectorThread}, in timestamp order, and must
+ * process each in bounded time without allocating, so that the detection latency stays bounded.
+ * A detector keeps its own state, so each device needs its own instances.
+ *
+ * @see ThresholdDetector
+ * @see PeakDetector
+ * @see DtwDetector
+ */
+interface GestureDetector {
+
+    /** receives the detected gestures */
+    interface Listener {
+
+        /**
+         * Called when a gesture is detected
+         * @param detector the detector
+         * @param start timestamp at which the gesture starts, in milliseconds
+         * @param end timestamp of the sample which completed the detection
+         * @param score strength of the detection, in the units of the detector, e.g. a peak magnitude
+         */
+        void onGesture(GestureDetector detector, long start, long end, double score);
+    }
+
+    /** the one-dimensional signal watched by a detector, computed from each sample */
+    enum Signal {
+        /** magnitude of the acceleration minus gravity, in g, whatever the orientation of the device */
+        ACCELERATION {
+            @Override
+            double of(float[] values, int offset) {
+                return Math.abs(magnitude(values, offset) - 1.0);
+            }
+        },
+        /** magnitude of the angular velocity, in degrees per second */
+        ROTATION {
+            @Override
+            double of(float[] values, int offset) {
+                return magnitude(values, offset + 3);
+            }
+        };
+
+        /**
+         * Computes the signal of a sample
+         * @param values array holding the axis values
+         * @param offset index of the first axis value in {@code values}
+         * @return the value of the signal
+         */
+        abstract double of(float[] values, int offset);
+
+        private static double magnitude(float[] values, int offset) {
+            double x = values[offset], y = values[offset + 1], z = values[offset + 2];
+            return Math.sqrt(x * x + y * y + z * z);
+        }
+    }
+
+    /**
+     * @return the name of the detector, reported with its gestures
+     */
+    String getName();
+
+    /**
+     * Processes a sample
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     * @param listener receives the gestures completed by this sample
+     */
+    void onSample(long timestamp, float[] values, int offset, Listener listener);
+}
@@ -0,0 +1,148 @@
+package com.microsoft.band.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that compresses its data in independent blocks, each written as a complete gzip
+ * member. Concatenated gzip members form a valid gzip file, so the result can be read with
+ * {@link java.util.zip.GZIPInputStream} or {@code gunzip}. A block is completed when
+ * {@link #BLOCK_SIZE} bytes have been collected or when the stream is flushed; if the application is
+ * killed, at most the block in progress is lost and all completed blocks remain readable.
+ * <p>
+ * Lower compression levels cost less CPU, which matters on battery-constrained phones; the ratio
+ * and time per block are recorded in a {@link CompressionStats} to help choose the level.
+ * </p>
+ *
+ * @see RollingSampleWriter
+ */
+class GzipBlockOutputStream extends OutputStream {
+
+    /** number of uncompressed bytes collected per block */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /** gzip member header: magic, deflate method, no flags, no modification time, unknown OS */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /** the underlying output stream */
+    private final OutputStream out;
+
+    /** compresses each block as a raw deflate stream */
+    private final Deflater deflater;
+
+    /** checksum of the current block */
+    private final CRC32 crc = new CRC32();
+
+    /** uncompressed data of the current block */
+    private final byte[] block = new byte[BLOCK_SIZE];
+
+    /** compressed data of the current block */
+    private final byte[] compressed = new byte[BLOCK_SIZE / 2];
+
+    /** gzip member trailer: CRC-32 and input size, little-endian */
+    private final byte[] trailer = new byte[8];
+
+    /** number of bytes in {@link #block} */
+    private int count = 0;
+
+    /** receives the ratio and cost of each block */
+    private final CompressionStats stats;
+
+    /** whether the stream has been closed */
+    private boolean closed = false;
+
+    /**
+     * Creates a block-compressing stream
+     * @param out the underlying output stream
+     * @param level deflate compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     * @param stats receives the ratio and cost of each block
+     */
+    GzipBlockOutputStream(OutputStream out, int level, CompressionStats stats) {
+        this.out = out;
+        this.deflater = new Deflater(level, true);
+        this.stats = stats;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == BLOCK_SIZE) {
+            writeBlock();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == BLOCK_SIZE) {
+                writeBlock();
+            }
+            int n = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Compresses the collected data as one gzip member and passes it to the underlying stream
+     */
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        crc.reset();
+        crc.update(block, 0, count);
+        deflater.reset();
+        deflater.setInput(block, 0, count);
+        deflater.finish();
+        out.write(GZIP_HEADER);
+        int size = GZIP_HEADER.length;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(compressed);
+            out.write(compressed, 0, n);
+            size += n;
+        }
+        putIntLE(trailer, 0, (int) crc.getValue());
+        putIntLE(trailer, 4, count);
+        out.write(trailer);
+        size += trailer.length;
+        stats.addBlock(count, size, System.nanoTime() - start);
+        count = 0;
+    }
+
+    private static void putIntLE(byte[] b, int index, int value) {
+        b[index] = (byte) value;
+        b[index + 1] = (byte) (value >>> 8);
+        b[index + 2] = (byte) (value >>> 16);
+        b[index + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * Completes the current block, so that everything written so far can be decompressed, and
+     * flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeBlock();
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+}
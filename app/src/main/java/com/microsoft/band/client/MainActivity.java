@@ -26,18 +26,25 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.view.View;
 import android.app.Activity;
 import android.widget.Button;
 import android.widget.TextView;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 
 public class MainActivity extends Activity {
 
 	private TextView txtAccelerometer, txtGyroscope, txtStatus;
 
+	/**
+	 * Minimum time between two sample batches from the service; the text views need no more
+	 */
+	private static final int PREVIEW_INTERVAL_MILLIS = 200;
+
 	/**
 	 * Messenger service for exchanging messages with the background service
 	 */
@@ -76,6 +83,34 @@ public class MainActivity extends Activity {
 				case Constants.MESSAGE.STATUS:
 				{
 					mMainActivity.get().updateStatus(msg.getData().getString(Constants.KEY.STATUS));
+					break;
+				}
+				case Constants.MESSAGE.GESTURE:
+				{
+					Bundle data = msg.getData();
+					mMainActivity.get().updateStatus(data.getString(Constants.KEY.DEVICE) + ": "
+							+ data.getString(Constants.KEY.GESTURE) + " gesture.");
+					break;
+				}
+				case Constants.MESSAGE.SAMPLES:
+				{
+					Bundle data = msg.getData();
+					mMainActivity.get().updateSamples(data.getString(Constants.KEY.DEVICE),
+							data.getFloatArray(Constants.KEY.VALUES));
+					break;
+				}
+				case Constants.MESSAGE.SHARED_RING:
+				{
+					// this activity shows the batched preview instead of reading the shared ring
+					ParcelFileDescriptor descriptor = msg.getData().getParcelable(Constants.KEY.RING_DESCRIPTOR);
+					if (descriptor != null) {
+						try {
+							descriptor.close();
+						} catch (IOException e) {
+							// nothing to release
+						}
+					}
+					break;
 				}
 				default:
 					super.handleMessage(msg);
@@ -95,6 +130,9 @@ public class MainActivity extends Activity {
 				Message msg = Message.obtain(null, Constants.MESSAGE.REGISTER_CLIENT);
 				msg.replyTo = mMessenger;
 				mService.send(msg);
+				msg = Message.obtain(null, Constants.MESSAGE.REGISTER_PREVIEW, PREVIEW_INTERVAL_MILLIS, 0);
+				msg.replyTo = mMessenger;
+				mService.send(msg);
 			} catch (RemoteException e) {
 				// In this case the service has crashed before we could even do anything with it
 			}
@@ -223,6 +261,22 @@ public class MainActivity extends Activity {
         });
 	}
 
+	/**
+	 * Shows the most recent sample of a batch received from the service
+	 * @param device short identifier of the device
+	 * @param values axis values of the samples of the batch, six per sample
+	 */
+	private void updateSamples(String device, float[] values) {
+		if (values == null || values.length < 6) {
+			return;
+		}
+		int last = values.length - 6;
+		txtAccelerometer.setText(getString(R.string.preview_accelerometer, device,
+				values[last], values[last + 1], values[last + 2]));
+		txtGyroscope.setText(getString(R.string.preview_gyroscope, device,
+				values[last + 3], values[last + 4], values[last + 5]));
+	}
+
 
 }
 
@@ -0,0 +1,182 @@
+package com.microsoft.band.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Writes samples into memory-mapped, preallocated segment files. Each segment is mapped at its full
+ * size when it is opened, samples are copied straight into the mapping without going through a
+ * charset encoder or a write system call, and the file is truncated to the number of bytes actually
+ * used when the segment is closed. A new segment is started whenever the current one is full.
+ * <p>
+ * The first segment is named {@code <name><extension>}; if it fills up, the following segments are
+ * named {@code <name>_0001<extension>}, {@code <name>_0002<extension>}, and so on. Every segment is
+ * a complete log on its own: binary segments start with the {@link BinarySampleWriter} header, and
+ * CSV segments contain whole lines only.
+ * </p>
+ * <p>
+ * If the application is killed before a segment is closed, the segment keeps its preallocated size,
+ * and the bytes after the last sample written are zero. The readers treat that tail as the end of
+ * the log: {@link BinarySampleReader} stops at the first record whose bytes are all zero, and
+ * {@link CsvSampleReader} at the first NUL character, dropping the line it is on.
+ * </p>
+ *
+ * @see RollingSampleWriter
+ */
+class MappedSampleWriter implements SampleWriter {
+
+    /** directory containing the segments */
+    private final File directory;
+
+    /** file name of the segments, without sequence number and extension */
+    private final String name;
+
+    /** storage format of the segments */
+    private final SampleFormat format;
+
+    /** number of bytes preallocated for each segment */
+    private final int segmentSize;
+
+    /** formats samples when writing CSV segments */
+    private final SampleEncoder encoder = new SampleEncoder();
+
+    /** sequence number of the next segment to be opened */
+    private int nextSequence = 0;
+
+    /** the current segment file, null once the writer is closed */
+    private RandomAccessFile file;
+
+    /** mapping of the current segment */
+    private MappedByteBuffer segment;
+
+    /**
+     * Creates a writer and opens the first segment
+     * @param directory directory in which to create the segments
+     * @param name file name of the segments, without sequence number and extension
+     * @param format storage format of the segments
+     * @param segmentSize number of bytes to preallocate for each segment
+     * @throws IOException if the first segment could not be created
+     */
+    MappedSampleWriter(File directory, String name, SampleFormat format, int segmentSize) throws IOException {
+        if (!format.isMappable()) {
+            throw new IllegalArgumentException("Format cannot be memory-mapped: " + format);
+        }
+        if (segmentSize < BinarySampleWriter.HEADER_SIZE + Math.max(BinarySampleWriter.RECORD_SIZE, SampleEncoder.MAX_SAMPLE_LENGTH)) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.format = format;
+        this.segmentSize = segmentSize;
+        openSegment();
+    }
+
+    @Override
+    public void write(long timestamp, float[] values, int offset) throws IOException {
+        if (file == null) {
+            throw new IOException("Writer is closed");
+        }
+        if (format == SampleFormat.BINARY) {
+            if (segment.remaining() < BinarySampleWriter.RECORD_SIZE) {
+                rollSegment();
+            }
+            BinarySampleWriter.writeRecord(segment, timestamp, values, offset);
+        } else {
+            int length = encoder.encode(timestamp, values, offset);
+            if (segment.remaining() < length) {
+                rollSegment();
+            }
+            // the encoder only produces ASCII characters
+            char[] chars = encoder.getBuffer();
+            for (int i = 0; i < length; i++) {
+                segment.put((byte) chars[i]);
+            }
+        }
+    }
+
+    /**
+     * The samples are already in the page cache once written, so there is nothing to flush.
+     */
+    @Override
+    public void flush() throws IOException {
+    }
+
+    /**
+     * Writes the dirty pages of the current segment back to the storage device.
+     */
+    @Override
+    public void sync() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * @return the number of segments created so far
+     */
+    public int getSegmentCount() {
+        return nextSequence;
+    }
+
+    /**
+     * Returns the file of the segment with the given sequence number
+     * @param sequence the sequence number of the segment
+     * @return the segment file
+     */
+    File getSegmentFile(int sequence) {
+        if (sequence == 0) {
+            return new File(directory, name + format.getExtension());
+        }
+        return new File(directory, String.format(Locale.US, "%s_%04d%s", name, sequence, format.getExtension()));
+    }
+
+    private void rollSegment() throws IOException {
+        closeSegment();
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(getSegmentFile(nextSequence), "rw");
+        try {
+            raf.setLength(segmentSize);
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        file = raf;
+        nextSequence++;
+        if (format == SampleFormat.BINARY) {
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            BinarySampleWriter.writeHeader(segment);
+        }
+    }
+
+    /**
+     * Truncates the current segment to the bytes actually written and closes it. The mapping itself
+     * is released once it is garbage collected; it is never accessed again.
+     */
+    private void closeSegment() throws IOException {
+        RandomAccessFile raf = file;
+        int length = segment.position();
+        file = null;
+        segment = null;
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+}
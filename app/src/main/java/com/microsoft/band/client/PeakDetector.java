@@ -0,0 +1,93 @@
+package com.microsoft.band.client;
+
+/**
+ * Detects the peaks of a {@link GestureDetector.Signal}, e.g. the strongest point of a wrist flick.
+ * Once the signal exceeds a minimum height, the detector follows it up to its maximum; the peak is
+ * confirmed when the signal has dropped below the maximum by a hysteresis, or at the latest a
+ * maximum delay after the maximum, which bounds the latency of the detection. The gesture starts at
+ * the peak, and its score is the height of the peak.
+ */
+class PeakDetector implements GestureDetector {
+
+    /** name of the detector */
+    private final String name;
+
+    /** the watched signal */
+    private final Signal signal;
+
+    /** minimum height of a peak */
+    private final double minHeight;
+
+    /** drop of the signal below the maximum which confirms a peak */
+    private final double hysteresis;
+
+    /** maximum time between a peak and its confirmation, in milliseconds */
+    private final long maxDelayMillis;
+
+    /** minimum time between two peaks, in milliseconds */
+    private final long refractoryMillis;
+
+    /** whether a candidate peak is being followed */
+    private boolean rising = false;
+
+    /** height and timestamp of the candidate peak */
+    private double peak;
+    private long peakTimestamp;
+
+    /** timestamp before which no new peak is followed */
+    private long quietUntil = Long.MIN_VALUE;
+
+    /**
+     * Creates a detector
+     * @param name name of the detector, reported with its gestures
+     * @param signal the watched signal
+     * @param minHeight minimum height of a peak
+     * @param hysteresis drop of the signal below the maximum which confirms a peak
+     * @param maxDelayMillis maximum time between a peak and its confirmation, in milliseconds
+     * @param refractoryMillis minimum time between two peaks, in milliseconds
+     */
+    PeakDetector(String name, Signal signal, double minHeight, double hysteresis, long maxDelayMillis,
+                 long refractoryMillis) {
+        if (!(minHeight > 0) || !(hysteresis > 0) || maxDelayMillis <= 0 || refractoryMillis < 0) {
+            throw new IllegalArgumentException("Invalid peak detector: height " + minHeight + ", hysteresis "
+                    + hysteresis + ", delay " + maxDelayMillis + " ms, refractory " + refractoryMillis + " ms");
+        }
+        this.name = name;
+        this.signal = signal;
+        this.minHeight = minHeight;
+        this.hysteresis = hysteresis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.refractoryMillis = refractoryMillis;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values, int offset, Listener listener) {
+        double value = signal.of(values, offset);
+        if (!rising) {
+            if (value >= minHeight && timestamp >= quietUntil) {
+                rising = true;
+                peak = value;
+                peakTimestamp = timestamp;
+            }
+            return;
+        }
+        if (value > peak) {
+            peak = value;
+            peakTimestamp = timestamp;
+        } else if (value <= peak - hysteresis || timestamp - peakTimestamp >= maxDelayMillis) {
+            rising = false;
+            quietUntil = peakTimestamp + refractoryMillis;
+            listener.onGesture(this, peakTimestamp, timestamp, peak);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + signal + " peaks above " + minHeight + ")";
+    }
+}
@@ -0,0 +1,303 @@
+package com.microsoft.band.client;
+
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live preview of the samples for bound clients such as {@link MainActivity}. Each device's
+ * {@link DeviceRecorder} feeds a {@link Channel}, which queues the samples in its own small
+ * {@link SampleRingBuffer}; every {@link #getIntervalMillis()} a single background thread coalesces
+ * the queued samples of each device into one {@link Constants.MESSAGE#SAMPLES} message, whose
+ * {@link Bundle} holds the timestamps and axis values as primitive arrays, and sends it to the
+ * preview clients.
+ * <p>
+ * The preview never slows down the recording: when no client is registered the channels queue
+ * nothing, a full channel drops samples instead of blocking the source's thread, and each client
+ * registers with the minimum time between its messages, so that a slow UI receives fewer batches
+ * instead of accumulating them in its message queue. A batch holds at most
+ * {@link #MAX_BATCH_SAMPLES} samples, the most recent ones.
+ * </p>
+ *
+ * @see SensorService
+ */
+class PreviewPublisher implements Runnable {
+
+    /** tag used for debugging purposes */
+    private static final String TAG = PreviewPublisher.class.getName();
+
+    /** default time between batches, in milliseconds */
+    static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    /** maximum number of samples in a batch */
+    static final int MAX_BATCH_SAMPLES = 64;
+
+    /** number of samples queued per device between batches, several intervals at 62 Hz */
+    private static final int CHANNEL_CAPACITY = 256;
+
+    /**
+     * A registered preview client
+     */
+    private static class Client {
+        /** receives the batches */
+        final Messenger messenger;
+        /** minimum time between two batches sent to the client, in milliseconds */
+        final long minIntervalMillis;
+        /** time at which batches were last sent to the client, from {@link System#nanoTime()} */
+        long lastSentNanos = Long.MIN_VALUE / 2;
+
+        Client(Messenger messenger, long minIntervalMillis) {
+            this.messenger = messenger;
+            this.minIntervalMillis = minIntervalMillis;
+        }
+    }
+
+    /**
+     * The preview feed of one device
+     */
+    class Channel implements SampleListener, SampleWriter {
+
+        /** short identifier of the device */
+        private final String device;
+
+        /** queue between the source's thread and the publisher thread */
+        private final SampleRingBuffer buffer = new SampleRingBuffer(CHANNEL_CAPACITY);
+
+        /** the most recent drained samples, in a circular array, only used by the publisher thread */
+        private final long[] timestamps = new long[MAX_BATCH_SAMPLES];
+        private final float[] values = new float[MAX_BATCH_SAMPLES * SampleEncoder.VALUES_PER_SAMPLE];
+
+        /** number of samples drained since the last batch */
+        private int drained = 0;
+
+        Channel(String device) {
+            this.device = device;
+        }
+
+        @Override
+        public void onSample(long timestamp, float[] sample, int offset) {
+            if (!clients.isEmpty()) {
+                buffer.offer(timestamp, sample, offset);
+            }
+        }
+
+        @Override
+        public void write(long timestamp, float[] sample, int offset) {
+            int slot = drained % MAX_BATCH_SAMPLES;
+            timestamps[slot] = timestamp;
+            System.arraycopy(sample, offset, values, slot * SampleEncoder.VALUES_PER_SAMPLE,
+                    SampleEncoder.VALUES_PER_SAMPLE);
+            drained++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Drains the queued samples into a new batch
+         * @return the message values, or null if no sample was queued
+         */
+        private Bundle drainBatch() throws IOException {
+            drained = 0;
+            while (buffer.drainTo(this, CHANNEL_CAPACITY) > 0) {
+                // keep draining, overwriting the oldest samples of the batch
+            }
+            if (drained == 0) {
+                return null;
+            }
+            int count = Math.min(drained, MAX_BATCH_SAMPLES);
+            int first = drained - count;
+            long[] batchTimestamps = new long[count];
+            float[] batchValues = new float[count * SampleEncoder.VALUES_PER_SAMPLE];
+            for (int i = 0; i < count; i++) {
+                int slot = (first + i) % MAX_BATCH_SAMPLES;
+                batchTimestamps[i] = timestamps[slot];
+                System.arraycopy(values, slot * SampleEncoder.VALUES_PER_SAMPLE, batchValues,
+                        i * SampleEncoder.VALUES_PER_SAMPLE, SampleEncoder.VALUES_PER_SAMPLE);
+            }
+            Bundle b = new Bundle();
+            b.putString(Constants.KEY.DEVICE, device);
+            b.putLongArray(Constants.KEY.TIMESTAMPS, batchTimestamps);
+            b.putFloatArray(Constants.KEY.VALUES, batchValues);
+            return b;
+        }
+
+        /**
+         * @return the number of samples dropped because the channel was full
+         */
+        public long getDroppedCount() {
+            return buffer.getOverflowCount();
+        }
+    }
+
+    /** the registered preview clients */
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+
+    /** the feeds of the recorded devices */
+    private final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<>();
+
+    /** time between batches, in milliseconds */
+    private final long intervalMillis;
+
+    /** the publisher thread, only non-null while running */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a publisher; call {@link #start()} to begin sending batches
+     * @param intervalMillis time between batches, in milliseconds
+     */
+    PreviewPublisher(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid preview interval: " + intervalMillis + " ms");
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Creates the preview feed of a device
+     * @param device short identifier of the device
+     * @return the feed, to be given the device's samples
+     */
+    public Channel addDevice(String device) {
+        Channel channel = new Channel(device);
+        channels.add(channel);
+        return channel;
+    }
+
+    /**
+     * Removes the feed of a device, e.g. one whose recording could not be started
+     * @param device short identifier of the device
+     */
+    public void removeDevice(String device) {
+        for (Channel channel : channels) {
+            if (channel.device.equals(device)) {
+                channels.remove(channel);
+            }
+        }
+    }
+
+    /**
+     * Removes the feeds of all devices, at the end of a recording
+     */
+    public void removeDevices() {
+        channels.clear();
+    }
+
+    /**
+     * Registers a preview client, or changes its rate if it is already registered
+     * @param messenger receives the batches
+     * @param minIntervalMillis minimum time between two batches sent to the client, in milliseconds;
+     *                          the batches are sent at most every {@link #getIntervalMillis()}
+     */
+    public void addClient(Messenger messenger, long minIntervalMillis) {
+        removeClient(messenger);
+        clients.add(new Client(messenger, minIntervalMillis));
+    }
+
+    /**
+     * Unregisters a preview client
+     * @param messenger the client's messenger
+     */
+    public void removeClient(Messenger messenger) {
+        for (Client client : clients) {
+            if (client.messenger.equals(messenger)) {
+                clients.remove(client);
+            }
+        }
+    }
+
+    /**
+     * Starts the publisher thread
+     */
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Preview");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the publisher thread; batches not yet sent are dropped
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Sends the samples queued since the last batch to the clients whose rate allows it
+     */
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        Client[] due = clients.toArray(new Client[clients.size()]);
+        for (int i = 0; i < due.length; i++) {
+            if (now - due[i].lastSentNanos < TimeUnit.MILLISECONDS.toNanos(due[i].minIntervalMillis)) {
+                due[i] = null;
+            }
+        }
+        for (Channel channel : channels) {
+            Bundle batch;
+            try {
+                batch = channel.drainBatch();
+            } catch (IOException e) {
+                // the channel never throws
+                continue;
+            }
+            if (batch == null) {
+                continue;
+            }
+            for (Client client : due) {
+                if (client == null) {
+                    continue;
+                }
+                try {
+                    Message msg = Message.obtain(null, Constants.MESSAGE.SAMPLES);
+                    msg.setData(batch);
+                    client.messenger.send(msg);
+                    client.lastSentNanos = now;
+                } catch (RemoteException e) {
+                    // the client is dead
+                    clients.remove(client);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to send a preview batch", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the time between batches, in milliseconds
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+}
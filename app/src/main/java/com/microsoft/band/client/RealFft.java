@@ -0,0 +1,121 @@
+package com.microsoft.band.client;
+
+/**
+ * Fast Fourier transform of real signals of a fixed power-of-two length n. The signal is packed
+ * into a complex signal of length n/2 (even samples as real parts, odd samples as imaginary parts),
+ * transformed with an iterative radix-2 FFT, and the spectrum of the real signal is then separated
+ * from it, which takes about half the work of a complex FFT of length n.
+ * <p>
+ * The twiddle factors and the bit-reversal permutation are computed once, when the transform is
+ * created, and all work arrays are preallocated, so a transform never allocates. An instance must
+ * only be used by one thread at a time.
+ * </p>
+ *
+ * @see SpectralAnalyzer
+ */
+class RealFft {
+
+    /** length of the real signal */
+    private final int size;
+
+    /** length of the packed complex signal, size / 2 */
+    private final int half;
+
+    /** cosine and sine of 2 pi k / size for k < size / 2; the twiddle factors are cos - i sin */
+    private final double[] cos, sin;
+
+    /** index of each element of the packed signal after the bit-reversal permutation */
+    private final int[] bitReverse;
+
+    /** real and imaginary parts of the packed signal, transformed in place */
+    private final double[] re, im;
+
+    /**
+     * Creates a transform and its tables
+     * @param size length of the real signals, a power of two and at least 4
+     */
+    RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two and at least 4: " + size);
+        }
+        this.size = size;
+        this.half = size / 2;
+        cos = new double[half];
+        sin = new double[half];
+        for (int k = 0; k < half; k++) {
+            double angle = 2 * Math.PI * k / size;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+        bitReverse = new int[half];
+        int bits = Integer.numberOfTrailingZeros(half);
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        re = new double[half];
+        im = new double[half];
+    }
+
+    /**
+     * @return the length of the real signals
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Computes the squared magnitude of each frequency bin of a real signal
+     * @param signal the {@link #getSize()} samples of the signal; left unchanged
+     * @param power receives {@code |X[k]|^2} for the bins k = 0 to size / 2, i.e. from 0 Hz to the
+     *              Nyquist frequency; at least size / 2 + 1 elements
+     */
+    public void powerSpectrum(double[] signal, double[] power) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            re[j] = signal[2 * i];
+            im[j] = signal[2 * i + 1];
+        }
+        transform();
+        // bins 0 and size / 2 are real, and come from the sum and the difference of the packed parts
+        power[0] = (re[0] + im[0]) * (re[0] + im[0]);
+        power[half] = (re[0] - im[0]) * (re[0] - im[0]);
+        for (int k = 1; k < half; k++) {
+            int m = half - k;
+            // even part E = (Z[k] + conj(Z[m])) / 2 and odd part O = (Z[k] - conj(Z[m])) / 2i
+            double evenRe = (re[k] + re[m]) / 2;
+            double evenIm = (im[k] - im[m]) / 2;
+            double oddRe = (im[k] + im[m]) / 2;
+            double oddIm = -(re[k] - re[m]) / 2;
+            // X[k] = E + W^k O, with W^k = cos - i sin
+            double xRe = evenRe + cos[k] * oddRe + sin[k] * oddIm;
+            double xIm = evenIm + cos[k] * oddIm - sin[k] * oddRe;
+            power[k] = xRe * xRe + xIm * xIm;
+        }
+    }
+
+    /**
+     * Iterative radix-2 decimation-in-time FFT of the packed signal, whose elements are already in
+     * bit-reversed order
+     */
+    private void transform() {
+        for (int length = 2; length <= half; length <<= 1) {
+            int halfLength = length / 2;
+            // the twiddle factors of this pass are those of the full table at a stride of size / length
+            int stride = size / length;
+            for (int start = 0; start < half; start += length) {
+                for (int j = 0; j < halfLength; j++) {
+                    double wRe = cos[j * stride];
+                    double wIm = -sin[j * stride];
+                    int a = start + j;
+                    int b = a + halfLength;
+                    double tRe = re[b] * wRe - im[b] * wIm;
+                    double tIm = re[b] * wIm + im[b] * wRe;
+                    re[b] = re[a] - tRe;
+                    im[b] = im[a] - tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.microsoft.band.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Passes samples through a {@link Resampler} and writes the samples on its uniform grid to the CSV
+ * file {@code <name>_<session>_resampled.csv}, in the layout of the raw CSV log, so that consumers
+ * can read it like sensor_data.csv. The file is written, flushed and synchronized together with the
+ * raw log.
+ *
+ * @see DeviceRecorder
+ */
+class ResampleWriter extends SampleStage {
+
+    /** resamples the samples into {@link #out} */
+    private final Resampler resampler;
+
+    /** file name of the resampled log */
+    private final String fileName;
+
+    /** the resampled log */
+    private final CsvSampleWriter out;
+
+    /**
+     * Creates the resampled log
+     * @param directory directory in which to create the resampled log
+     * @param name common file name of the device's files
+     * @param session session id, included in the file name
+     * @param rateHz number of samples per second of the resampled log
+     * @param interpolation the interpolation method
+     * @param maxGapMillis longest interval between two samples across which values are interpolated
+     * @throws IOException if the file could not be created
+     */
+    ResampleWriter(File directory, String name, String session, double rateHz,
+                   Resampler.Interpolation interpolation, long maxGapMillis) throws IOException {
+        this.fileName = name + "_" + session + "_resampled.csv";
+        this.out = new CsvSampleWriter(new FileOutputStream(new File(directory, fileName)));
+        this.resampler = new Resampler(rateHz, interpolation, maxGapMillis, out);
+    }
+
+    @Override
+    protected void process(long timestamp, float[] values, int offset) throws IOException {
+        resampler.write(timestamp, values, offset);
+    }
+
+    @Override
+    protected void flushOutput() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    protected void syncOutput() throws IOException {
+        out.sync();
+    }
+
+    /**
+     * Writes the grid points up to the last sample, then closes the resampled log
+     */
+    @Override
+    protected void closeOutput() throws IOException {
+        resampler.close();
+    }
+
+    @Override
+    public String getStreamName() {
+        return SessionManifest.RESAMPLED_STREAM;
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public long getRecordCount() {
+        return resampler.getOutputCount();
+    }
+}
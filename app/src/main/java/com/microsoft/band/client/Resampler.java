@@ -0,0 +1,296 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Resamples a stream of samples onto an exact uniform grid, so that consumers need not cope with
+ * the jitter and drops of the Band's timestamps. The grid points are the multiples of the output
+ * period since the epoch, e.g. every 16 ms at 62.5 Hz or every 20 ms at 50 Hz, so that the resampled
+ * logs of several devices line up; the timestamp of a point is rounded to the millisecond, the
+ * resolution of the timestamps, when the period is not a whole number of milliseconds.
+ * <p>
+ * The values at each grid point are interpolated between the input samples around it, either
+ * linearly or with a cubic Hermite spline whose tangents are the slopes between the neighbouring
+ * samples (a Catmull-Rom spline for uneven spacing). The lookahead is bounded: a grid point is
+ * output as soon as the sample after it arrives, or the one after that for cubic interpolation.
+ * Nothing is interpolated across an interval longer than the maximum gap, so a drop in the input
+ * remains a gap in the output; samples whose timestamp does not increase are skipped. Each sample
+ * costs a few operations per axis and nothing is allocated.
+ * </p>
+ * <p>
+ * It runs live as a {@link ResampleWriter} stage, or as a batch pass over an existing log, on a
+ * desktop machine as well:
+ * <pre>
+ *   java com.microsoft.band.client.Resampler sensor_data.csv sensor_data_50hz.csv 50 [linear|cubic]
+ * </pre>
+ * </p>
+ *
+ * @see SampleLogConverter
+ */
+class Resampler implements SampleWriter {
+
+    /** the interpolation methods */
+    enum Interpolation {
+        /** straight line between the two samples around a grid point */
+        LINEAR,
+        /** cubic Hermite spline through the four samples around a grid point */
+        CUBIC
+    }
+
+    /** longest interval across which values are interpolated by default, a few periods at the lowest rate of the Band */
+    static final long DEFAULT_MAX_GAP_MILLIS = 500;
+
+    /** number of samples kept: the two around the current grid points, and one on each side */
+    private static final int WINDOW = 4;
+
+    /** time between grid points, in milliseconds */
+    private final double periodMillis;
+
+    /** the interpolation method */
+    private final Interpolation interpolation;
+
+    /** longest interval between two samples across which values are interpolated, in milliseconds */
+    private final long maxGapMillis;
+
+    /** receives the resampled samples */
+    private final SampleWriter output;
+
+    /** timestamps and values of the last samples, oldest first; slot WINDOW - 1 is the newest */
+    private final long[] times = new long[WINDOW];
+    private final float[] window = new float[WINDOW * SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** number of valid samples in the window, at most {@link #WINDOW} */
+    private int size = 0;
+
+    /** index of the next grid point, its time being {@code next * periodMillis} */
+    private long next;
+
+    /** reusable holder for the values of a grid point */
+    private final float[] point = new float[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** number of samples received and skipped, and of grid points output */
+    private long inputCount, skippedCount, outputCount;
+
+    /**
+     * Creates a resampler
+     * @param rateHz number of grid points per second
+     * @param interpolation the interpolation method
+     * @param maxGapMillis longest interval between two samples across which values are interpolated,
+     *                     which should be a few input periods
+     * @param output receives the resampled samples
+     */
+    Resampler(double rateHz, Interpolation interpolation, long maxGapMillis, SampleWriter output) {
+        if (!(rateHz > 0) || maxGapMillis <= 0) {
+            throw new IllegalArgumentException("Invalid resampling at " + rateHz + " Hz with gaps of "
+                    + maxGapMillis + " ms");
+        }
+        this.periodMillis = 1000 / rateHz;
+        this.interpolation = interpolation;
+        this.maxGapMillis = maxGapMillis;
+        this.output = output;
+    }
+
+    /**
+     * Adds an input sample, and outputs the grid points which can now be interpolated
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     * @throws IOException if the output could not be written
+     */
+    @Override
+    public void write(long timestamp, float[] values, int offset) throws IOException {
+        inputCount++;
+        if (size > 0 && timestamp <= times[WINDOW - 1]) {
+            skippedCount++;
+            return;
+        }
+        // shift the window
+        System.arraycopy(times, 1, times, 0, WINDOW - 1);
+        System.arraycopy(window, SampleEncoder.VALUES_PER_SAMPLE, window, 0,
+                (WINDOW - 1) * SampleEncoder.VALUES_PER_SAMPLE);
+        times[WINDOW - 1] = timestamp;
+        System.arraycopy(values, offset, window, (WINDOW - 1) * SampleEncoder.VALUES_PER_SAMPLE,
+                SampleEncoder.VALUES_PER_SAMPLE);
+        if (size < WINDOW) {
+            size++;
+        }
+        if (size == 1) {
+            next = (long) Math.ceil(timestamp / periodMillis);
+        }
+        if (interpolation == Interpolation.LINEAR) {
+            // the newest interval is complete
+            if (size >= 2) {
+                outputSegment(WINDOW - 2, false);
+            }
+        } else if (size >= 3) {
+            // the interval before the newest one has both tangents
+            outputSegment(WINDOW - 3, false);
+        }
+    }
+
+    /**
+     * Outputs the grid points of an interval of the window, those at or after its start and before
+     * its end, or at its end too if it is the last one
+     * @param start slot of the sample starting the interval
+     * @param last whether to output a grid point on the end of the interval
+     */
+    private void outputSegment(int start, boolean last) throws IOException {
+        long t0 = times[start], t1 = times[start + 1];
+        if (t1 - t0 > maxGapMillis) {
+            // leave the gap, resuming on the first grid point after it
+            next = Math.max(next, (long) Math.ceil(t1 / periodMillis));
+            return;
+        }
+        double time;
+        while ((time = next * periodMillis) < t1 || (last && time == t1)) {
+            if (time >= t0) {
+                interpolate(start, time);
+                output.write(Math.round(time), point, 0);
+                outputCount++;
+            }
+            next++;
+        }
+    }
+
+    /**
+     * Interpolates the values at a time between a sample of the window and the next
+     * @param start slot of the sample before the time
+     * @param time the time, in milliseconds
+     */
+    private void interpolate(int start, double time) {
+        int n = SampleEncoder.VALUES_PER_SAMPLE;
+        int first = WINDOW - size;
+        double t0 = times[start], t1 = times[start + 1];
+        double h = t1 - t0;
+        double s = (time - t0) / h;
+        if (interpolation == Interpolation.LINEAR) {
+            for (int i = 0; i < n; i++) {
+                float v0 = window[start * n + i], v1 = window[(start + 1) * n + i];
+                point[i] = (float) (v0 + s * (v1 - v0));
+            }
+            return;
+        }
+        // tangents from the neighbours, unless they are missing or beyond a gap
+        boolean before = start - 1 >= first && t0 - times[start - 1] <= maxGapMillis;
+        boolean after = start + 2 < WINDOW && start + 2 >= first && times[start + 2] - t1 <= maxGapMillis;
+        double s2 = s * s, s3 = s2 * s;
+        double h00 = 2 * s3 - 3 * s2 + 1, h10 = s3 - 2 * s2 + s, h01 = -2 * s3 + 3 * s2, h11 = s3 - s2;
+        for (int i = 0; i < n; i++) {
+            double v0 = window[start * n + i], v1 = window[(start + 1) * n + i];
+            double slope = (v1 - v0) / h;
+            double m0 = before ? (v1 - window[(start - 1) * n + i]) / (t1 - times[start - 1]) : slope;
+            double m1 = after ? (window[(start + 2) * n + i] - v0) / (times[start + 2] - t0) : slope;
+            point[i] = (float) (h00 * v0 + h10 * h * m0 + h01 * v1 + h11 * h * m1);
+        }
+    }
+
+    /**
+     * Outputs the remaining grid points, up to the last sample, then flushes the output. Call once
+     * the input has ended; further samples start a new interval.
+     * @throws IOException if the output could not be written
+     */
+    public void finish() throws IOException {
+        if (size >= 2) {
+            // the last interval, which is only waiting for its end if the interpolation is linear
+            outputSegment(WINDOW - 2, true);
+        } else if (size == 1 && next * periodMillis == times[WINDOW - 1]) {
+            System.arraycopy(window, (WINDOW - 1) * SampleEncoder.VALUES_PER_SAMPLE, point, 0,
+                    SampleEncoder.VALUES_PER_SAMPLE);
+            output.write(times[WINDOW - 1], point, 0);
+            outputCount++;
+            next++;
+        }
+        size = 0;
+        output.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        output.sync();
+    }
+
+    /**
+     * Outputs the remaining grid points, then closes the output
+     * @throws IOException if the output could not be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * @return the number of samples received so far
+     */
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * @return the number of samples skipped because their timestamp did not increase
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return the number of grid points output so far
+     */
+    public long getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Resamples a log
+     * @param input log written by {@link CsvSampleWriter}, {@link BinarySampleWriter} or {@link CompressedSampleWriter}
+     * @param csvFile destination file, in the CSV layout of sensor_data.csv, which is overwritten
+     * @param rateHz number of grid points per second
+     * @param interpolation the interpolation method
+     * @param maxGapMillis longest interval between two samples across which values are interpolated
+     * @return the number of grid points written
+     * @throws IOException if the input is not a valid log or the output could not be written
+     */
+    public static long resample(File input, File csvFile, double rateHz, Interpolation interpolation,
+                                long maxGapMillis) throws IOException {
+        SampleReader reader = SampleLogConverter.open(input);
+        try {
+            Resampler resampler = new Resampler(rateHz, interpolation, maxGapMillis,
+                    new CsvSampleWriter(new BufferedWriter(new FileWriter(csvFile))));
+            try {
+                while (reader.next()) {
+                    resampler.write(reader.getTimestamp(), reader.getValues(), 0);
+                }
+            } finally {
+                resampler.close();
+            }
+            return resampler.getOutputCount();
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: Resampler <input.csv|input.imu|input.imz> <output.csv> <rate Hz> [linear|cubic]");
+            System.exit(1);
+        }
+        Interpolation interpolation = args.length == 4
+                ? Interpolation.valueOf(args[3].toUpperCase(Locale.US)) : Interpolation.LINEAR;
+        double rate = Double.parseDouble(args[2]);
+        long count = resample(new File(args[0]), new File(args[1]), rate, interpolation,
+                DEFAULT_MAX_GAP_MILLIS);
+        System.out.println("Resampled to " + count + " samples at " + rate + " Hz");
+    }
+}
@@ -0,0 +1,283 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Splits a recording session into a sequence of segment files, so that no single file grows without
+ * bound and completed segments can be processed or uploaded while the recording continues. A new
+ * segment is started when the current one holds the maximum number of samples or spans the maximum
+ * duration, measured with the sample timestamps.
+ * <p>
+ * Segments are named {@code <name>_<session>_<sequence><extension>}, e.g.
+ * {@code sensor_data_20151118T101500_0003.csv}. Each completed segment is appended to the manifest
+ * {@code <name>_<session>_manifest.csv}, which lists the segment file, the timestamps of its first
+ * and last samples, its number of samples and the sample rate in effect while it was recorded. A
+ * segment is only listed once it is closed, so every segment in the manifest is safe to read.
+ * </p>
+ * <p>
+ * A change of the sample rate, announced with {@link #setSampleRate(double, long)}, also starts a
+ * new segment, so that every segment holds samples taken at a single rate.
+ * </p>
+ * <p>
+ * Segments can optionally be compressed in independent gzip blocks, in which case {@code .gz} is
+ * appended to their names and they are never memory-mapped.
+ * </p>
+ *
+ * @see FileUtil#getRollingSampleWriter(String, String, SampleFormat, boolean, int, int, long)
+ */
+class RollingSampleWriter implements SampleWriter {
+
+    /** header line of the manifest */
+    static final String MANIFEST_HEADER = "segment,first_timestamp,last_timestamp,samples,sample_rate";
+
+    /** directory containing the segments and the manifest */
+    private final File directory;
+
+    /** common prefix of the segment file names: name and session id */
+    private final String prefix;
+
+    /** storage format of the segments */
+    private final SampleFormat format;
+
+    /** whether segments are written through memory-mapped files */
+    private final boolean memoryMapped;
+
+    /** number of bytes preallocated for memory-mapped segments */
+    private final int mappedSegmentSize;
+
+    /** gzip compression level of the segments, or 0 if they are not compressed */
+    private final int deflateLevel;
+
+    /** file extension of the segments */
+    private final String extension;
+
+    /** ratio and cost of the compressed blocks of all segments */
+    private final CompressionStats compressionStats = new CompressionStats();
+
+    /** maximum number of samples per segment */
+    private final int maxSamples;
+
+    /** maximum time between the first and last sample of a segment, in milliseconds */
+    private final long maxDurationMillis;
+
+    /** the manifest, one line per completed segment */
+    private final BufferedWriter manifest;
+
+    /** writer of the current segment, null once closed */
+    private SampleWriter segment;
+
+    /** file name of the current segment */
+    private String segmentName;
+
+    /** sequence number of the current segment */
+    private int sequence = -1;
+
+    /** number of samples in the current segment */
+    private int segmentSamples;
+
+    /** timestamps of the first and last sample in the current segment */
+    private long firstTimestamp, lastTimestamp;
+
+    /** number of samples written to all segments */
+    private long sampleCount = 0;
+
+    /** sample rate of the current segment in Hz, or 0 if unknown */
+    private double segmentRate = 0;
+
+    /** rate changes announced by other threads, in the order of the samples they apply to */
+    private final ConcurrentLinkedQueue<RateChange> rateChanges = new ConcurrentLinkedQueue<>();
+
+    /** a rate change which applies from a given sample on */
+    private static class RateChange {
+        /** the new sample rate in Hz */
+        final double rateHz;
+        /** number of samples written at the old rate */
+        final long fromSample;
+
+        RateChange(double rateHz, long fromSample) {
+            this.rateHz = rateHz;
+            this.fromSample = fromSample;
+        }
+    }
+
+    /**
+     * Creates a rolling writer, opening the manifest and the first segment
+     * @param directory directory in which to create the segments and the manifest
+     * @param name common file name of the session's files
+     * @param session session id, included in every file name
+     * @param format storage format of the segments
+     * @param memoryMapped whether to write segments through memory-mapped, preallocated files
+     * @param mappedSegmentSize number of bytes to preallocate for memory-mapped segments
+     * @param deflateLevel gzip compression level of the segments from 1 to 9, or 0 for uncompressed segments
+     * @param maxSamples maximum number of samples per segment
+     * @param maxDurationMillis maximum time spanned by a segment, in milliseconds
+     * @throws IOException if the manifest or the first segment could not be created
+     */
+    RollingSampleWriter(File directory, String name, String session, SampleFormat format, boolean memoryMapped,
+                        int mappedSegmentSize, int deflateLevel, int maxSamples, long maxDurationMillis)
+            throws IOException {
+        if (maxSamples <= 0 || maxDurationMillis <= 0) {
+            throw new IllegalArgumentException("Segment limits must be positive");
+        }
+        if (deflateLevel < 0 || deflateLevel > 9) {
+            throw new IllegalArgumentException("Invalid compression level: " + deflateLevel);
+        }
+        this.directory = directory;
+        this.prefix = name + "_" + session;
+        this.format = format;
+        // block-compressed segments are always streamed
+        memoryMapped &= format.isMappable() && deflateLevel == 0;
+        this.deflateLevel = deflateLevel;
+        this.extension = deflateLevel == 0 ? format.getExtension() : format.getExtension() + ".gz";
+        this.memoryMapped = memoryMapped;
+        this.mappedSegmentSize = mappedSegmentSize;
+        if (memoryMapped) {
+            // never let a mapped segment overflow into a second file, which the manifest would not list
+            int perSample = format == SampleFormat.BINARY ? BinarySampleWriter.RECORD_SIZE : SampleEncoder.MAX_SAMPLE_LENGTH;
+            maxSamples = Math.min(maxSamples, (mappedSegmentSize - BinarySampleWriter.HEADER_SIZE) / perSample);
+        }
+        this.maxSamples = maxSamples;
+        this.maxDurationMillis = maxDurationMillis;
+        this.manifest = new BufferedWriter(new FileWriter(new File(directory, getManifestName())));
+        manifest.write(MANIFEST_HEADER);
+        manifest.newLine();
+        manifest.flush();
+        openSegment();
+    }
+
+    @Override
+    public void write(long timestamp, float[] values, int offset) throws IOException {
+        if (segment == null) {
+            throw new IOException("Writer is closed");
+        }
+        if (!rateChanges.isEmpty()) {
+            applyRateChanges();
+        }
+        if (segmentSamples >= maxSamples || (segmentSamples > 0 && timestamp - firstTimestamp >= maxDurationMillis)) {
+            closeSegment();
+            openSegment();
+        }
+        segment.write(timestamp, values, offset);
+        if (segmentSamples == 0) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+        segmentSamples++;
+        sampleCount++;
+    }
+
+    /**
+     * Announces that samples are taken at a new rate, starting with the given sample. May be called
+     * from any thread, typically the one which switched the rate of the source, while another thread
+     * writes the samples.
+     * @param rateHz the new number of samples per second
+     * @param fromSample number of samples written at the old rate, e.g. the
+     *                   {@link SampleRingBuffer#getPublishedCount()} of the buffer being drained into this writer
+     */
+    public void setSampleRate(double rateHz, long fromSample) {
+        rateChanges.add(new RateChange(rateHz, fromSample));
+    }
+
+    /**
+     * Applies the announced rate changes which are due before the next sample, starting a new segment
+     * if the current one holds samples at another rate
+     */
+    private void applyRateChanges() throws IOException {
+        RateChange change;
+        while ((change = rateChanges.peek()) != null && change.fromSample <= sampleCount) {
+            rateChanges.poll();
+            if (change.rateHz != segmentRate) {
+                if (segmentSamples > 0) {
+                    closeSegment();
+                    openSegment();
+                }
+                segmentRate = change.rateHz;
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (segment != null) {
+            segment.flush();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (segment != null) {
+            segment.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segment != null) {
+            try {
+                closeSegment();
+            } finally {
+                manifest.close();
+            }
+        }
+    }
+
+    /**
+     * @return the file name of the manifest, relative to the directory of the segments
+     */
+    public String getManifestName() {
+        return prefix + "_manifest.csv";
+    }
+
+    /**
+     * @return the ratio and cost of the gzip blocks written so far, empty if segments are not compressed
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * @return the number of segments created so far
+     */
+    public int getSegmentCount() {
+        return sequence + 1;
+    }
+
+    private void openSegment() throws IOException {
+        sequence++;
+        segmentName = String.format(Locale.US, "%s_%04d", prefix, sequence);
+        segmentSamples = 0;
+        if (memoryMapped) {
+            segment = new MappedSampleWriter(directory, segmentName, format, mappedSegmentSize);
+        } else if (deflateLevel > 0) {
+            segment = FileUtil.openGzipSampleWriter(new File(directory, segmentName + extension), format,
+                    deflateLevel, compressionStats);
+        } else {
+            segment = FileUtil.openSampleWriter(new File(directory, segmentName + extension), format);
+        }
+    }
+
+    /**
+     * Closes the current segment and lists it in the manifest. Empty segments are deleted instead.
+     */
+    private void closeSegment() throws IOException {
+        SampleWriter writer = segment;
+        segment = null;
+        writer.close();
+        String fileName = segmentName + extension;
+        if (segmentSamples == 0) {
+            if (!new File(directory, fileName).delete()) {
+                throw new IOException("Failed to delete empty segment " + fileName);
+            }
+            return;
+        }
+        manifest.write(fileName + "," + firstTimestamp + "," + lastTimestamp + "," + segmentSamples + ","
+                + (segmentRate > 0 ? Double.toString(segmentRate) : ""));
+        manifest.newLine();
+        manifest.flush();
+    }
+}
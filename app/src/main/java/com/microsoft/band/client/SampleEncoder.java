@@ -0,0 +1,389 @@
+package com.microsoft.band.client;
+
+import java.math.BigInteger;
+
+/**
+ * Formats a single accelerometer/gyroscope sample as a CSV line into a reusable character buffer.
+ * <p>
+ * The output matches joining the boxed timestamp and axis values with
+ * {@link android.text.TextUtils#join(CharSequence, Object[])} and appending a newline, i.e.
+ * {@link Long#toString(long)} followed by {@link Float#toString(float)} for each axis. Unlike that
+ * approach, no objects are allocated per sample: the shortest decimal representation of each float
+ * is computed with the Ryu algorithm using only primitive arithmetic, and the characters are written
+ * straight into {@link #getBuffer()}.
+ * </p>
+ * <p>
+ * Every float between 10^-4 and 10^7 in magnitude, which covers the accelerometer and gyroscope
+ * ranges of the Band, is formatted exactly as {@link Float#toString(float)} does. Outside of that
+ * range some runtimes print a superfluous trailing digit; the encoder always prints the shortest
+ * string, which still parses back to the same float.
+ * </p>
+ * <p>
+ * An encoder is not thread-safe; each writer should own its own instance.
+ * </p>
+ *
+ * @see CsvSampleWriter
+ */
+class SampleEncoder {
+
+    /** number of values following the timestamp: acceleration x/y/z, then angular velocity x/y/z */
+    public static final int VALUES_PER_SAMPLE = 6;
+
+    /** upper bound on the length of one encoded float, e.g. "-1.23456789E-38" */
+    private static final int MAX_FLOAT_LENGTH = 15;
+
+    /** upper bound on the length of one encoded long, e.g. "-9223372036854775808" */
+    private static final int MAX_LONG_LENGTH = 20;
+
+    /** upper bound on the length of one encoded sample, including separators and the newline */
+    public static final int MAX_SAMPLE_LENGTH = MAX_LONG_LENGTH + VALUES_PER_SAMPLE * (MAX_FLOAT_LENGTH + 1) + 1;
+
+    private static final int FLOAT_MANTISSA_BITS = 23;
+    private static final int FLOAT_EXPONENT_BITS = 8;
+    private static final int FLOAT_BIAS = 127;
+
+    private static final int POW5_BITCOUNT = 61;
+    private static final int POW5_INV_BITCOUNT = 59;
+    private static final int POS_TABLE_SIZE = 47;
+    private static final int INV_TABLE_SIZE = 31;
+
+    /** 5^i, normalized to {@link #POW5_BITCOUNT} bits */
+    private static final long[] POW5_SPLIT = new long[POS_TABLE_SIZE];
+
+    /** 2^k / 5^i rounded up, normalized to {@link #POW5_INV_BITCOUNT} bits */
+    private static final long[] POW5_INV_SPLIT = new long[INV_TABLE_SIZE];
+
+    static {
+        BigInteger five = BigInteger.valueOf(5);
+        for (int i = 0; i < POS_TABLE_SIZE; i++) {
+            BigInteger pow = five.pow(i);
+            int pow5len = pow.bitLength();
+            POW5_SPLIT[i] = pow.shiftRight(pow5len - POW5_BITCOUNT).longValue();
+            if (i < INV_TABLE_SIZE) {
+                int j = pow5len - 1 + POW5_INV_BITCOUNT;
+                POW5_INV_SPLIT[i] = BigInteger.ONE.shiftLeft(j).divide(pow).add(BigInteger.ONE).longValue();
+            }
+        }
+    }
+
+    /** buffer holding the most recently encoded sample */
+    private final char[] buffer = new char[MAX_SAMPLE_LENGTH];
+
+    /** scratch space for the decimal digits of a single number */
+    private final char[] digits = new char[MAX_LONG_LENGTH];
+
+    /**
+     * Encodes one sample, terminated by a newline, into the internal buffer.
+     * @param timestamp the sample timestamp
+     * @param values array holding the six axis values
+     * @param offset index of the first axis value in {@code values}
+     * @return the number of characters written to {@link #getBuffer()}
+     */
+    public int encode(long timestamp, float[] values, int offset) {
+        int pos = writeLong(timestamp, buffer, 0);
+        for (int i = 0; i < VALUES_PER_SAMPLE; i++) {
+            buffer[pos++] = ',';
+            pos = writeFloat(values[offset + i], buffer, pos);
+        }
+        buffer[pos++] = '\n';
+        return pos;
+    }
+
+    /**
+     * Returns the buffer written by {@link #encode(long, float[], int)}. The contents are only valid
+     * until the next call to {@code encode}.
+     * @return the character buffer
+     */
+    public char[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Writes the decimal representation of a long, as produced by {@link Long#toString(long)}.
+     * @param value the value to format
+     * @param out destination buffer
+     * @param pos index at which to start writing
+     * @return the index following the last character written
+     */
+    int writeLong(long value, char[] out, int pos) {
+        if (value == Long.MIN_VALUE) {
+            String min = "-9223372036854775808";
+            min.getChars(0, min.length(), out, pos);
+            return pos + min.length();
+        }
+        if (value < 0) {
+            out[pos++] = '-';
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            out[pos++] = digits[--n];
+        }
+        return pos;
+    }
+
+    /**
+     * Writes the shortest decimal representation of a float that uniquely identifies it, in the
+     * format produced by {@link Float#toString(float)}.
+     * @param value the value to format
+     * @param out destination buffer
+     * @param pos index at which to start writing
+     * @return the index following the last character written
+     */
+    int writeFloat(float value, char[] out, int pos) {
+        if (value != value) {
+            return writeChars("NaN", out, pos);
+        }
+        if (value == Float.POSITIVE_INFINITY) {
+            return writeChars("Infinity", out, pos);
+        }
+        if (value == Float.NEGATIVE_INFINITY) {
+            return writeChars("-Infinity", out, pos);
+        }
+        int bits = Float.floatToIntBits(value);
+        if (bits == 0) {
+            return writeChars("0.0", out, pos);
+        }
+        if (bits == 0x80000000) {
+            return writeChars("-0.0", out, pos);
+        }
+
+        int ieeeExponent = (bits >>> FLOAT_MANTISSA_BITS) & ((1 << FLOAT_EXPONENT_BITS) - 1);
+        int ieeeMantissa = bits & ((1 << FLOAT_MANTISSA_BITS) - 1);
+
+        int e2;
+        int m2;
+        if (ieeeExponent == 0) {
+            e2 = 1 - FLOAT_BIAS - FLOAT_MANTISSA_BITS - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - FLOAT_BIAS - FLOAT_MANTISSA_BITS - 2;
+            m2 = ieeeMantissa | (1 << FLOAT_MANTISSA_BITS);
+        }
+        boolean even = (m2 & 1) == 0;
+
+        // Step 2: determine the interval of values that round to this float
+        int mv = 4 * m2;
+        int mp = 4 * m2 + 2;
+        int mmShift = (ieeeMantissa != 0 || ieeeExponent <= 1) ? 1 : 0;
+        int mm = 4 * m2 - 1 - mmShift;
+
+        // Step 3: convert to a decimal power base
+        int vr, vp, vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        int lastRemovedDigit = 0;
+        if (e2 >= 0) {
+            int q = log10Pow2(e2);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            vr = (int) mulPow5InvDivPow2(mv, q, i);
+            vp = (int) mulPow5InvDivPow2(mp, q, i);
+            vm = (int) mulPow5InvDivPow2(mm, q, i);
+            if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+                // the digit removed last is needed for correct rounding, so compute it separately
+                int l = POW5_INV_BITCOUNT + pow5bits(q - 1) - 1;
+                lastRemovedDigit = (int) (mulPow5InvDivPow2(mv, q - 1, -e2 + q - 1 + l) % 10);
+            }
+            if (q <= 9) {
+                // only one of mp, mv, and mm can be a multiple of 5, if any
+                if (mv % 5 == 0) {
+                    vrIsTrailingZeros = pow5Factor(mv) >= q;
+                } else if (even) {
+                    vmIsTrailingZeros = pow5Factor(mm) >= q;
+                } else if (pow5Factor(mp) >= q) {
+                    vp--;
+                }
+            }
+        } else {
+            int q = log10Pow5(-e2);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+            vr = (int) mulPow5DivPow2(mv, i, j);
+            vp = (int) mulPow5DivPow2(mp, i, j);
+            vm = (int) mulPow5DivPow2(mm, i, j);
+            if (q != 0 && (vp - 1) / 10 <= vm / 10) {
+                j = q - 1 - (pow5bits(i + 1) - POW5_BITCOUNT);
+                lastRemovedDigit = (int) (mulPow5DivPow2(mv, i + 1, j) % 10);
+            }
+            if (q <= 1) {
+                // mv has at least q trailing zero bits, as do mp and mm
+                vrIsTrailingZeros = true;
+                if (even) {
+                    vmIsTrailingZeros = mmShift == 1;
+                } else {
+                    vp--;
+                }
+            } else if (q < 31) {
+                vrIsTrailingZeros = (mv & ((1 << (q - 1)) - 1)) == 0;
+            }
+        }
+
+        // Step 4: find the shortest decimal representation in the interval
+        int removed = 0;
+        int output;
+        if (vmIsTrailingZeros || vrIsTrailingZeros) {
+            // general case, which happens rarely
+            while (vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= vm % 10 == 0;
+                vrIsTrailingZeros &= lastRemovedDigit == 0;
+                lastRemovedDigit = vr % 10;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if (vmIsTrailingZeros) {
+                while (vm % 10 == 0) {
+                    vrIsTrailingZeros &= lastRemovedDigit == 0;
+                    lastRemovedDigit = vr % 10;
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+                // round even if the exact number is .....50..0
+                lastRemovedDigit = 4;
+            }
+            output = vr + (((vr == vm && (!even || !vmIsTrailingZeros)) || lastRemovedDigit >= 5) ? 1 : 0);
+        } else {
+            // common case
+            while (vp / 10 > vm / 10) {
+                lastRemovedDigit = vr % 10;
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            output = vr + ((vr == vm || lastRemovedDigit >= 5) ? 1 : 0);
+        }
+        int olength = decimalLength(output);
+        int exp = e10 + removed + olength - 1;
+
+        if (value < 0) {
+            out[pos++] = '-';
+        }
+        return writeDecimal(output, olength, exp, out, pos);
+    }
+
+    /**
+     * Lays out {@code olength} decimal digits with the given scientific exponent using the plain
+     * notation for 10^-3 &lt;= |x| &lt; 10^7 and computerized scientific notation otherwise.
+     */
+    private int writeDecimal(int output, int olength, int exp, char[] out, int pos) {
+        for (int i = olength - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + output % 10);
+            output /= 10;
+        }
+        if (exp < -3 || exp >= 7) {
+            out[pos++] = digits[0];
+            out[pos++] = '.';
+            if (olength == 1) {
+                out[pos++] = '0';
+            } else {
+                for (int i = 1; i < olength; i++) {
+                    out[pos++] = digits[i];
+                }
+            }
+            out[pos++] = 'E';
+            if (exp < 0) {
+                out[pos++] = '-';
+                exp = -exp;
+            }
+            if (exp >= 10) {
+                out[pos++] = (char) ('0' + exp / 10);
+            }
+            out[pos++] = (char) ('0' + exp % 10);
+        } else if (exp < 0) {
+            out[pos++] = '0';
+            out[pos++] = '.';
+            for (int i = -1; i > exp; i--) {
+                out[pos++] = '0';
+            }
+            for (int i = 0; i < olength; i++) {
+                out[pos++] = digits[i];
+            }
+        } else if (exp + 1 >= olength) {
+            for (int i = 0; i < olength; i++) {
+                out[pos++] = digits[i];
+            }
+            for (int i = olength; i < exp + 1; i++) {
+                out[pos++] = '0';
+            }
+            out[pos++] = '.';
+            out[pos++] = '0';
+        } else {
+            for (int i = 0; i < olength; i++) {
+                if (i == exp + 1) {
+                    out[pos++] = '.';
+                }
+                out[pos++] = digits[i];
+            }
+        }
+        return pos;
+    }
+
+    private static int writeChars(String s, char[] out, int pos) {
+        s.getChars(0, s.length(), out, pos);
+        return pos + s.length();
+    }
+
+    private static int pow5bits(int e) {
+        return e == 0 ? 1 : (int) ((e * 23219280L + 10000000L - 1) / 10000000L);
+    }
+
+    private static int log10Pow2(int e) {
+        return (int) ((e * 3010299L) / 10000000L);
+    }
+
+    private static int log10Pow5(int e) {
+        return (int) ((e * 6989700L) / 10000000L);
+    }
+
+    private static int pow5Factor(int value) {
+        int count = 0;
+        while (value > 0 && value % 5 == 0) {
+            value /= 5;
+            count++;
+        }
+        return count;
+    }
+
+    private static long mulPow5DivPow2(int m, int i, int j) {
+        return mulShift(m, POW5_SPLIT[i], j);
+    }
+
+    private static long mulPow5InvDivPow2(int m, int q, int j) {
+        return mulShift(m, POW5_INV_SPLIT[q], j);
+    }
+
+    private static long mulShift(int m, long factor, int shift) {
+        long factorLo = factor & 0xffffffffL;
+        long factorHi = factor >>> 32;
+        long bits0 = m * factorLo;
+        long bits1 = m * factorHi;
+        return ((bits0 >>> 32) + bits1) >>> (shift - 32);
+    }
+
+    private static int decimalLength(int v) {
+        int length = 10;
+        int factor = 1000000000;
+        for (; length > 0; length--) {
+            if (v >= factor) {
+                break;
+            }
+            factor /= 10;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,41 @@
+package com.microsoft.band.client;
+
+/**
+ * Storage formats available for the accelerometer/gyroscope log. The format is chosen per session
+ * through the {@link Constants.KEY#SAMPLE_FORMAT} extra of the start intent.
+ *
+ * @see FileUtil#openSampleWriter(java.io.File, SampleFormat)
+ */
+enum SampleFormat {
+    /** one line of comma-separated text per sample */
+    CSV(".csv", true),
+    /** fixed-size little-endian binary records, see {@link BinarySampleWriter} */
+    BINARY(".imu", true),
+    /** delta-of-delta and XOR compressed blocks, see {@link CompressedSampleWriter} */
+    COMPRESSED(".imz", false);
+
+    /** file extension, including the leading dot */
+    private final String extension;
+
+    /** whether samples can be copied into memory-mapped segments one at a time */
+    private final boolean mappable;
+
+    SampleFormat(String extension, boolean mappable) {
+        this.extension = extension;
+        this.mappable = mappable;
+    }
+
+    /**
+     * @return the file extension used for logs in this format, including the leading dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return whether logs in this format can be written through a {@link MappedSampleWriter}
+     */
+    public boolean isMappable() {
+        return mappable;
+    }
+}
@@ -0,0 +1,19 @@
+package com.microsoft.band.client;
+
+/**
+ * Receives accelerometer/gyroscope samples from a {@link SampleSource}.
+ *
+ * @see DeviceRecorder#onSample(long, float[], int)
+ */
+interface SampleListener {
+
+    /**
+     * Called for every sample, always on the same thread for a given source. The values are only
+     * valid for the duration of the call, since sources reuse their sample arrays.
+     * @param timestamp the sample timestamp, in milliseconds since the epoch
+     * @param values array holding the {@link SampleEncoder#VALUES_PER_SAMPLE} axis values:
+     *               acceleration x/y/z, then angular velocity x/y/z
+     * @param offset index of the first axis value in {@code values}
+     */
+    void onSample(long timestamp, float[] values, int offset);
+}
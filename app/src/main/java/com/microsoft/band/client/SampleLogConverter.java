@@ -0,0 +1,104 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Converts binary and compressed sample logs, as well as logs compressed in gzip blocks, back to the
+ * CSV layout of sensor_data.csv, so that existing tools can read them. It has no Android
+ * dependencies and can be run on a desktop machine:
+ * <pre>
+ *   java com.microsoft.band.client.SampleLogConverter sensor_data.imu sensor_data.csv
+ * </pre>
+ *
+ * @see BinarySampleReader
+ * @see CompressedSampleReader
+ * @see CsvSampleWriter
+ */
+class SampleLogConverter {
+
+    /**
+     * Opens a binary, compressed or CSV sample log, detecting the format from the file header
+     * @param file log written by {@link BinarySampleWriter}, {@link CompressedSampleWriter} or
+     *             {@link CsvSampleWriter}, possibly through a {@link GzipBlockOutputStream}
+     * @return a reader positioned before the first sample
+     * @throws IOException if the file is not a supported sample log
+     */
+    public static SampleReader open(File file) throws IOException {
+        return open(new BufferedInputStream(new FileInputStream(file)), file.getPath());
+    }
+
+    /**
+     * Opens a sample log, detecting the format from its header
+     * @param in the log, positioned at its start, supporting {@link InputStream#mark(int)}; closed
+     *           with the reader, or if the log is not supported
+     * @param name name of the log, for error messages
+     * @return a reader positioned before the first sample
+     * @throws IOException if the stream is not a supported sample log
+     */
+    private static SampleReader open(InputStream in, String name) throws IOException {
+        try {
+            in.mark(4);
+            int magic = in.read() | in.read() << 8 | in.read() << 16 | in.read() << 24;
+            in.reset();
+            if ((magic & 0xffff) == GZIPInputStream.GZIP_MAGIC) {
+                // concatenated gzip members read as a single stream, holding a log in any format
+                return open(new BufferedInputStream(new GZIPInputStream(in)), name);
+            }
+            if (magic == CompressedSampleWriter.MAGIC) {
+                return new CompressedSampleReader(in);
+            }
+            if (magic != BinarySampleWriter.MAGIC && (magic & 0xff) >= '0' && (magic & 0xff) <= '9') {
+                // CSV lines start with the digits of a timestamp
+                return new CsvSampleReader(new InputStreamReader(in, "US-ASCII"), name);
+            }
+            return new BinarySampleReader(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Converts a binary or compressed sample log to CSV
+     * @param binaryFile log written by {@link BinarySampleWriter} or {@link CompressedSampleWriter},
+     *                   possibly through a {@link GzipBlockOutputStream}
+     * @param csvFile destination file, which is overwritten
+     * @return the number of samples converted
+     * @throws IOException if the input is not a valid log or the output could not be written
+     */
+    public static long toCsv(File binaryFile, File csvFile) throws IOException {
+        SampleReader reader = open(binaryFile);
+        long count = 0;
+        try {
+            SampleWriter writer = new CsvSampleWriter(new BufferedWriter(new FileWriter(csvFile)));
+            try {
+                while (reader.next()) {
+                    writer.write(reader.getTimestamp(), reader.getValues(), 0);
+                    count++;
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SampleLogConverter <input.imu|input.imz|input.gz> <output.csv>");
+            System.exit(1);
+        }
+        long count = toCsv(new File(args[0]), new File(args[1]));
+        System.out.println("Converted " + count + " samples");
+    }
+}
@@ -0,0 +1,105 @@
+package com.microsoft.band.client;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Rate-limited debug output of the sample stream. Writing every sample to logcat costs more than
+ * writing it to the log file, so the tap either logs one in every n samples or a summary of the
+ * samples received once per second: their count, their rate and the last sample.
+ * <p>
+ * Callers must guard every call with {@link #ENABLED}, which is a compile-time constant. In release
+ * builds the guarded code is removed by the compiler, so a disabled tap costs nothing:
+ * </p>
+ * <pre>
+ *   if (SampleLogTap.ENABLED) {
+ *       logTap.onSample(timestamp, values, 0);
+ *   }
+ * </pre>
+ *
+ * @see DeviceRecorder#onSample(long, float[], int)
+ */
+class SampleLogTap {
+
+    /** whether the tap is compiled in; false in release builds */
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    /** what the tap logs */
+    public enum Mode {
+        /** nothing */
+        OFF,
+        /** one in every n samples */
+        SAMPLED,
+        /** the number of samples, their rate and the last sample, once per second */
+        SUMMARY
+    }
+
+    /** length of a summary interval, measured with the sample timestamps, in milliseconds */
+    private static final long SUMMARY_INTERVAL_MILLIS = 1000;
+
+    /** tag of the log messages */
+    private final String tag;
+
+    /** what the tap logs */
+    private final Mode mode;
+
+    /** in {@link Mode#SAMPLED} mode, log one in this many samples */
+    private final int every;
+
+    /** formats the logged samples */
+    private final SampleEncoder encoder = new SampleEncoder();
+
+    /** number of samples since the last message */
+    private int count = 0;
+
+    /** timestamp of the first sample of the current summary interval */
+    private long intervalStart;
+
+    /**
+     * Creates a tap
+     * @param tag tag of the log messages
+     * @param mode what the tap logs
+     * @param every in {@link Mode#SAMPLED} mode, log one in this many samples
+     */
+    SampleLogTap(String tag, Mode mode, int every) {
+        this.tag = tag;
+        this.mode = mode;
+        this.every = Math.max(1, every);
+    }
+
+    /**
+     * Counts a sample, logging it or a summary if due. Must only be called from a single thread.
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     */
+    public void onSample(long timestamp, float[] values, int offset) {
+        switch (mode) {
+            case SAMPLED:
+                if (count++ % every == 0) {
+                    Log.d(tag, format(timestamp, values, offset));
+                }
+                break;
+            case SUMMARY:
+                if (count == 0) {
+                    intervalStart = timestamp;
+                }
+                count++;
+                long elapsed = timestamp - intervalStart;
+                if (elapsed >= SUMMARY_INTERVAL_MILLIS) {
+                    Log.d(tag, String.format(Locale.US, "%d samples in %d ms (%.1f Hz), last: %s",
+                            count, elapsed, (count - 1) * 1000.0 / elapsed, format(timestamp, values, offset)));
+                    count = 0;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private String format(long timestamp, float[] values, int offset) {
+        int length = encoder.encode(timestamp, values, offset);
+        return new String(encoder.getBuffer(), 0, length - 1);
+    }
+}
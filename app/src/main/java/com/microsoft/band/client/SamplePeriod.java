@@ -0,0 +1,39 @@
+package com.microsoft.band.client;
+
+/**
+ * The sampling periods supported by the accelerometer and gyroscope of the Band, named like the
+ * constants of {@link com.microsoft.band.sensors.SampleRate}. Keeping our own copy lets
+ * {@link SampleSource}s which do not use the Band SDK, such as {@link SimulatedSampleSource}, be
+ * switched between the same rates.
+ *
+ * @see SampleSource#setSamplePeriod(SamplePeriod)
+ */
+enum SamplePeriod {
+    /** one sample every 16 ms, 62.5 Hz */
+    MS16(16),
+    /** one sample every 32 ms, 31.25 Hz */
+    MS32(32),
+    /** one sample every 128 ms, 7.8125 Hz */
+    MS128(128);
+
+    /** time between samples, in milliseconds */
+    private final int periodMillis;
+
+    SamplePeriod(int periodMillis) {
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * @return the time between samples, in milliseconds
+     */
+    public int getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * @return the number of samples per second
+     */
+    public double getRateHz() {
+        return 1000.0 / periodMillis;
+    }
+}
@@ -0,0 +1,32 @@
+package com.microsoft.band.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential reader of a sample log. Readers have no Android dependencies, so that recordings can
+ * be processed on a desktop machine as well.
+ *
+ * @see SampleLogConverter#open(java.io.File)
+ */
+interface SampleReader extends Closeable {
+
+    /**
+     * Advances to the next sample
+     * @return true if a sample was read, false at the end of the log
+     * @throws IOException if the log could not be read or is corrupt
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return the timestamp of the current sample
+     */
+    long getTimestamp();
+
+    /**
+     * Returns the axis values of the current sample: acceleration x/y/z, then angular velocity x/y/z.
+     * The array is reused, so its contents are only valid until the next call to {@link #next()}.
+     * @return the axis values
+     */
+    float[] getValues();
+}
@@ -0,0 +1,155 @@
+package com.microsoft.band.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer queue of accelerometer/gyroscope samples. Samples are
+ * stored in preallocated primitive slots (one timestamp and {@link SampleEncoder#VALUES_PER_SAMPLE}
+ * floats each), so publishing and draining never allocate.
+ * <p>
+ * The producer is the Band SDK callback thread, which calls {@link #offer(long, float[], int)}; it
+ * never blocks. If the buffer is full, the new sample is dropped and counted in
+ * {@link #getOverflowCount()}. The consumer is a single thread, usually a
+ * {@link SampleWriterThread}, which calls {@link #drainTo(SampleWriter, int)}.
+ * </p>
+ *
+ * @see SampleWriterThread
+ */
+class SampleRingBuffer {
+
+    /** number of sample slots, always a power of two */
+    private final int capacity;
+
+    /** mask used to map a sequence number to a slot */
+    private final int mask;
+
+    /** timestamp of the sample in each slot */
+    private final long[] timestamps;
+
+    /** axis values of the sample in each slot, {@link SampleEncoder#VALUES_PER_SAMPLE} per slot */
+    private final float[] values;
+
+    /** sequence number of the next slot to be written, only advanced by the producer */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** sequence number of the next slot to be read, only advanced by the consumer */
+    private final AtomicLong head = new AtomicLong();
+
+    /** the producer's last observed value of {@link #head}, to avoid reading it on every offer */
+    private long cachedHead;
+
+    /** largest number of samples observed in the buffer, only written by the consumer */
+    private volatile int highWaterMark;
+
+    /** number of samples dropped because the buffer was full, only written by the producer */
+    private volatile long overflowCount;
+
+    /**
+     * Creates a ring buffer
+     * @param minCapacity the minimum number of samples the buffer can hold; rounded up to a power of two
+     */
+    SampleRingBuffer(int minCapacity) {
+        if (minCapacity <= 0 || minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + minCapacity);
+        }
+        int c = Integer.highestOneBit(minCapacity);
+        capacity = c == minCapacity ? c : c << 1;
+        mask = capacity - 1;
+        timestamps = new long[capacity];
+        values = new float[capacity * SampleEncoder.VALUES_PER_SAMPLE];
+    }
+
+    /**
+     * Publishes a sample. Must only be called from the producer thread.
+     * @param timestamp the sample timestamp
+     * @param sample array holding the axis values
+     * @param offset index of the first axis value in {@code sample}
+     * @return true if the sample was queued, false if the buffer was full and the sample was dropped
+     */
+    public boolean offer(long timestamp, float[] sample, int offset) {
+        long t = tail.get();
+        if (t - cachedHead >= capacity) {
+            cachedHead = head.get();
+            if (t - cachedHead >= capacity) {
+                overflowCount++;
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        timestamps[slot] = timestamp;
+        System.arraycopy(sample, offset, values, slot * SampleEncoder.VALUES_PER_SAMPLE, SampleEncoder.VALUES_PER_SAMPLE);
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Passes queued samples to the given writer in order, releasing their slots. Must only be called
+     * from the consumer thread.
+     * @param writer destination of the samples
+     * @param maxSamples maximum number of samples to drain
+     * @return the number of samples drained
+     * @throws IOException if the writer fails; samples written before the failure are still released
+     */
+    public int drainTo(SampleWriter writer, int maxSamples) throws IOException {
+        long h = head.get();
+        long available = tail.get() - h;
+        // samples only leave the buffer here, so its size peaks just before a drain
+        if (available > highWaterMark) {
+            highWaterMark = (int) available;
+        }
+        int n = (int) Math.min(available, maxSamples);
+        int drained = 0;
+        try {
+            while (drained < n) {
+                int slot = (int) (h + drained) & mask;
+                writer.write(timestamps[slot], values, slot * SampleEncoder.VALUES_PER_SAMPLE);
+                drained++;
+            }
+        } finally {
+            if (drained > 0) {
+                head.lazySet(h + drained);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of samples currently queued
+     */
+    public int size() {
+        long h = head.get();
+        return (int) (tail.get() - h);
+    }
+
+    /**
+     * Returns the number of samples queued since the buffer was created, which is also the sequence
+     * number of the next sample to be queued. Dropped samples are not counted, so the consumer
+     * receives the sample with sequence number n as the (n + 1)th sample it drains.
+     * @return the number of samples queued so far
+     */
+    public long getPublishedCount() {
+        return tail.get();
+    }
+
+    /**
+     * @return the number of samples the buffer can hold
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the largest number of samples that have been queued at the same time
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return the number of samples dropped because the buffer was full
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+}
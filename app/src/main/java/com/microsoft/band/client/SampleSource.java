@@ -0,0 +1,50 @@
+package com.microsoft.band.client;
+
+/**
+ * A device producing accelerometer/gyroscope samples, such as a Band ({@link BandSampleSource}) or
+ * a simulation of one ({@link SimulatedSampleSource}). Separating the pipeline from the Band SDK
+ * allows the writer and processing stages to be exercised without hardware.
+ *
+ * @see SampleListener
+ */
+interface SampleSource {
+
+    /** the kinds of sources which {@link SensorService} can record from */
+    enum Type {
+        /** a paired Microsoft Band */
+        BAND,
+        /** a {@link SimulatedSampleSource} generating a {@link SimulatedSampleSource.SyntheticSignal} */
+        SYNTHETIC,
+        /** a {@link SimulatedSampleSource} replaying a recorded CSV log */
+        REPLAY
+    }
+
+    /**
+     * Starts delivering samples to the given listener. Samples are delivered on a single thread
+     * owned by the source, so the listener may act as the producer of a {@link SampleRingBuffer}.
+     * @param listener receives the samples
+     * @throws Exception if the source could not be started, e.g. a
+     *                   {@link com.microsoft.band.BandException} if the Band rejected the subscription
+     */
+    void start(SampleListener listener) throws Exception;
+
+    /**
+     * Stops delivering samples. No sample is delivered once this method has returned.
+     * @throws Exception if the source could not be stopped cleanly
+     */
+    void stop() throws Exception;
+
+    /**
+     * Changes the sampling rate of a running source, without tearing down its connection. Samples
+     * delivered after this method has returned use the new rate.
+     * @param period the new time between samples
+     * @throws Exception if the source could not be switched, e.g. a
+     *                   {@link com.microsoft.band.BandIOException} if the Band rejected the new subscription
+     */
+    void setSamplePeriod(SamplePeriod period) throws Exception;
+
+    /**
+     * @return the number of samples per second the source currently delivers
+     */
+    double getSampleRate();
+}
@@ -0,0 +1,115 @@
+package com.microsoft.band.client;
+
+import java.io.IOException;
+
+/**
+ * A processing stage of a device's samples, run by its {@link SampleWriterThread} so that no work is
+ * added to the Band callback thread. Stages are chained in front of the raw log: each stage forwards
+ * every sample to the next writer, then processes it, and forwards flushes, syncs and closes as well.
+ * The last writer of the chain may be missing, if only the output of the stages is recorded.
+ *
+ * @see DeviceRecorder
+ * @see FeatureWriter
+ * @see SpectralWriter
+ */
+abstract class SampleStage implements SampleWriter {
+
+    /** the next writer of the chain, or null if this is the last */
+    private SampleWriter next;
+
+    /**
+     * Sets the writer to which the samples are forwarded. Must be called before the first sample.
+     * @param next the next writer of the chain, or null if this is the last
+     */
+    void setNext(SampleWriter next) {
+        this.next = next;
+    }
+
+    @Override
+    public final void write(long timestamp, float[] values, int offset) throws IOException {
+        if (next != null) {
+            next.write(timestamp, values, offset);
+        }
+        process(timestamp, values, offset);
+    }
+
+    @Override
+    public final void flush() throws IOException {
+        if (next != null) {
+            next.flush();
+        }
+        flushOutput();
+    }
+
+    @Override
+    public final void sync() throws IOException {
+        if (next != null) {
+            next.sync();
+        }
+        syncOutput();
+    }
+
+    @Override
+    public final void close() throws IOException {
+        try {
+            if (next != null) {
+                next.close();
+            }
+        } finally {
+            closeOutput();
+        }
+    }
+
+    /**
+     * Announces that samples are taken at a new rate, starting with the given sample. May be called
+     * from any thread, typically the one which switched the rate of the source. Does nothing unless
+     * the processing of the stage depends on the rate.
+     * @param rateHz the new number of samples per second
+     * @param fromSample number of samples received by the chain at the old rate
+     */
+    public void setSampleRate(double rateHz, long fromSample) {
+    }
+
+    /**
+     * Processes a sample, after it has been forwarded
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     * @throws IOException if the output of the stage could not be written
+     */
+    protected abstract void process(long timestamp, float[] values, int offset) throws IOException;
+
+    /**
+     * Passes the buffered output of the stage to the operating system
+     * @throws IOException if the output could not be written
+     */
+    protected abstract void flushOutput() throws IOException;
+
+    /**
+     * Forces the output of the stage to the storage device
+     * @throws IOException if the output could not be written
+     */
+    protected abstract void syncOutput() throws IOException;
+
+    /**
+     * Closes the output of the stage
+     * @throws IOException if the output could not be closed
+     */
+    protected abstract void closeOutput() throws IOException;
+
+    /**
+     * @return the name under which the output of the stage is listed in the {@link SessionManifest}
+     */
+    public abstract String getStreamName();
+
+    /**
+     * @return the file name of the output of the stage, relative to its directory, or null if the
+     *         stage writes no file
+     */
+    public abstract String getFileName();
+
+    /**
+     * @return the number of records, e.g. feature windows, output so far
+     */
+    public abstract long getRecordCount();
+}
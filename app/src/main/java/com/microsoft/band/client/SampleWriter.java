@@ -0,0 +1,41 @@
+package com.microsoft.band.client;
+
+import java.io.IOException;
+
+/**
+ * Destination for accelerometer/gyroscope samples. Each sample consists of a timestamp followed by
+ * {@link SampleEncoder#VALUES_PER_SAMPLE} values: acceleration x/y/z, then angular velocity x/y/z.
+ * Implementations are not required to be thread-safe; a writer is owned by a single thread.
+ *
+ * @see SampleWriterThread
+ */
+interface SampleWriter {
+
+    /**
+     * Writes a single sample
+     * @param timestamp the sample timestamp
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     * @throws IOException if the sample could not be written
+     */
+    void write(long timestamp, float[] values, int offset) throws IOException;
+
+    /**
+     * Flushes any buffered samples to the underlying storage
+     * @throws IOException if the samples could not be flushed
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes any buffered samples and forces them to the storage device, so that they survive a
+     * power loss. Writers which do not own a file only flush.
+     * @throws IOException if the samples could not be synchronized
+     */
+    void sync() throws IOException;
+
+    /**
+     * Flushes and closes the writer, releasing any underlying resources
+     * @throws IOException if the writer could not be closed
+     */
+    void close() throws IOException;
+}
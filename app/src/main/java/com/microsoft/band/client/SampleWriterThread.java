@@ -0,0 +1,252 @@
+package com.microsoft.band.client;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread that drains a {@link SampleRingBuffer} into a {@link SampleWriter}, so that
+ * storage stalls never block the Band SDK callback thread. When the buffer is empty, the thread
+ * sleeps for a short interval instead of spinning. Written samples are flushed and synchronized
+ * according to a {@link FlushPolicy}, and the latency of each flush and sync is recorded. Calling
+ * {@link #shutdown()} writes any remaining samples, closes the writer and waits for the thread to
+ * finish.
+ * <p>
+ * The first error writing, flushing or closing the log, e.g. because the storage is full or was
+ * removed, stops the draining, since the log cannot be trusted anymore. It is kept for
+ * {@link #getError()} and reported to the {@link Listener}, so that the recording can be stopped
+ * instead of silently counting every later sample as an overflow of the buffer.
+ * </p>
+ *
+ * @see SensorService
+ */
+class SampleWriterThread extends Thread {
+
+    /** receives the failure of the log */
+    interface Listener {
+
+        /**
+         * Called on the writer thread when the log could not be written, after which no more
+         * samples are written
+         * @param device short identifier of the device
+         * @param error the error raised by the writer
+         */
+        void onWriteFailed(String device, IOException error);
+    }
+
+    /** tag used for debugging purposes */
+    private static final String TAG = SampleWriterThread.class.getName();
+
+    /** maximum number of samples written per drain, so that shutdown requests are noticed promptly */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /** time to sleep when the buffer is empty */
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** short identifier of the device */
+    private final String device;
+
+    /** the buffer being drained */
+    private final SampleRingBuffer buffer;
+
+    /** the destination of the samples */
+    private final SampleWriter writer;
+
+    /** when to flush and sync the writer */
+    private final FlushPolicy policy;
+
+    /** maximum time between flushes, in nanoseconds */
+    private final long flushIntervalNanos;
+
+    /** number of samples written since the last flush */
+    private int unflushedSamples = 0;
+
+    /** time of the last flush, from {@link System#nanoTime()} */
+    private long lastFlushNanos;
+
+    /** number of flushes performed, and how many of them were followed by a sync */
+    private volatile long flushCount, syncCount;
+
+    /** total and maximum time spent in flushes, excluding syncs, in nanoseconds */
+    private volatile long flushNanos, maxFlushNanos;
+
+    /** total and maximum time spent in syncs, in nanoseconds */
+    private volatile long syncNanos, maxSyncNanos;
+
+    /** cleared to request that the thread stop */
+    private volatile boolean running = true;
+
+    /** receives the failure of the log, or null */
+    private Listener listener;
+
+    /** the first error raised by the writer, or null */
+    private volatile IOException error;
+
+    /**
+     * Creates a writer thread; call {@link #start()} to begin draining
+     * @param device short identifier of the device
+     * @param buffer the buffer being drained
+     * @param writer the destination of the samples; closed when the thread stops
+     * @param policy when to flush and sync the writer
+     */
+    SampleWriterThread(String device, SampleRingBuffer buffer, SampleWriter writer, FlushPolicy policy) {
+        super("SampleWriter-" + device);
+        this.device = device;
+        this.buffer = buffer;
+        this.writer = writer;
+        this.policy = policy;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(policy.getFlushIntervalMillis());
+    }
+
+    /**
+     * Reports the failure of the log to the given listener. Must be called before {@link #start()}.
+     * @param listener receives the failure, on the writer thread
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        lastFlushNanos = System.nanoTime();
+        try {
+            while (running) {
+                int drained = buffer.drainTo(writer, MAX_BATCH_SIZE);
+                unflushedSamples += drained;
+                if (unflushedSamples > 0) {
+                    long now = System.nanoTime();
+                    if (unflushedSamples >= policy.getFlushSamples()
+                            || now - lastFlushNanos >= flushIntervalNanos) {
+                        flush(now);
+                    }
+                }
+                if (drained == 0) {
+                    LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+                }
+            }
+            while (buffer.drainTo(writer, MAX_BATCH_SIZE) > 0) {
+                // write whatever was queued before the shutdown request
+            }
+        } catch (IOException e) {
+            Log.e(TAG, device + ": failed to write samples", e);
+            fail(e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, device + ": failed to close writer", e);
+                if (error == null) {
+                    fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the failure of the log and reports it
+     * @param e the error raised by the writer
+     */
+    private void fail(IOException e) {
+        error = e;
+        if (listener != null) {
+            listener.onWriteFailed(device, e);
+        }
+    }
+
+    /**
+     * Flushes the writer, and syncs it if the policy requires, recording the time taken
+     * @param start the current time, from {@link System#nanoTime()}
+     */
+    private void flush(long start) throws IOException {
+        writer.flush();
+        long flushed = System.nanoTime();
+        long elapsed = flushed - start;
+        flushNanos += elapsed;
+        if (elapsed > maxFlushNanos) {
+            maxFlushNanos = elapsed;
+        }
+        flushCount++;
+        if (policy.getSyncFlushes() > 0 && flushCount % policy.getSyncFlushes() == 0) {
+            writer.sync();
+            long synced = System.nanoTime();
+            elapsed = synced - flushed;
+            syncNanos += elapsed;
+            if (elapsed > maxSyncNanos) {
+                maxSyncNanos = elapsed;
+            }
+            syncCount++;
+            flushed = synced;
+        }
+        unflushedSamples = 0;
+        lastFlushNanos = flushed;
+    }
+
+    /**
+     * @return the first error raised by the writer, or null if the log was written successfully so far
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return the number of flushes performed so far
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return the mean time spent in a flush, in microseconds
+     */
+    public long getMeanFlushMicros() {
+        long count = flushCount;
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(flushNanos / count);
+    }
+
+    /**
+     * @return the longest time spent in a flush, in microseconds
+     */
+    public long getMaxFlushMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxFlushNanos);
+    }
+
+    /**
+     * @return the number of syncs performed so far
+     */
+    public long getSyncCount() {
+        return syncCount;
+    }
+
+    /**
+     * @return the mean time spent in a sync, in microseconds
+     */
+    public long getMeanSyncMicros() {
+        long count = syncCount;
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(syncNanos / count);
+    }
+
+    /**
+     * @return the longest time spent in a sync, in microseconds
+     */
+    public long getMaxSyncMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxSyncNanos);
+    }
+
+    /**
+     * Stops the thread after the remaining samples have been written and the writer has been closed.
+     * Blocks until the thread has finished.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
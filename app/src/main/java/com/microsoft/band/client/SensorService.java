@@ -1,20 +1,18 @@
 package com.microsoft.band.client;
 
 import android.app.Notification;
+import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
-import android.os.RemoteException;
 import android.support.v4.app.NotificationCompat;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.microsoft.band.BandClient;
@@ -22,51 +20,172 @@ import com.microsoft.band.BandClientManager;
 import com.microsoft.band.BandException;
 import com.microsoft.band.BandIOException;
 import com.microsoft.band.BandInfo;
+import com.microsoft.band.BandPendingResult;
 import com.microsoft.band.ConnectionState;
-import com.microsoft.band.sensors.BandAccelerometerEventListener;
-import com.microsoft.band.sensors.BandGyroscopeEvent;
-import com.microsoft.band.sensors.BandGyroscopeEventListener;
-import com.microsoft.band.sensors.SampleRate;
 
-import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * Created by snoran on 11/18/15.
  * <p>
  * The SensorService is responsible for starting and stopping the sensors on the Band and receiving
  * the sensor information periodically. It is a foreground service, so that the user can close the
- * application on the phone and continue to receive data from the wearable device. Because the
- * {@link BandGyroscopeEvent} also receives accelerometer readings, we only need to register a
- * {@link BandGyroscopeEventListener} and no {@link BandAccelerometerEventListener}. This should
+ * application on the phone and continue to receive data from the wearable device. This should
  * be compatible with both the Microsoft Band and Microsoft Band 2.
  * </p>
+ * <p>
+ * Starting and stopping never block the main thread: the recording session goes through the states
+ * of a {@link SessionStateMachine} on a single background thread, connecting the devices, recording,
+ * stopping their sources, then flushing the logs, and start and stop requests only set its goal, so
+ * that repeated requests are harmless. The service stops itself once the logs are closed.
+ * </p>
+ * <p>
+ * All paired Bands are connected concurrently, and each is recorded by its own
+ * {@link DeviceRecorder} into its own log, named after the device; a {@link SessionManifest} ties the
+ * logs of a session together. Samples are received from a {@link SampleSource}: normally a
+ * {@link BandSampleSource}, or {@link SimulatedSampleSource}s if the start intent requests them with
+ * {@link Constants.KEY#SAMPLE_SOURCE}, which allows recording without hardware. The low-rate
+ * {@link SensorStream}s of each Band are recorded by a separate {@link StreamRecorder}, so that they
+ * never slow down the accelerometer/gyroscope path.
+ * </p>
+ * <p>
+ * The accelerometer/gyroscope sampling rate is chosen with {@link Constants.KEY#SAMPLE_RATE} in the
+ * start intent, and can be switched while recording by sending
+ * {@link Constants.MESSAGE#SET_SAMPLE_RATE}; the Bands stay connected, and their logs start a new
+ * segment tagged with the new rate. With {@link Constants.KEY#ADAPTIVE_RATE}, each device instead
+ * steps between a high and a low rate by itself, depending on whether the subject is moving (see
+ * {@link AdaptiveRatePolicy}). Every rate change is recorded in the session's {@link EventLog}.
+ * </p>
+ * <p>
+ * With {@link Constants.KEY#EXTRACT_FEATURES}, windowed features of the samples are computed on the
+ * writer thread and recorded alongside the raw samples, or instead of them if
+ * {@link Constants.KEY#RAW_SAMPLES} is false (see {@link FeatureExtractor}). Likewise,
+ * {@link Constants.KEY#SPECTRAL_SIZE} records the power of each axis in frequency bands and its
+ * dominant frequency (see {@link SpectralAnalyzer}), and {@link Constants.KEY#RESAMPLE_RATE} records
+ * the samples resampled onto a uniform grid at that rate (see {@link Resampler}).
+ * </p>
+ * <p>
+ * {@link Constants.KEY#DETECTORS} runs streaming {@link GestureDetector}s on the samples of each
+ * device, on their own thread; each detected gesture is sent to the clients as a
+ * {@link Constants.MESSAGE#GESTURE} message as soon as it is detected, and recorded in the
+ * {@link EventLog}.
+ * </p>
+ * <p>
+ * Clients which register with {@link Constants.MESSAGE#REGISTER_PREVIEW} receive the samples of each
+ * device in {@link Constants.MESSAGE#SAMPLES} batches, at most as often as they ask (see
+ * {@link PreviewPublisher}). Clients which need every sample at a low cost can instead read the
+ * samples from shared memory, if the start intent sets {@link Constants.KEY#SHARED_MEMORY} (see
+ * {@link SharedRingPublisher}).
+ * </p>
+ * <p>
+ * Each Band is watched by a {@link ConnectionSupervisor} while it records: if it disconnects, or
+ * stops sending samples, it is reconnected with exponential backoff and its listeners are registered
+ * again. Every outage is reported to the clients and recorded in the {@link EventLog}, so that the
+ * gaps in the logs are explicit.
+ * </p>
  *
  * @see Service#startForeground(int, Notification)
  * @see BandClient
- * @see BandGyroscopeEventListener
+ * @see SampleSource
  * @see FileUtil
  */
-public class SensorService extends Service implements BandGyroscopeEventListener {
+public class SensorService extends Service {
 
     /** used for debugging purposes */
     private static final String TAG = SensorService.class.getName();
 
-    /** The object which receives sensor data from the Microsoft Band */
-    private BandClient client = null;
+    /** The clients of the connected Microsoft Bands, only non-null while running */
+    private volatile List<BandClient> bandClients = null;
 
     /** Name of the file to which to write the accelerometer data */
     private static final String FILENAME = "sensor_data";
 
-    /** Buffered writer used to log the accelerometer data */
-    private final BufferedWriter writer = FileUtil.getFileWriter(FILENAME);
+    /** Maximum time spanned by one log segment */
+    private static final long SEGMENT_DURATION_MILLIS = 10 * 60 * 1000;
+
+    /** Maximum number of samples in one log segment, in case of irregular timestamps */
+    private static final int SEGMENT_MAX_SAMPLES = 64 * 1024;
+
+    /** Number of samples that can be queued for writing per device, about one minute of data at 62 Hz */
+    private static final int SAMPLE_BUFFER_CAPACITY = 4096;
+
+    /** Duration of a feature window if the start intent does not specify one */
+    private static final long DEFAULT_FEATURE_WINDOW_MILLIS = 2000;
+
+    /** Number of samples per spectral window if the start intent requests an invalid size, about 2 s at 62 Hz */
+    private static final int DEFAULT_SPECTRAL_SIZE = 128;
+
+    /** Number of samples that can be queued for gesture detection per device, about 16 s of data at 62 Hz */
+    private static final int DETECTOR_BUFFER_CAPACITY = 1024;
+
+    /** Dynamic acceleration above which the threshold detector fires, if the start intent does not specify one */
+    private static final double DEFAULT_THRESHOLD_G = 1.0;
+
+    /** Angular velocity above which the peak detector follows a peak, if the start intent does not specify one */
+    private static final double DEFAULT_PEAK_DPS = 300;
+
+    /** Mean distance per template value of a DTW match, if the start intent does not specify one */
+    private static final double DEFAULT_DTW_THRESHOLD_G = 0.15;
+
+    /** Minimum time between two gestures of the threshold and peak detectors */
+    private static final long DETECTOR_REFRACTORY_MILLIS = 500;
+
+    /** Drop of the angular velocity below its maximum which confirms a peak */
+    private static final double PEAK_HYSTERESIS_DPS = 60;
+
+    /** Maximum delay of a peak or DTW detection after the end of the gesture, a few samples at 62 Hz */
+    private static final long DETECTOR_MAX_DELAY_MILLIS = 150;
+
+    /** Time between two updates of the notification's gap and jitter statistics */
+    private static final long NOTIFICATION_INTERVAL_MILLIS = 5000;
+
+    /** Number of input periods across which resampled values are interpolated, if the start intent does not specify it */
+    private static final int RESAMPLE_GAP_PERIODS = 4;
+
+    /** Number of samples per debug log message in {@link SampleLogTap.Mode#SAMPLED} mode, about one per second */
+    private static final int DEFAULT_LOG_EVERY = 62;
+
+    /** The recording pipeline of each device, only non-null while running */
+    private volatile List<DeviceRecorder> recorders = null;
+
+    /** The recorder of each Band's low-rate sensor streams, only non-null while running */
+    private volatile List<StreamRecorder> streamRecorders = null;
+
+    /** The supervisor of each Band's connection, only non-null while running */
+    private volatile List<ConnectionSupervisor> supervisors = null;
+
+    /** The log of the session's events, only non-null while running */
+    private volatile EventLog eventLog = null;
+
+    /** Live preview of the samples for the clients which request it */
+    private final PreviewPublisher preview = new PreviewPublisher(PreviewPublisher.DEFAULT_INTERVAL_MILLIS);
+
+    /** Shared-memory rings of the samples for the clients, only non-null while running with {@link Constants.KEY#SHARED_MEMORY} */
+    private volatile SharedRingPublisher sharedRings = null;
 
     /** Messenger used by clients */
     private final Messenger mMessenger = new Messenger(new IncomingHandler(this));
 
-    /** List of bound clients/activities to this service */
-    private ArrayList<Messenger> mClients = new ArrayList<>();
+    /** Delivers messages to the bound clients/activities of this service */
+    private final StatusBus statusBus = new StatusBus();
+
+    /** The lifecycle of the recording session, whose transitions run on a single background thread */
+    private final SessionStateMachine sessionStateMachine = new SessionStateMachine(new SessionTransitions());
+
+    /** Runs the end of the session's transitions which concern the service itself on the main thread */
+    private final Handler mainHandler = new Handler();
+
+    /** Updates the notification with the gap and jitter statistics while recording */
+    private final TimingNotifier timingNotifier = new TimingNotifier();
 
     /** indicates whether the sensor service is running or not */
     private static boolean isRunning = false;
@@ -85,10 +204,32 @@ public class SensorService extends Service implements BandGyroscopeEventListener
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case Constants.MESSAGE.REGISTER_CLIENT:
-                    mService.get().mClients.add(msg.replyTo);
+                    mService.get().statusBus.addClient(msg.replyTo);
+                    SharedRingPublisher rings = mService.get().sharedRings;
+                    if (rings != null) {
+                        rings.addClient(msg.replyTo);
+                    }
                     break;
                 case Constants.MESSAGE.UNREGISTER_CLIENT:
-                    mService.get().mClients.remove(msg.replyTo);
+                    mService.get().statusBus.removeClient(msg.replyTo);
+                    mService.get().preview.removeClient(msg.replyTo);
+                    rings = mService.get().sharedRings;
+                    if (rings != null) {
+                        rings.removeClient(msg.replyTo);
+                    }
+                    break;
+                case Constants.MESSAGE.REGISTER_PREVIEW:
+                    mService.get().preview.addClient(msg.replyTo, msg.arg1);
+                    break;
+                case Constants.MESSAGE.UNREGISTER_PREVIEW:
+                    mService.get().preview.removeClient(msg.replyTo);
+                    break;
+                case Constants.MESSAGE.SET_SAMPLE_RATE:
+                    SamplePeriod period = parseSamplePeriod(msg.getData().getString(Constants.KEY.SAMPLE_RATE));
+                    if (period != null) {
+                        SensorService service = mService.get();
+                        service.sessionStateMachine.getExecutor().execute(service.new SampleRateSwitch(period));
+                    }
                     break;
                 default:
                     super.handleMessage(msg);
@@ -97,23 +238,38 @@ public class SensorService extends Service implements BandGyroscopeEventListener
     }
 
     /**
-     * Sends a status message to all clients, removing any inactive clients if necessary.
+     * Sends a status message to all clients, asynchronously; repeated statuses are coalesced.
      * @param status the status message
      */
     private void sendStatusToClients(String status) {
-        for (int i=mClients.size()-1; i>=0; i--) {
-            try {
-                // Send message value
-                Bundle b = new Bundle();
-                b.putString(Constants.KEY.STATUS, status);
-                Message msg = Message.obtain(null, Constants.MESSAGE.STATUS);
-                msg.setData(b);
-                mClients.get(i).send(msg);
-            } catch (RemoteException e) {
-                // The client is dead. Remove it from the list; we are going through the list from back to front so this is safe to do inside the loop.
-                mClients.remove(i);
+        statusBus.postStatus(status);
+    }
+
+    /**
+     * Sends a message to all clients, asynchronously.
+     * @param what the message code, one of {@link Constants.MESSAGE}
+     * @param data the message values
+     */
+    private void sendToClients(int what, Bundle data) {
+        statusBus.post(what, data);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        statusBus.start();
+    }
+
+    @Override
+    public void onDestroy() {
+        // the session is flushed in the background; the clients are told until the end
+        sessionStateMachine.shutdown(new Runnable() {
+            @Override
+            public void run() {
+                statusBus.shutdown();
             }
-        }
+        });
+        super.onDestroy();
     }
 
     @Override
@@ -129,148 +285,1060 @@ public class SensorService extends Service implements BandGyroscopeEventListener
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent.getAction().equals(Constants.ACTION.START_FOREGROUND)){
             isRunning = true;
-            // create option to stop the service from the notification
-            Intent stopIntent = new Intent(this, SensorService.class);
-            stopIntent.setAction(Constants.ACTION.STOP_FOREGROUND);
-            PendingIntent pendingIntent = PendingIntent.getService(this, 0, stopIntent, 0);
-
-            Bitmap icon = BitmapFactory.decodeResource(getResources(), R.drawable.ic_launcher);
-
             // notify the user that the foreground service has started
-            Notification notification = new NotificationCompat.Builder(this)
-                    .setContentTitle(getString(R.string.app_name))
-                    .setTicker(getString(R.string.app_name))
-                    .setContentText(getString(R.string.msg_service_started))
-                    .setSmallIcon(R.drawable.ic_launcher)
-                    .setLargeIcon(Bitmap.createScaledBitmap(icon, 128, 128, false))
-                    .setOngoing(true)
-                    .setVibrate(new long[]{0, 50, 150, 200})
-                    .setPriority(Notification.PRIORITY_MAX)
-                    .addAction(android.R.drawable.ic_delete, getString(R.string.stop_service), pendingIntent).build();
-
-            startForeground(Constants.NOTIFICATION_ID.FOREGROUND_SERVICE, notification);
-
-            startSensors();
+            startForeground(Constants.NOTIFICATION_ID.FOREGROUND_SERVICE,
+                    buildNotification(getString(R.string.msg_service_started), null, true));
+
+            startSensors(intent);
         } else if (intent.getAction().equals(Constants.ACTION.STOP_FOREGROUND)) {
             isRunning = false;
-            unregisterSensors();
-            disconnectBand();
-            if (writer != null)
-                FileUtil.closeWriter(writer);
-            stopForeground(true);
-            stopSelf();
+            // the service stops itself once the session is flushed, see SessionTransitions
+            sessionStateMachine.requestStop();
         }
 
         return START_STICKY;
     }
 
     /**
-     * asynchronous task for connecting to the Microsoft Band accelerometer and gyroscope sensors.
-     * Errors may arise if the Band does not support the Band SDK version or the Microsoft Health
-     * application is not installed on the mobile device.
+     * Builds the notification of the foreground service
+     * @param text the short text of the notification
+     * @param details the expanded text of the notification, or null
+     * @param alert whether the notification vibrates, which only the first one should
+     * @return the notification
+     */
+    private Notification buildNotification(String text, String details, boolean alert) {
+        // create option to stop the service from the notification
+        Intent stopIntent = new Intent(this, SensorService.class);
+        stopIntent.setAction(Constants.ACTION.STOP_FOREGROUND);
+        PendingIntent pendingIntent = PendingIntent.getService(this, 0, stopIntent, 0);
+
+        Bitmap icon = BitmapFactory.decodeResource(getResources(), R.drawable.ic_launcher);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setContentTitle(getString(R.string.app_name))
+                .setTicker(getString(R.string.app_name))
+                .setContentText(text)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setLargeIcon(Bitmap.createScaledBitmap(icon, 128, 128, false))
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(Notification.PRIORITY_MAX)
+                .addAction(android.R.drawable.ic_delete, getString(R.string.stop_service), pendingIntent);
+        if (alert) {
+            builder.setVibrate(new long[]{0, 50, 150, 200});
+        }
+        if (details != null) {
+            builder.setStyle(new NotificationCompat.BigTextStyle().bigText(details));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Shows the live gap and jitter statistics of each device in the notification, every
+     * {@link #NOTIFICATION_INTERVAL_MILLIS} while recording. Runs on the main thread.
+     */
+    private class TimingNotifier implements Runnable {
+
+        @Override
+        public void run() {
+            List<DeviceRecorder> current = recorders;
+            if (current == null || current.isEmpty()) {
+                return;
+            }
+            long gaps = 0, missing = 0;
+            StringBuilder details = new StringBuilder();
+            for (DeviceRecorder recorder : current) {
+                TimingAnalyzer timing = recorder.getTimingAnalyzer();
+                gaps += timing.getGapCount();
+                missing += timing.getMissingCount();
+                if (details.length() > 0) {
+                    details.append('\n');
+                }
+                details.append(getString(R.string.status_device, recorder.getName(),
+                        getString(R.string.notification_timing, timing.getGapCount(), timing.getMissingCount(),
+                                timing.getJitterPercentile(0.5), timing.getJitterPercentile(0.99),
+                                timing.getMaxJitterMillis())));
+            }
+            NotificationManager notifications = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            notifications.notify(Constants.NOTIFICATION_ID.FOREGROUND_SERVICE, buildNotification(
+                    getString(R.string.notification_recording, current.size(), gaps, missing),
+                    details.toString(), false));
+            mainHandler.postDelayed(this, NOTIFICATION_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * connects to the accelerometer and gyroscope sensors of all paired Microsoft Bands, or creates
+     * simulated devices, and starts a recorder for each device. Errors may arise if the Band does not
+     * support the Band SDK version or the Microsoft Health application is not installed on the mobile
+     * device. Runs on the session thread, in state {@link SessionStateMachine.State#CONNECTING}.
+     * <p>
+     * The recorders, the shared rings and the event log are published to their fields as soon as
+     * they are created, so that if the start fails part way, whatever was already started is torn
+     * down by {@link #unregisterSensors()} and {@link #flushLogs()} like a stopped session.
+     * </p>
      **
+     * @param intent the start intent
+     * @return true if at least one device is being recorded
      * @see com.microsoft.band.BandErrorType#UNSUPPORTED_SDK_VERSION_ERROR
      * @see com.microsoft.band.BandErrorType#SERVICE_ERROR
      * @see BandClient#getSensorManager()
      * @see com.microsoft.band.sensors.BandSensorManager
      */
-    private class SensorSubscriptionTask extends AsyncTask<Void, Void, Void> {
+    private boolean startRecording(Intent intent) {
+        SessionManifest manifest = null;
+        try {
+            SampleSource.Type type = getSourceType(intent);
+            SamplePeriod period = getSamplePeriod(intent);
+            List<DeviceInfo> devices = type == SampleSource.Type.BAND
+                    ? connectBands(period) : createSimulatedDevices(type, period, intent);
+            if (devices.isEmpty()) {
+                return false;
+            }
+
+            SampleFormat format = getSampleFormat(intent);
+            boolean memoryMapped = intent.getBooleanExtra(Constants.KEY.MEMORY_MAPPED, false);
+            int deflateLevel = getDeflateLevel(intent);
+            FlushPolicy policy = getFlushPolicy(intent);
+            SampleLogTap.Mode logMode = getLogMode(intent);
+            int logEvery = intent.getIntExtra(Constants.KEY.LOG_EVERY, DEFAULT_LOG_EVERY);
+
+            Set<SensorStream> streams = getSensorStreams(intent);
+            AdaptiveRatePolicy adaptivePolicy = getAdaptiveRatePolicy(intent);
+            GestureReporter gestureReporter = new GestureReporter();
+            SharedRingPublisher rings = null;
+            if (intent.getBooleanExtra(Constants.KEY.SHARED_MEMORY, false)) {
+                rings = new SharedRingPublisher(getCacheDir());
+                sharedRings = rings;
+                for (Messenger client : statusBus.getClients()) {
+                    rings.addClient(client);
+                }
+            }
+            long featureWindow = 0, featureHop = 0;
+            if (intent.getBooleanExtra(Constants.KEY.EXTRACT_FEATURES, false)) {
+                featureWindow = intent.getLongExtra(Constants.KEY.FEATURE_WINDOW_MILLIS, DEFAULT_FEATURE_WINDOW_MILLIS);
+                featureHop = intent.getLongExtra(Constants.KEY.FEATURE_HOP_MILLIS, featureWindow / 2);
+                if (featureWindow <= 0 || featureHop <= 0 || featureHop > featureWindow) {
+                    Log.w(TAG, "Invalid feature window " + featureWindow + " ms every " + featureHop + " ms, using "
+                            + DEFAULT_FEATURE_WINDOW_MILLIS + " ms with 50% overlap");
+                    featureWindow = DEFAULT_FEATURE_WINDOW_MILLIS;
+                    featureHop = featureWindow / 2;
+                }
+            }
+            int spectralSize = intent.getIntExtra(Constants.KEY.SPECTRAL_SIZE, 0);
+            int spectralHop = 0;
+            if (spectralSize != 0) {
+                if (spectralSize < 4 || Integer.bitCount(spectralSize) != 1) {
+                    Log.w(TAG, "Invalid spectral window of " + spectralSize + " samples, using " + DEFAULT_SPECTRAL_SIZE);
+                    spectralSize = DEFAULT_SPECTRAL_SIZE;
+                }
+                spectralHop = intent.getIntExtra(Constants.KEY.SPECTRAL_HOP, spectralSize / 2);
+                if (spectralHop <= 0 || spectralHop > spectralSize) {
+                    Log.w(TAG, "Invalid spectral hop of " + spectralHop + " samples, using " + spectralSize / 2);
+                    spectralHop = spectralSize / 2;
+                }
+            }
+            double[] bandEdges = getBandEdges(intent);
+            double resampleRate = intent.getDoubleExtra(Constants.KEY.RESAMPLE_RATE, 0);
+            if (resampleRate < 0 || Double.isNaN(resampleRate) || Double.isInfinite(resampleRate)) {
+                Log.w(TAG, "Invalid resampling rate of " + resampleRate + " Hz, not resampling");
+                resampleRate = 0;
+            }
+            Resampler.Interpolation interpolation = getInterpolation(intent);
+            // a few periods at the lowest rate the devices may switch to
+            long longestPeriod = period.getPeriodMillis();
+            if (adaptivePolicy != null) {
+                longestPeriod = Math.max(longestPeriod, adaptivePolicy.getStillPeriod().getPeriodMillis());
+            }
+            long maxGap = intent.getLongExtra(Constants.KEY.RESAMPLE_MAX_GAP_MILLIS,
+                    RESAMPLE_GAP_PERIODS * longestPeriod);
+            // raw samples can only be left out if features or resampled samples are recorded instead
+            boolean recordSamples = (featureWindow == 0 && spectralSize == 0 && resampleRate == 0)
+                    || intent.getBooleanExtra(Constants.KEY.RAW_SAMPLES, true);
+
+            String session = new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.US).format(new Date());
+            manifest = new SessionManifest(FileUtil.getStorageLocation(), FILENAME, session);
+            EventLog events = new EventLog(FileUtil.getStorageLocation(), FILENAME, session);
+            eventLog = events;
+            List<DeviceRecorder> started = new ArrayList<>();
+            recorders = started;
+            List<StreamRecorder> startedStreams = new ArrayList<>();
+            streamRecorders = startedStreams;
+            List<ConnectionSupervisor> startedSupervisors = new ArrayList<>();
+            OutageReporter outageReporter = new OutageReporter();
+            WriteFailureReporter writeFailureReporter = new WriteFailureReporter();
+            for (DeviceInfo device : devices) {
+                RollingSampleWriter writer = null;
+                if (recordSamples) {
+                    writer = FileUtil.getRollingSampleWriter(FILENAME + "_" + device.id, session,
+                            format, memoryMapped, deflateLevel, SEGMENT_MAX_SAMPLES, SEGMENT_DURATION_MILLIS);
+                    if (writer == null) {
+                        sendDeviceStatus(device.id, getString(R.string.err_storage));
+                        continue;
+                    }
+                }
+                List<SampleStage> stages = new ArrayList<>();
+                if (featureWindow > 0) {
+                    stages.add(FileUtil.getFeatureWriter(FILENAME + "_" + device.id, session,
+                            featureWindow, featureHop));
+                }
+                if (spectralSize > 0) {
+                    stages.add(FileUtil.getSpectralWriter(FILENAME + "_" + device.id, session,
+                            spectralSize, spectralHop, bandEdges));
+                }
+                if (resampleRate > 0) {
+                    stages.add(FileUtil.getResampleWriter(FILENAME + "_" + device.id, session,
+                            resampleRate, interpolation, maxGap));
+                }
+                if (stages.contains(null)) {
+                    sendDeviceStatus(device.id, getString(R.string.err_storage));
+                    for (SampleStage created : stages) {
+                        if (created != null) {
+                            created.close();
+                        }
+                    }
+                    if (writer != null) {
+                        writer.close();
+                    }
+                    continue;
+                }
+                SampleLogTap logTap = SampleLogTap.ENABLED
+                        ? new SampleLogTap(TAG + "/" + device.id, logMode, logEvery) : null;
+                DeviceRecorder recorder = new DeviceRecorder(device.id, device.source, writer, stages, policy,
+                        SAMPLE_BUFFER_CAPACITY, logTap);
+                recorder.setEventLog(events);
+                recorder.setWriteFailureListener(writeFailureReporter);
+                recorder.setPreview(preview.addDevice(device.id));
+                if (rings != null) {
+                    try {
+                        recorder.setSharedRing(rings.addDevice(device.id));
+                    } catch (IOException e) {
+                        Log.e(TAG, device.id + ": failed to create the shared sample ring", e);
+                    }
+                }
+                recorder.setDetectors(createDetectors(intent), DETECTOR_BUFFER_CAPACITY, gestureReporter);
+                if (adaptivePolicy != null) {
+                    recorder.setRateController(new AdaptiveRateController(adaptivePolicy, period),
+                            sessionStateMachine.getExecutor());
+                }
+                try {
+                    recorder.start();
+                } catch (Exception e) {
+                    sendStatusToClients(getString(R.string.status_device, device.id, getErrorMessage(e)));
+                    // the device is not recorded, so neither previewed nor offered to the clients
+                    preview.removeDevice(device.id);
+                    if (rings != null) {
+                        rings.removeDevice(device.id);
+                    }
+                    continue;
+                }
+                started.add(recorder);
+                if (writer != null) {
+                    manifest.addStream(device.id, SessionManifest.IMU_STREAM, type, device.name, device.address,
+                            writer.getManifestName());
+                }
+                for (SampleStage stage : stages) {
+                    if (stage.getFileName() != null) {
+                        manifest.addStream(device.id, stage.getStreamName(), type, device.name,
+                                device.address, stage.getFileName());
+                    }
+                }
+
+                StreamRecorder streamRecorder = null;
+                if (device.client != null && !streams.isEmpty()) {
+                    streamRecorder = new StreamRecorder(device.id,
+                            new BandStreamSource(device.client, streams), FileUtil.getStorageLocation(),
+                            FILENAME + "_" + device.id, session, streams, SEGMENT_DURATION_MILLIS);
+                    streamRecorder.setWriteFailureListener(writeFailureReporter);
+                    startedStreams.add(streamRecorder);
+                    Set<SensorStream> subscribed = streamRecorder.start();
+                    for (SensorStream stream : streams) {
+                        if (subscribed.contains(stream)) {
+                            manifest.addStream(device.id, stream.getFileName(), type, device.name, device.address,
+                                    streamRecorder.getWriter(stream).getManifestName());
+                        } else {
+                            sendStatusToClients(getString(R.string.status_device, device.id,
+                                    getString(R.string.status_stream_unavailable, stream.getFileName())));
+                        }
+                    }
+                }
+                if (device.client != null) {
+                    startedSupervisors.add(new ConnectionSupervisor(device.id, new BandLink(device.client,
+                            recorder, (BandSampleSource) device.source, streamRecorder), outageReporter));
+                }
+            }
+            preview.start();
+            if (rings != null) {
+                rings.start();
+            }
+            supervisors = startedSupervisors;
+            for (ConnectionSupervisor supervisor : startedSupervisors) {
+                supervisor.start();
+            }
+            return !started.isEmpty();
+        } catch (Exception e) {
+            sendStatusToClients(getErrorMessage(e));
+        } finally {
+            if (manifest != null) {
+                try {
+                    manifest.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to close session manifest", e);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reports each detected gesture to the clients with {@link Constants.MESSAGE#GESTURE} and records
+     * it in the session's {@link EventLog}. Called on the detector threads of all devices.
+     */
+    private class GestureReporter implements DetectorThread.Listener {
+
         @Override
-        protected Void doInBackground(Void... params) {
-            try {
-                if (getConnectedBandClient()) {
-                    sendStatusToClients(getString(R.string.status_connected));
-                    client.getSensorManager().registerGyroscopeEventListener(SensorService.this, SampleRate.MS16);
-                } else {
-                    sendStatusToClients(getString(R.string.status_not_connected));
+        public void onGesture(String device, GestureDetector detector, long start, long end, double score,
+                              long latencyMillis) {
+            Bundle b = new Bundle();
+            b.putString(Constants.KEY.DEVICE, device);
+            b.putString(Constants.KEY.GESTURE, detector.getName());
+            b.putLong(Constants.KEY.GESTURE_START, start);
+            b.putLong(Constants.KEY.GESTURE_END, end);
+            b.putDouble(Constants.KEY.GESTURE_SCORE, score);
+            b.putLong(Constants.KEY.GESTURE_LATENCY_MILLIS, latencyMillis);
+            sendToClients(Constants.MESSAGE.GESTURE, b);
+            EventLog events = eventLog;
+            if (events != null) {
+                try {
+                    events.write(end, device, EventLog.GESTURE, String.format(Locale.US,
+                            "detector=%s start=%d score=%.4f latency_ms=%d", detector.getName(), start, score,
+                            latencyMillis));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to record a gesture", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports a log which could not be written, e.g. because the storage is full or was removed, to
+     * the clients, and stops the session, since no more data of the device is recorded. Called on
+     * the writer threads and stream recorders of all devices.
+     */
+    private class WriteFailureReporter implements SampleWriterThread.Listener {
+
+        @Override
+        public void onWriteFailed(String device, IOException error) {
+            sendDeviceStatus(device, getString(R.string.err_write, error.getMessage()));
+            if (sessionStateMachine.getState() == SessionStateMachine.State.STREAMING) {
+                sessionStateMachine.requestStop();
+            }
+        }
+    }
+
+    /**
+     * Reports the outages of the Bands' connections to the clients and records each one in the
+     * session's {@link EventLog}. Called on the supervisor threads of all Bands.
+     */
+    private class OutageReporter implements ConnectionSupervisor.Listener {
+
+        @Override
+        public void onConnectionLost(ConnectionSupervisor supervisor, long start) {
+            sendDeviceStatus(supervisor.getName(), getString(R.string.status_connection_lost));
+        }
+
+        @Override
+        public void onReconnectFailed(ConnectionSupervisor supervisor, int attempt, long retryMillis, Exception error) {
+            sendDeviceStatus(supervisor.getName(), getString(R.string.status_reconnect_failed, attempt,
+                    retryMillis / 1000.0));
+        }
+
+        @Override
+        public void onOutage(ConnectionSupervisor supervisor, long start, long end, int attempts, boolean recovered) {
+            if (recovered) {
+                sendDeviceStatus(supervisor.getName(), getString(R.string.status_reconnected,
+                        (end - start) / 1000.0, attempts));
+            }
+            EventLog events = eventLog;
+            if (events != null) {
+                try {
+                    events.write(start, supervisor.getName(), EventLog.OUTAGE, String.format(Locale.US,
+                            "end=%d duration_ms=%d attempts=%d recovered=%b", end, end - start, attempts, recovered));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to record an outage", e);
                 }
-            } catch (BandException e) {
-                String exceptionMessage;
-                switch (e.getErrorType()) {
-                    case UNSUPPORTED_SDK_VERSION_ERROR:
-                        exceptionMessage = getString(R.string.err_unsupported_sdk_version);
+            }
+        }
+    }
+
+    /**
+     * Task switching the sampling rate of all recorders. It runs on the session thread, so a switch
+     * requested while the Bands are connecting applies once the recorders have started, and no switch
+     * overlaps the end of the session.
+     */
+    private class SampleRateSwitch implements Runnable {
+        private final SamplePeriod period;
+
+        SampleRateSwitch(SamplePeriod period) {
+            this.period = period;
+        }
+
+        @Override
+        public void run() {
+            List<DeviceRecorder> current = recorders;
+            if (current == null) {
+                return;
+            }
+            for (DeviceRecorder recorder : current) {
+                String status;
+                try {
+                    recorder.setSamplePeriod(period);
+                    status = getString(R.string.status_sample_rate, recorder.getSampleRate());
+                } catch (Exception e) {
+                    status = getErrorMessage(e);
+                }
+                sendDeviceStatus(recorder.getName(), status);
+            }
+        }
+    }
+
+    /**
+     * A device to record from, before its pipeline is created
+     */
+    private static class DeviceInfo {
+        /** short identifier of the device, included in its file names */
+        final String id;
+        /** name of the device, or an empty string */
+        final String name;
+        /** hardware address of the device, or an empty string */
+        final String address;
+        /** the source of the device's samples */
+        final SampleSource source;
+        /** the client of the device if it is a Band, which also provides its low-rate streams, or null */
+        final BandClient client;
+
+        DeviceInfo(String id, String name, String address, SampleSource source, BandClient client) {
+            this.id = id;
+            this.name = name;
+            this.address = address;
+            this.source = source;
+            this.client = client;
+        }
+    }
+
+    /**
+     * Returns a user-readable message for an error raised while connecting or subscribing
+     * @param e the error
+     * @return the message
+     */
+    private String getErrorMessage(Exception e) {
+        String exceptionMessage;
+        if (e instanceof BandException) {
+            switch (((BandException) e).getErrorType()) {
+                case UNSUPPORTED_SDK_VERSION_ERROR:
+                    exceptionMessage = getString(R.string.err_unsupported_sdk_version);
+                    break;
+                case SERVICE_ERROR:
+                    exceptionMessage = getString(R.string.err_service);
+                    break;
+                default:
+                    exceptionMessage = getString(R.string.err_default) + e.getMessage();
+                    break;
+            }
+            Log.e(TAG, exceptionMessage);
+        } else {
+            exceptionMessage = getString(R.string.err_default) + e.getMessage();
+        }
+        return exceptionMessage;
+    }
+
+    /**
+     * Connects the mobile device to all paired Microsoft Bands concurrently. Bands which fail to
+     * connect are reported to the clients, skipped and disconnected. If the connection fails as a
+     * whole, every Band is disconnected again.
+     * @param period the initial sampling period of the Bands
+     * @return the connected Bands, empty if none
+     * @throws InterruptedException if the connection is interrupted
+     * @throws BandException if the band SDK version is not compatible or the Microsoft Health band is not installed
+     */
+    private List<DeviceInfo> connectBands(SamplePeriod period) throws InterruptedException, BandException {
+        BandInfo[] bands = BandClientManager.getInstance().getPairedBands();
+        List<DeviceInfo> devices = new ArrayList<>();
+        if (bands.length == 0) {
+            sendStatusToClients(getString(R.string.status_not_paired));
+            return devices;
+        }
+
+        sendStatusToClients(getString(R.string.status_connecting));
+        BandClient[] candidates = new BandClient[bands.length];
+        List<BandClient> connected = new ArrayList<>();
+        boolean succeeded = false;
+        try {
+            List<BandPendingResult<ConnectionState>> results = new ArrayList<>();
+            for (int i = 0; i < bands.length; i++) {
+                candidates[i] = BandClientManager.getInstance().create(getBaseContext(), bands[i]);
+                results.add(candidates[i].connect());
+            }
+            for (int i = 0; i < bands.length; i++) {
+                String id = "band" + i;
+                try {
+                    if (ConnectionState.CONNECTED == results.get(i).await()) {
+                        connected.add(candidates[i]);
+                        devices.add(new DeviceInfo(id, bands[i].getName(), bands[i].getMacAddress(),
+                                new BandSampleSource(candidates[i], period), candidates[i]));
+                        sendStatusToClients(getString(R.string.status_device, id,
+                                getString(R.string.status_connected)));
+                    } else {
+                        sendStatusToClients(getString(R.string.status_device, id,
+                                getString(R.string.status_not_connected)));
+                    }
+                } catch (BandException e) {
+                    if (bands.length == 1) {
+                        throw e;
+                    }
+                    sendStatusToClients(getString(R.string.status_device, id, getErrorMessage(e)));
+                }
+            }
+            bandClients = connected;
+            succeeded = true;
+        } finally {
+            // a Band which is not kept, or any Band if the connection failed, may still complete its connection
+            for (BandClient candidate : candidates) {
+                if (candidate != null && !(succeeded && connected.contains(candidate))) {
+                    disconnect(candidate);
+                }
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Creates the simulated devices requested by the start intent
+     * @param type {@link SampleSource.Type#SYNTHETIC} or {@link SampleSource.Type#REPLAY}
+     * @param period the sampling period requested by the start intent, which determines the rate
+     *               unless {@link Constants.KEY#SIMULATED_RATE} is given
+     * @param intent the start intent
+     * @return the simulated devices
+     * @throws IOException if the file to replay could not be loaded
+     */
+    private List<DeviceInfo> createSimulatedDevices(SampleSource.Type type, SamplePeriod period, Intent intent)
+            throws IOException {
+        float rate = intent.getFloatExtra(Constants.KEY.SIMULATED_RATE, (float) period.getRateHz());
+        int count = Math.max(1, intent.getIntExtra(Constants.KEY.SIMULATED_DEVICES, 1));
+        File replayFile = null;
+        SimulatedSampleSource.ReplaySignal replay = null;
+        if (type == SampleSource.Type.REPLAY) {
+            replayFile = new File(intent.getStringExtra(Constants.KEY.REPLAY_FILE));
+            if (!replayFile.isAbsolute()) {
+                replayFile = new File(FileUtil.getStorageLocation(), replayFile.getPath());
+            }
+            // loaded once, whatever the number of devices replaying it
+            replay = new SimulatedSampleSource.ReplaySignal(replayFile, true);
+        }
+        List<DeviceInfo> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String id = "simulated" + i;
+            SimulatedSampleSource.Signal signal;
+            String name;
+            if (replay != null) {
+                signal = new SimulatedSampleSource.ReplaySignal(replay);
+                name = replayFile.getName();
+            } else {
+                signal = new SimulatedSampleSource.SyntheticSignal(rate, System.nanoTime() + i);
+                name = type.name();
+            }
+            devices.add(new DeviceInfo(id, name, "", new SimulatedSampleSource(id, signal, rate), null));
+        }
+        sendStatusToClients(getString(R.string.status_simulated, count, rate));
+        return devices;
+    }
+
+    /**
+     * Returns the kind of source requested by the start intent, {@link SampleSource.Type#BAND} by default
+     * @param intent the start intent
+     * @return the requested kind of source
+     */
+    private static SampleSource.Type getSourceType(Intent intent) {
+        SampleSource.Type type = SampleSource.Type.BAND;
+        String source = intent.getStringExtra(Constants.KEY.SAMPLE_SOURCE);
+        if (source != null) {
+            try {
+                type = SampleSource.Type.valueOf(source);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown sample source " + source + ", using " + type);
+            }
+        }
+        if (type == SampleSource.Type.REPLAY && intent.getStringExtra(Constants.KEY.REPLAY_FILE) == null) {
+            Log.w(TAG, "No file to replay, using " + SampleSource.Type.SYNTHETIC);
+            type = SampleSource.Type.SYNTHETIC;
+        }
+        return type;
+    }
+
+    /**
+     * Creates the gesture detectors of one device requested by the start intent with
+     * {@link Constants.KEY#DETECTORS}, a comma-separated list of:
+     * <ul>
+     *     <li>{@code threshold}: a {@link ThresholdDetector} of the dynamic acceleration, above
+     *     {@link Constants.KEY#THRESHOLD_G}</li>
+     *     <li>{@code peak}: a {@link PeakDetector} of the angular velocity, with peaks above
+     *     {@link Constants.KEY#PEAK_DPS}</li>
+     *     <li>{@code dtw}: a {@link DtwDetector} of the dynamic acceleration matching the template
+     *     {@link Constants.KEY#DTW_TEMPLATE} within {@link Constants.KEY#DTW_THRESHOLD_G}</li>
+     * </ul>
+     * Unknown or misconfigured detectors are logged and left out.
+     * @param intent the start intent
+     * @return new detectors, possibly none
+     */
+    private static List<GestureDetector> createDetectors(Intent intent) {
+        List<GestureDetector> detectors = new ArrayList<>();
+        String list = intent.getStringExtra(Constants.KEY.DETECTORS);
+        if (list == null) {
+            return detectors;
+        }
+        for (String name : list.split(",")) {
+            name = name.trim().toLowerCase(Locale.US);
+            try {
+                switch (name) {
+                    case "threshold":
+                        detectors.add(new ThresholdDetector(name, GestureDetector.Signal.ACCELERATION,
+                                intent.getDoubleExtra(Constants.KEY.THRESHOLD_G, DEFAULT_THRESHOLD_G),
+                                DETECTOR_REFRACTORY_MILLIS));
                         break;
-                    case SERVICE_ERROR:
-                        exceptionMessage = getString(R.string.err_service);
+                    case "peak":
+                        detectors.add(new PeakDetector(name, GestureDetector.Signal.ROTATION,
+                                intent.getDoubleExtra(Constants.KEY.PEAK_DPS, DEFAULT_PEAK_DPS), PEAK_HYSTERESIS_DPS,
+                                DETECTOR_MAX_DELAY_MILLIS, DETECTOR_REFRACTORY_MILLIS));
                         break;
-                    default:
-                        exceptionMessage = getString(R.string.err_default) + e.getMessage();
+                    case "dtw":
+                        float[] template = intent.getFloatArrayExtra(Constants.KEY.DTW_TEMPLATE);
+                        if (template == null) {
+                            Log.w(TAG, "No template for the DTW detector");
+                            break;
+                        }
+                        detectors.add(new DtwDetector(name, GestureDetector.Signal.ACCELERATION, template,
+                                intent.getDoubleExtra(Constants.KEY.DTW_THRESHOLD_G, DEFAULT_DTW_THRESHOLD_G),
+                                DETECTOR_MAX_DELAY_MILLIS));
                         break;
+                    default:
+                        Log.w(TAG, "Unknown detector " + name);
                 }
-                Log.e(TAG, exceptionMessage);
-                sendStatusToClients(exceptionMessage);
-
-            } catch (Exception e) {
-                sendStatusToClients(getString(R.string.err_default) + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, e.getMessage());
             }
+        }
+        return detectors;
+    }
+
+    /**
+     * Returns the adaptive rate policy requested by the start intent, whose thresholds default to
+     * those of {@link AdaptiveRatePolicy#DEFAULT}
+     * @param intent the start intent
+     * @return the requested policy, or null if the rate should not adapt to the motion of the subject
+     */
+    private static AdaptiveRatePolicy getAdaptiveRatePolicy(Intent intent) {
+        if (!intent.getBooleanExtra(Constants.KEY.ADAPTIVE_RATE, false)) {
             return null;
         }
+        AdaptiveRatePolicy policy = AdaptiveRatePolicy.DEFAULT;
+        try {
+            return new AdaptiveRatePolicy(
+                    intent.getLongExtra(Constants.KEY.MOTION_WINDOW_MILLIS, policy.getWindowMillis()),
+                    intent.getDoubleExtra(Constants.KEY.STILL_VARIANCE, policy.getStillVariance()),
+                    intent.getDoubleExtra(Constants.KEY.ACTIVE_VARIANCE, policy.getActiveVariance()),
+                    intent.getLongExtra(Constants.KEY.STILL_HOLD_MILLIS, policy.getStillHoldMillis()),
+                    policy.getActivePeriod(), policy.getStillPeriod());
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, e.getMessage() + ", using " + policy);
+            return policy;
+        }
     }
 
     /**
-     * Connects the mobile device to the Microsoft Band
-     * @return True if successful, False otherwise
-     * @throws InterruptedException if the connection is interrupted
-     * @throws BandException if the band SDK version is not compatible or the Microsoft Health band is not installed
+     * Returns the sampling period requested by the start intent, {@link SamplePeriod#MS16} by default
+     * @param intent the start intent
+     * @return the requested period
      */
-    private boolean getConnectedBandClient() throws InterruptedException, BandException {
-        if (client == null) {
-            BandInfo[] devices = BandClientManager.getInstance().getPairedBands();
-            if (devices.length == 0) {
-                sendStatusToClients(getString(R.string.status_not_paired));
-                return false;
+    private static SamplePeriod getSamplePeriod(Intent intent) {
+        String rate = intent.getStringExtra(Constants.KEY.SAMPLE_RATE);
+        SamplePeriod period = rate == null ? null : parseSamplePeriod(rate);
+        return period == null ? SamplePeriod.MS16 : period;
+    }
+
+    /**
+     * Parses the name of a sampling period, as used by {@link Constants.KEY#SAMPLE_RATE}
+     * @param rate the name of a {@link SamplePeriod} constant, e.g. "MS32"
+     * @return the period, or null if the name is unknown
+     */
+    private static SamplePeriod parseSamplePeriod(String rate) {
+        if (rate != null) {
+            try {
+                return SamplePeriod.valueOf(rate);
+            } catch (IllegalArgumentException e) {
+                // reported below
             }
-            client = BandClientManager.getInstance().create(getBaseContext(), devices[0]);
-        } else if (ConnectionState.CONNECTED == client.getConnectionState()) {
-            return true;
         }
+        Log.w(TAG, "Unknown sample rate " + rate);
+        return null;
+    }
 
-        sendStatusToClients(getString(R.string.status_connecting));
-        return ConnectionState.CONNECTED == client.connect().await();
+    /**
+     * Returns the low-rate sensor streams requested by the start intent as a comma-separated list of
+     * {@link SensorStream} names, all of them by default
+     * @param intent the start intent
+     * @return the requested streams, possibly empty
+     */
+    private static Set<SensorStream> getSensorStreams(Intent intent) {
+        String names = intent.getStringExtra(Constants.KEY.SENSOR_STREAMS);
+        if (names == null) {
+            return EnumSet.allOf(SensorStream.class);
+        }
+        Set<SensorStream> streams = EnumSet.noneOf(SensorStream.class);
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            try {
+                streams.add(SensorStream.valueOf(name));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown sensor stream " + name);
+            }
+        }
+        return streams;
+    }
+
+    /**
+     * Returns the interpolation method of the resampling requested by the start intent, "linear" or
+     * "cubic", linear by default
+     * @param intent the start intent
+     * @return the requested interpolation method
+     */
+    private static Resampler.Interpolation getInterpolation(Intent intent) {
+        String interpolation = intent.getStringExtra(Constants.KEY.RESAMPLE_INTERPOLATION);
+        if (interpolation != null) {
+            try {
+                return Resampler.Interpolation.valueOf(interpolation.toUpperCase(Locale.US));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown interpolation " + interpolation + ", using linear interpolation");
+            }
+        }
+        return Resampler.Interpolation.LINEAR;
+    }
+
+    /**
+     * Returns the edges of the spectral frequency bands requested by the start intent as a
+     * comma-separated list of increasing frequencies in Hz, {@link SpectralAnalyzer#DEFAULT_BAND_EDGES}
+     * by default
+     * @param intent the start intent
+     * @return the requested band edges
+     */
+    private static double[] getBandEdges(Intent intent) {
+        String list = intent.getStringExtra(Constants.KEY.SPECTRAL_BANDS);
+        if (list == null) {
+            return SpectralAnalyzer.DEFAULT_BAND_EDGES;
+        }
+        String[] fields = list.split(",");
+        double[] edges = new double[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                edges[i] = Double.parseDouble(fields[i].trim());
+                if (!(edges[i] >= 0) || (i > 0 && !(edges[i] > edges[i - 1]))) {
+                    throw new NumberFormatException("not increasing");
+                }
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid spectral bands " + list + ", using the default bands");
+            return SpectralAnalyzer.DEFAULT_BAND_EDGES;
+        }
+        return edges.length < 2 ? SpectralAnalyzer.DEFAULT_BAND_EDGES : edges;
+    }
+
+    /**
+     * Returns the gzip compression level requested by the start intent, 0 (no compression) by default
+     * @param intent the start intent
+     * @return the requested level, from 0 to 9
+     */
+    private static int getDeflateLevel(Intent intent) {
+        int deflateLevel = intent.getIntExtra(Constants.KEY.DEFLATE_LEVEL, 0);
+        if (deflateLevel < 0 || deflateLevel > 9) {
+            Log.w(TAG, "Invalid compression level " + deflateLevel + ", writing uncompressed segments");
+            return 0;
+        }
+        return deflateLevel;
     }
 
     /**
-     * registers the band's accelerometer/gyroscope sensors to the sensor service
+     * Returns the log format requested by the start intent, CSV by default
+     * @param intent the start intent
+     * @return the requested format
      */
-    public void startSensors() {
-        new SensorSubscriptionTask().execute();
+    private static SampleFormat getSampleFormat(Intent intent) {
+        String format = intent.getStringExtra(Constants.KEY.SAMPLE_FORMAT);
+        if (format != null) {
+            try {
+                return SampleFormat.valueOf(format);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown sample format " + format + ", using " + SampleFormat.CSV);
+            }
+        }
+        return SampleFormat.CSV;
     }
 
     /**
-     * unregisters the sensors from the sensor service
+     * Returns the debug log mode requested by the start intent, {@link SampleLogTap.Mode#SUMMARY} by default
+     * @param intent the start intent
+     * @return the requested mode
      */
-    public void unregisterSensors() {
-        if (client != null) {
+    private static SampleLogTap.Mode getLogMode(Intent intent) {
+        String mode = intent.getStringExtra(Constants.KEY.LOG_MODE);
+        if (mode != null) {
             try {
-                client.getSensorManager().unregisterAllListeners();
-            } catch (BandIOException e) {
-                sendStatusToClients(getString(R.string.err_default) + e.getMessage());
+                return SampleLogTap.Mode.valueOf(mode);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown log mode " + mode + ", using " + SampleLogTap.Mode.SUMMARY);
+            }
+        }
+        return SampleLogTap.Mode.SUMMARY;
+    }
+
+    /**
+     * Returns the durability policy requested by the start intent, {@link FlushPolicy#DEFAULT} by default
+     * @param intent the start intent
+     * @return the requested policy
+     */
+    private static FlushPolicy getFlushPolicy(Intent intent) {
+        FlushPolicy policy = FlushPolicy.DEFAULT;
+        try {
+            return new FlushPolicy(
+                    intent.getIntExtra(Constants.KEY.FLUSH_SAMPLES, policy.getFlushSamples()),
+                    intent.getLongExtra(Constants.KEY.FLUSH_INTERVAL_MILLIS, policy.getFlushIntervalMillis()),
+                    intent.getIntExtra(Constants.KEY.SYNC_FLUSHES, policy.getSyncFlushes()));
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, e.getMessage() + ", using " + policy);
+            return policy;
+        }
+    }
+
+    /**
+     * reports the queue usage, flush latencies and compression ratio of a device's pipeline, once it
+     * has stopped
+     * @param recorder the stopped pipeline
+     */
+    private void reportStats(DeviceRecorder recorder) {
+        SampleWriterThread writerThread = recorder.getWriterThread();
+        String flushStats = getString(R.string.status_flush_stats,
+                writerThread.getFlushCount(), writerThread.getMeanFlushMicros(), writerThread.getMaxFlushMicros(),
+                writerThread.getSyncCount(), writerThread.getMeanSyncMicros(), writerThread.getMaxSyncMicros());
+        sendDeviceStatus(recorder.getName(), flushStats);
+
+        if (recorder.getWriter() != null) {
+            CompressionStats compression = recorder.getWriter().getCompressionStats();
+            if (compression.getBlocks() > 0) {
+                sendDeviceStatus(recorder.getName(), getString(R.string.status_compression_stats,
+                        compression.getRatio(), compression.getBlocks(), compression.getMeanBlockMicros(),
+                        compression.getMaxBlockMicros()));
+            }
+        }
+        for (SampleStage stage : recorder.getStages()) {
+            sendDeviceStatus(recorder.getName(), getString(R.string.status_stage_stats,
+                    stage.getRecordCount(), stage.getStreamName()));
+        }
+
+        TimingAnalyzer timing = recorder.getTimingAnalyzer();
+        sendDeviceStatus(recorder.getName(), getString(R.string.status_timing_stats, timing.getSampleCount(),
+                timing.getGapCount(), timing.getMissingCount(), timing.getMaxGapMillis(),
+                timing.getJitterPercentile(0.5), timing.getJitterPercentile(0.99), timing.getMaxJitterMillis()));
+
+        SampleRingBuffer buffer = recorder.getBuffer();
+        sendDeviceStatus(recorder.getName(), getString(R.string.status_buffer_stats, buffer.getHighWaterMark(),
+                buffer.getCapacity(), buffer.getOverflowCount()));
+
+        DetectorThread detectorThread = recorder.getDetectorThread();
+        if (detectorThread != null) {
+            SampleRingBuffer detectorBuffer = detectorThread.getBuffer();
+            sendDeviceStatus(recorder.getName(), getString(R.string.status_detector_stats,
+                    detectorThread.getGestureCount(), detectorThread.getMeanDetectNanos(),
+                    detectorThread.getMaxDetectMicros(), detectorThread.getMaxLatencyMillis(),
+                    detectorBuffer.getOverflowCount()));
+        }
+    }
+
+    /**
+     * logs a status message about a device and sends it to all clients
+     * @param device short identifier of the device
+     * @param status the status message
+     */
+    private void sendDeviceStatus(String device, String status) {
+        String message = getString(R.string.status_device, device, status);
+        Log.i(TAG, message);
+        sendStatusToClients(message);
+    }
+
+    /**
+     * connects to all paired bands, or creates the simulated devices requested by the start intent,
+     * and starts recording each device into its own log, in the background. Does nothing if a
+     * recording is already running or starting.
+     * @param intent the start intent
+     */
+    public void startSensors(Intent intent) {
+        sessionStateMachine.requestStart(intent);
+    }
+
+    /**
+     * Performs the transitions of the recording session on the session thread, and stops the service
+     * on the main thread once a session has ended and no new one is requested
+     */
+    private class SessionTransitions implements SessionStateMachine.Session {
+
+        @Override
+        public boolean connect(Intent intent) {
+            if (startRecording(intent)) {
+                return true;
+            }
+            // tear down the devices started before the failure
+            unregisterSensors();
+            flushLogs();
+            disconnectBand();
+            return false;
+        }
+
+        @Override
+        public void stopStreaming() {
+            unregisterSensors();
+        }
+
+        @Override
+        public void flush() {
+            flushLogs();
+            disconnectBand();
+        }
+
+        @Override
+        public void onStateChanged(SessionStateMachine.State state, boolean recordingRequested) {
+            if (state == SessionStateMachine.State.STREAMING) {
+                mainHandler.post(timingNotifier);
+            } else if (state == SessionStateMachine.State.STOPPING) {
+                mainHandler.removeCallbacks(timingNotifier);
+            }
+            if (state == SessionStateMachine.State.IDLE && !recordingRequested) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        isRunning = false;
+                        stopForeground(true);
+                        stopSelf();
+                    }
+                });
             }
         }
     }
 
     /**
-     * disconnects the sensor service from the Microsoft Band
+     * unregisters the sensors from the sensor service: stops the supervision of the connections, the
+     * live feeds to the clients and the sources of all devices, so that every device has stopped
+     * before any log is flushed
      */
-    public void disconnectBand() {
-        if (client != null) {
+    private void unregisterSensors() {
+        // no Band may be reconnected while its listeners are unregistered
+        List<ConnectionSupervisor> stoppingSupervisors = supervisors;
+        supervisors = null;
+        if (stoppingSupervisors != null) {
+            for (ConnectionSupervisor supervisor : stoppingSupervisors) {
+                supervisor.stop();
+            }
+        }
+        preview.stop();
+        preview.removeDevices();
+        SharedRingPublisher rings = sharedRings;
+        sharedRings = null;
+        if (rings != null) {
+            rings.stop();
+        }
+        List<DeviceRecorder> stopping = recorders;
+        if (stopping != null) {
+            for (DeviceRecorder recorder : stopping) {
+                try {
+                    recorder.stopSource();
+                } catch (Exception e) {
+                    sendDeviceStatus(recorder.getName(), getString(R.string.err_default) + e.getMessage());
+                }
+            }
+        }
+        List<StreamRecorder> stoppingStreams = streamRecorders;
+        if (stoppingStreams != null) {
+            for (StreamRecorder recorder : stoppingStreams) {
+                try {
+                    recorder.stopSource();
+                } catch (BandIOException e) {
+                    sendDeviceStatus(recorder.getName(), getString(R.string.err_default) + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * writes the samples and records remaining in each device's queues, once the sensors are
+     * unregistered, closes the logs and reports their statistics
+     */
+    private void flushLogs() {
+        List<DeviceRecorder> stopping = recorders;
+        recorders = null;
+        if (stopping != null) {
+            for (DeviceRecorder recorder : stopping) {
+                recorder.finish();
+                reportStats(recorder);
+            }
+        }
+        List<StreamRecorder> stoppingStreams = streamRecorders;
+        streamRecorders = null;
+        if (stoppingStreams != null) {
+            for (StreamRecorder recorder : stoppingStreams) {
+                recorder.finish();
+                sendDeviceStatus(recorder.getName(), getString(R.string.status_stream_stats,
+                        recorder.getRecordCount(), recorder.getDroppedCount()));
+            }
+        }
+        EventLog closing = eventLog;
+        eventLog = null;
+        if (closing != null) {
             try {
-                client.disconnect().await();
-            } catch (InterruptedException | BandException e) {
-                // Do nothing as this is happening during destroy
+                closing.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close event log", e);
             }
         }
+        String busStats = getString(R.string.status_bus_stats, statusBus.getDeliveredCount(),
+                statusBus.getCoalescedCount(), statusBus.getDroppedCount(), statusBus.getDeadClientCount());
+        Log.i(TAG, busStats);
+        sendStatusToClients(busStats);
     }
 
-    @Override
-    public void onBandGyroscopeChanged(BandGyroscopeEvent event) {
-        synchronized(writer){
-            Object[] data = new Object[]{event.getTimestamp(),
-                                       event.getAccelerationX(), event.getAccelerationY(), event.getAccelerationZ(),
-                                       event.getAngularVelocityX(), event.getAngularVelocityY(), event.getAngularVelocityZ()};
-            String sample = TextUtils.join(",", data);
-            Log.d(TAG, sample);
-            FileUtil.writeToFile(sample, writer);
+    /**
+     * disconnects the sensor service from the Microsoft Bands
+     */
+    private void disconnectBand() {
+        List<BandClient> clients = bandClients;
+        bandClients = null;
+        if (clients != null) {
+            for (BandClient client : clients) {
+                disconnect(client);
+            }
+        }
+    }
+
+    /**
+     * Disconnects a Microsoft Band, ignoring any failure
+     * @param client the Band to disconnect
+     */
+    private static void disconnect(BandClient client) {
+        try {
+            client.disconnect().await();
+        } catch (BandException e) {
+            // Do nothing as the Band is not used anymore
+        } catch (InterruptedException e) {
+            // the disconnection was requested regardless
+            Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
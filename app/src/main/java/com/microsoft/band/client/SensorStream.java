@@ -0,0 +1,92 @@
+package com.microsoft.band.client;
+
+/**
+ * The low-rate Band sensor streams recorded alongside the accelerometer/gyroscope samples, and the
+ * typed layout of their records. Each record is a timestamp followed by the stream's values, which
+ * are passed around as doubles and written as CSV columns of their declared type.
+ *
+ * @see StreamRecorder
+ * @see BandStreamSource
+ */
+enum SensorStream {
+    /** heart rate in beats per minute, and quality: 1 if locked, 0 if still acquiring */
+    HEART_RATE("heart_rate", "timestamp,heart_rate,quality", Column.INT, Column.INT),
+    /** skin temperature in degrees Celsius */
+    SKIN_TEMPERATURE("skin_temperature", "timestamp,temperature", Column.FLOAT),
+    /** galvanic skin response as a resistance in kilohms */
+    GSR("gsr", "timestamp,resistance", Column.INT),
+    /** air pressure in hectopascals and temperature in degrees Celsius */
+    BAROMETER("barometer", "timestamp,air_pressure,temperature", Column.DOUBLE, Column.DOUBLE),
+    /** interval between the last two heart beats, in seconds */
+    RR_INTERVAL("rr_interval", "timestamp,interval", Column.DOUBLE);
+
+    /** the type of a column, which determines how its values are written */
+    enum Column {
+        /** an integer, written without a fraction */
+        INT,
+        /** a single-precision value, written as by {@link Float#toString(float)} */
+        FLOAT,
+        /** a double-precision value, written as by {@link Double#toString(double)} */
+        DOUBLE
+    }
+
+    /** name of the stream, included in its file names */
+    private final String fileName;
+
+    /** header line of the stream's logs */
+    private final String header;
+
+    /** type of each value following the timestamp */
+    private final Column[] columns;
+
+    SensorStream(String fileName, String header, Column... columns) {
+        this.fileName = fileName;
+        this.header = header;
+        this.columns = columns;
+    }
+
+    /**
+     * @return the name of the stream, included in its file names
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the header line of the stream's logs
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the number of values following the timestamp in a record
+     */
+    public int getValueCount() {
+        return columns.length;
+    }
+
+    /**
+     * Appends a record to a CSV line, without the trailing newline
+     * @param line the line being built
+     * @param timestamp the record timestamp
+     * @param values the {@link #getValueCount()} values of the record
+     */
+    public void format(StringBuilder line, long timestamp, double[] values) {
+        line.append(timestamp);
+        for (int i = 0; i < columns.length; i++) {
+            line.append(',');
+            switch (columns[i]) {
+                case INT:
+                    line.append((long) values[i]);
+                    break;
+                case FLOAT:
+                    line.append((float) values[i]);
+                    break;
+                default:
+                    line.append(values[i]);
+                    break;
+            }
+        }
+    }
+}
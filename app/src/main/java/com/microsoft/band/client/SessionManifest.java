@@ -0,0 +1,90 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Ties together the logs of all devices and streams recorded in one session. The manifest
+ * {@code <name>_<session>_session.csv} lists, one line per stream of each device, the device
+ * identifier, the stream ({@link #IMU_STREAM} for the accelerometer/gyroscope samples,
+ * {@link #FEATURES_STREAM} or {@link #SPECTRUM_STREAM} for their windowed features,
+ * {@link #RESAMPLED_STREAM} for the samples on a uniform grid, otherwise the
+ * file name of a {@link SensorStream}), the kind of source, the device name and address reported by
+ * the Band SDK, and the file name of the stream's segment manifest (see {@link RollingSampleWriter}),
+ * or of the output file of a {@link SampleStage}.
+ * Each line is flushed as soon as the stream starts recording.
+ *
+ * @see DeviceRecorder
+ */
+class SessionManifest {
+
+    /** header line of the manifest */
+    static final String HEADER = "device,stream,source,name,address,segments";
+
+    /** name of the accelerometer/gyroscope stream */
+    static final String IMU_STREAM = "imu";
+
+    /** name of the stream of windowed accelerometer/gyroscope features */
+    static final String FEATURES_STREAM = "features";
+
+    /** name of the stream of spectral accelerometer/gyroscope features */
+    static final String SPECTRUM_STREAM = "spectrum";
+
+    /** name of the stream of accelerometer/gyroscope samples resampled onto a uniform grid */
+    static final String RESAMPLED_STREAM = "resampled";
+
+    /** the manifest file */
+    private final BufferedWriter out;
+
+    /**
+     * Creates the manifest of a session
+     * @param directory directory containing the logs of the session
+     * @param name common file name of the session's files
+     * @param session session id
+     * @throws IOException if the manifest could not be created
+     */
+    SessionManifest(File directory, String name, String session) throws IOException {
+        out = new BufferedWriter(new FileWriter(new File(directory, name + "_" + session + "_session.csv")));
+        out.write(HEADER);
+        out.newLine();
+        out.flush();
+    }
+
+    /**
+     * Lists a stream of a device
+     * @param device short identifier of the device, included in its file names
+     * @param stream {@link #IMU_STREAM}, the stream name of a {@link SampleStage} or the file name of a
+     *               {@link SensorStream}
+     * @param type the kind of source
+     * @param name name of the device, e.g. that of the Band, or an empty string
+     * @param address hardware address of the device, or an empty string
+     * @param segments file name of the stream's segment manifest, or of its single file
+     * @throws IOException if the line could not be written
+     */
+    public void addStream(String device, String stream, SampleSource.Type type, String name, String address,
+                          String segments) throws IOException {
+        out.write(device + "," + stream + "," + type + "," + escape(name) + "," + address + "," + segments);
+        out.newLine();
+        out.flush();
+    }
+
+    /**
+     * Quotes a field if it contains a separator, since Band names are chosen by the user
+     */
+    private static String escape(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Closes the manifest
+     * @throws IOException if the manifest could not be closed
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,242 @@
+package com.microsoft.band.client;
+
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The lifecycle of the recording session of {@link SensorService}, driven by a single background
+ * thread so that starting and stopping never block the caller, usually the main thread:
+ * <pre>
+ *   IDLE -&gt; CONNECTING -&gt; STREAMING -&gt; STOPPING -&gt; FLUSHING -&gt; IDLE
+ *              \--------------------------------------------/  (nothing to record)
+ * </pre>
+ * <p>
+ * Requests do not queue transitions; they only record whether recording is wanted, and the session
+ * thread then moves the session towards that goal once it has finished the transition under way.
+ * Repeated requests are thus idempotent, and a burst of start and stop requests, e.g. from rapid
+ * button presses, costs at most one session: a stop requested while connecting takes effect as soon
+ * as the devices are connected, and a start requested while flushing starts a new session once the
+ * logs are closed. Other work which must not overlap a transition, such as rate switches, can be
+ * run on the same thread with {@link #getExecutor()}.
+ * </p>
+ * <p>
+ * Once {@link #shutdown(Runnable)} has been called, later requests and tasks are ignored: the
+ * devices may still deliver samples, and their rate switches, until the queued stop has run.
+ * </p>
+ *
+ * @see SensorService
+ */
+class SessionStateMachine implements Runnable {
+
+    /** the states of a session */
+    enum State {
+        /** nothing is recorded */
+        IDLE,
+        /** the devices are being connected and their recorders started */
+        CONNECTING,
+        /** the devices are being recorded */
+        STREAMING,
+        /** the devices are being unsubscribed from */
+        STOPPING,
+        /** the remaining samples are being written and the logs closed */
+        FLUSHING
+    }
+
+    /** performs the transitions of a session, on the session thread */
+    interface Session {
+
+        /**
+         * Connects the devices and starts recording them, in state {@link State#CONNECTING}
+         * @param intent the start intent
+         * @return true if at least one device is being recorded
+         */
+        boolean connect(Intent intent);
+
+        /**
+         * Stops the sources of the devices, in state {@link State#STOPPING}
+         */
+        void stopStreaming();
+
+        /**
+         * Writes the remaining samples, closes the logs and disconnects the devices, in state
+         * {@link State#FLUSHING}
+         */
+        void flush();
+
+        /**
+         * Called after each transition
+         * @param state the new state
+         * @param recordingRequested whether recording is still wanted, in which case an idle session
+         *                           is about to start again
+         */
+        void onStateChanged(State state, boolean recordingRequested);
+    }
+
+    /** tag used for debugging purposes */
+    private static final String TAG = SessionStateMachine.class.getName();
+
+    /** performs the transitions */
+    private final Session session;
+
+    /** the session thread */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "Session");
+        }
+    });
+
+    /** the current state, only changed on the session thread */
+    private volatile State state = State.IDLE;
+
+    /** the intent of the requested recording, or null if recording is not wanted, guarded by this */
+    private Intent requested;
+
+    /** runs tasks on the session thread, dropping those submitted after the shutdown */
+    private final Executor sessionExecutor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Session thread is shut down, dropping " + task);
+            }
+        }
+    };
+
+    /**
+     * Creates the state machine of an idle session
+     * @param session performs the transitions
+     */
+    SessionStateMachine(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Requests that recording start, unless it already is or is about to
+     * @param intent the start intent, which specifies the devices and the recording options
+     * @return true if the request changed the goal of the session, false if recording was already
+     *         requested or the state machine is shut down
+     */
+    public synchronized boolean requestStart(Intent intent) {
+        if (requested != null || executor.isShutdown()) {
+            return false;
+        }
+        requested = intent;
+        executor.execute(this);
+        return true;
+    }
+
+    /**
+     * Requests that recording stop. The session is reported once more when it is idle, even if it
+     * already was, so that the caller can release its resources.
+     * @return true if the request changed the goal of the session, false if recording was not
+     *         requested or the state machine is shut down
+     */
+    public synchronized boolean requestStop() {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        boolean changed = requested != null;
+        requested = null;
+        executor.execute(this);
+        return changed;
+    }
+
+    /**
+     * Stops recording if needed, then stops the session thread once it has run the given task. Does
+     * nothing if the state machine is already shut down.
+     * @param last task run on the session thread once the session is idle, e.g. to release resources
+     *             the session uses to report its progress
+     */
+    public synchronized void shutdown(Runnable last) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        requestStop();
+        executor.execute(last);
+        executor.shutdown();
+    }
+
+    /**
+     * Moves the session towards the requested goal, on the session thread
+     */
+    @Override
+    public void run() {
+        Intent intent;
+        synchronized (this) {
+            intent = requested;
+        }
+        if (intent != null && state == State.IDLE) {
+            setState(State.CONNECTING);
+            boolean streaming = false;
+            try {
+                streaming = session.connect(intent);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to start the session", e);
+            }
+            if (streaming) {
+                setState(State.STREAMING);
+            } else {
+                // there is nothing to record, so the request is dropped and may be made again
+                synchronized (this) {
+                    if (requested == intent) {
+                        requested = null;
+                    }
+                }
+                setState(State.IDLE);
+            }
+        } else if (intent == null && state == State.STREAMING) {
+            setState(State.STOPPING);
+            try {
+                session.stopStreaming();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to stop the session", e);
+            }
+            setState(State.FLUSHING);
+            try {
+                session.flush();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to flush the session", e);
+            }
+            setState(State.IDLE);
+        } else if (intent == null && state == State.IDLE) {
+            session.onStateChanged(state, false);
+        }
+    }
+
+    /**
+     * Changes the state and reports it
+     * @param state the new state
+     */
+    private void setState(State state) {
+        this.state = state;
+        boolean recordingRequested;
+        synchronized (this) {
+            recordingRequested = requested != null;
+        }
+        Log.i(TAG, "Session " + state);
+        session.onStateChanged(state, recordingRequested);
+    }
+
+    /**
+     * @return the current state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return an executor running tasks on the session thread, between transitions; tasks submitted
+     *         after {@link #shutdown(Runnable)} are dropped
+     */
+    public Executor getExecutor() {
+        return sessionExecutor;
+    }
+}
@@ -0,0 +1,219 @@
+package com.microsoft.band.client;
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offers every sample of each device to bound clients through a {@link SharedSampleRing}, without
+ * marshalling the samples. Each client registered with {@link Constants.MESSAGE#REGISTER_CLIENT}
+ * receives, for each device, a {@link Constants.MESSAGE#SHARED_RING} message holding the device
+ * identifier and a read-only {@link ParcelFileDescriptor} of the device's ring, which it maps with a
+ * {@link SharedSampleRing.Reader} and must close. While samples arrive, a background thread sends
+ * at most every {@link #NOTIFY_INTERVAL_MILLIS} a {@link Constants.MESSAGE#SAMPLES_AVAILABLE}
+ * message per device with the number of samples published so far; it is only a hint to wake up, and
+ * clients may as well poll the ring.
+ *
+ * @see SensorService
+ */
+class SharedRingPublisher implements Runnable {
+
+    /** tag used for debugging purposes */
+    private static final String TAG = SharedRingPublisher.class.getName();
+
+    /** number of slots of each ring, about a minute of samples at 62 Hz */
+    static final int RING_CAPACITY = 4096;
+
+    /** minimum time between two wake-up hints for the same device, in milliseconds */
+    static final long NOTIFY_INTERVAL_MILLIS = 50;
+
+    /**
+     * The ring of one device
+     */
+    private static class Ring {
+        /** short identifier of the device */
+        final String device;
+        /** the ring */
+        final SharedSampleRing ring;
+        /** number of published samples announced in the last hint */
+        long notifiedCount = 0;
+
+        Ring(String device, SharedSampleRing ring) {
+            this.device = device;
+            this.ring = ring;
+        }
+    }
+
+    /** directory of the ring files */
+    private final File directory;
+
+    /** the clients which receive the rings */
+    private final CopyOnWriteArrayList<Messenger> clients = new CopyOnWriteArrayList<>();
+
+    /** the rings of the recorded devices */
+    private final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<>();
+
+    /** the notifying thread, only non-null while running */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a publisher
+     * @param directory directory in which to create the ring files, preferably private to the app
+     */
+    SharedRingPublisher(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates the ring of a device; its descriptor is sent to the clients once {@link #start()} is called
+     * @param device short identifier of the device
+     * @return the ring, to be given the device's samples
+     * @throws IOException if the ring file could not be created
+     */
+    public SharedSampleRing addDevice(String device) throws IOException {
+        SharedSampleRing ring = new SharedSampleRing(new File(directory, "ring_" + device + ".bin"), RING_CAPACITY);
+        rings.add(new Ring(device, ring));
+        return ring;
+    }
+
+    /**
+     * Removes the ring of a device, e.g. one whose recording could not be started, and deletes its file
+     * @param device short identifier of the device
+     */
+    public synchronized void removeDevice(String device) {
+        for (Ring ring : rings) {
+            if (ring.device.equals(device)) {
+                rings.remove(ring);
+                ring.ring.delete();
+            }
+        }
+    }
+
+    /**
+     * Registers a client, and sends it the rings of the current recording
+     * @param messenger receives the rings and the wake-up hints
+     */
+    public synchronized void addClient(Messenger messenger) {
+        if (!clients.addIfAbsent(messenger)) {
+            return;
+        }
+        if (executor != null) {
+            for (Ring ring : rings) {
+                sendRing(messenger, ring);
+            }
+        }
+    }
+
+    /**
+     * Unregisters a client
+     * @param messenger the client's messenger
+     */
+    public void removeClient(Messenger messenger) {
+        clients.remove(messenger);
+    }
+
+    /**
+     * Sends the rings to the registered clients and starts the notifying thread
+     */
+    public synchronized void start() {
+        if (executor != null || rings.isEmpty()) {
+            return;
+        }
+        for (Messenger client : clients) {
+            for (Ring ring : rings) {
+                sendRing(client, ring);
+            }
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SharedRing");
+            }
+        });
+        executor.scheduleWithFixedDelay(this, NOTIFY_INTERVAL_MILLIS, NOTIFY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the notifying thread and deletes the ring files; clients keep their mappings
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (Ring ring : rings) {
+            ring.ring.delete();
+        }
+        rings.clear();
+    }
+
+    /**
+     * Sends a ring to a client
+     * @param client the client's messenger
+     * @param ring the ring
+     */
+    private void sendRing(Messenger client, Ring ring) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = ParcelFileDescriptor.open(ring.ring.getFile(), ParcelFileDescriptor.MODE_READ_ONLY);
+            Bundle b = new Bundle();
+            b.putString(Constants.KEY.DEVICE, ring.device);
+            b.putParcelable(Constants.KEY.RING_DESCRIPTOR, descriptor);
+            Message msg = Message.obtain(null, Constants.MESSAGE.SHARED_RING);
+            msg.setData(b);
+            client.send(msg);
+            if (!(client.getBinder() instanceof Binder)) {
+                // a remote client received a duplicate of the descriptor; a local one owns this one
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open the ring of " + ring.device, e);
+        } catch (RemoteException e) {
+            // the client is dead
+            clients.remove(client);
+            try {
+                descriptor.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Sends a wake-up hint for each ring which received samples since the last one
+     */
+    @Override
+    public void run() {
+        for (Ring ring : rings) {
+            long published = ring.ring.getPublishedCount();
+            if (published == ring.notifiedCount) {
+                continue;
+            }
+            ring.notifiedCount = published;
+            Bundle b = new Bundle();
+            b.putString(Constants.KEY.DEVICE, ring.device);
+            b.putLong(Constants.KEY.SEQUENCE, published);
+            for (Messenger client : clients) {
+                try {
+                    Message msg = Message.obtain(null, Constants.MESSAGE.SAMPLES_AVAILABLE);
+                    msg.setData(b);
+                    client.send(msg);
+                } catch (RemoteException e) {
+                    // the client is dead
+                    clients.remove(client);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.microsoft.band.client;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ring of samples in a memory-mapped file, through which clients can read every sample of a
+ * device without any copy through the binder: the service maps the file read-write and writes each
+ * sample straight into it on the source's thread, while clients map the same file read-only from the
+ * descriptor they are sent and read at their own pace with a {@link Reader}. All values are
+ * little-endian. The file starts with a {@value #HEADER_SIZE}-byte header:
+ * <pre>
+ *   int32  magic             {@link #MAGIC} ("IMUR" in file order)
+ *   uint16 version           {@link #VERSION}
+ *   uint16 header size       {@value #HEADER_SIZE}
+ *   int32  capacity          number of slots, a power of two
+ *   uint16 slot size         {@value #SLOT_SIZE}
+ *   uint16 values per slot   {@value SampleEncoder#VALUES_PER_SAMPLE}
+ *   int64  published count   number of samples written so far, at offset {@value #PUBLISHED_OFFSET}
+ * </pre>
+ * <p>
+ * followed by {@code capacity} slots; sample number n is stored in slot {@code n % capacity} as an
+ * int64 sequence number n, an int64 timestamp, six float32 values and an int64 check value (see
+ * {@link #check(long, long, float[], int)}). The writer never waits for readers, so a reader which
+ * falls more than {@code capacity} samples behind loses the oldest ones.
+ * </p>
+ * <p>
+ * The writer fills a slot, then publishes the count n + 1. Mapped buffers offer no ordering
+ * guarantee between processes, so a reader may see the new count before the slot, or a slot being
+ * overwritten; it therefore only accepts a slot whose sequence number is the expected one and
+ * whose check value matches its contents, and otherwise either tries again later or, if the slot
+ * has been reused, counts the sample as lost.
+ * </p>
+ *
+ * @see SharedRingPublisher
+ */
+class SharedSampleRing implements SampleListener {
+
+    /** identifies a sample ring */
+    public static final int MAGIC = 0x52554d49;
+
+    /** version of the layout written by this class */
+    public static final int VERSION = 1;
+
+    /** size of the header in bytes */
+    public static final int HEADER_SIZE = 64;
+
+    /** offset of the published count in the header, alone in its cache line */
+    public static final int PUBLISHED_OFFSET = 32;
+
+    /** size of one slot in bytes */
+    public static final int SLOT_SIZE = 24 + 4 * SampleEncoder.VALUES_PER_SAMPLE;
+
+    /** offset of the check value in a slot */
+    private static final int CHECK_OFFSET = 16 + 4 * SampleEncoder.VALUES_PER_SAMPLE;
+
+    /** the ring file */
+    private final File file;
+
+    /** mapping of the ring file */
+    private final MappedByteBuffer ring;
+
+    /** number of slots */
+    private final int capacity;
+
+    /** number of samples written, only written by the writer */
+    private volatile long published = 0;
+
+    /**
+     * Creates the ring file and writes its header
+     * @param file the ring file, overwritten if it exists
+     * @param capacity number of slots, a power of two
+     * @throws IOException if the file could not be created
+     */
+    SharedSampleRing(File file, int capacity) throws IOException {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        this.file = file;
+        this.capacity = capacity;
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            int size = HEADER_SIZE + capacity * SLOT_SIZE;
+            out.setLength(size);
+            ring = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            // the mapping stays valid after the file is closed
+            out.close();
+        }
+        ring.order(ByteOrder.LITTLE_ENDIAN);
+        for (int slot = 0; slot < capacity; slot++) {
+            ring.putLong(HEADER_SIZE + slot * SLOT_SIZE, -1);
+        }
+        ring.putInt(0, MAGIC);
+        ring.putShort(4, (short) VERSION);
+        ring.putShort(6, (short) HEADER_SIZE);
+        ring.putInt(8, capacity);
+        ring.putShort(12, (short) SLOT_SIZE);
+        ring.putShort(14, (short) SampleEncoder.VALUES_PER_SAMPLE);
+        ring.putLong(PUBLISHED_OFFSET, 0);
+    }
+
+    /**
+     * Writes a sample into the ring. Must only be called from the thread delivering the samples.
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     */
+    @Override
+    public void onSample(long timestamp, float[] values, int offset) {
+        long sequence = published;
+        int position = HEADER_SIZE + (int) (sequence & (capacity - 1)) * SLOT_SIZE;
+        ring.putLong(position, sequence);
+        ring.putLong(position + 8, timestamp);
+        for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+            ring.putFloat(position + 16 + 4 * i, values[offset + i]);
+        }
+        ring.putLong(position + CHECK_OFFSET, check(sequence, timestamp, values, offset));
+        published = sequence + 1;
+        ring.putLong(PUBLISHED_OFFSET, published);
+    }
+
+    /**
+     * Computes the check value of a slot, a 64-bit hash of its contents which a torn or stale slot
+     * matches with negligible probability
+     * @param sequence the sequence number of the sample
+     * @param timestamp the sample timestamp
+     * @param values array holding the axis values
+     * @param offset index of the first axis value in {@code values}
+     * @return the check value
+     */
+    static long check(long sequence, long timestamp, float[] values, int offset) {
+        long hash = (sequence + 1) * 0x9e3779b97f4a7c15L ^ timestamp;
+        for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+            hash = (hash ^ Float.floatToRawIntBits(values[offset + i])) * 0xbf58476d1ce4e5b9L;
+            hash ^= hash >>> 31;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the ring file, whose descriptor is sent to the clients
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of samples written so far
+     */
+    public long getPublishedCount() {
+        return published;
+    }
+
+    /**
+     * Deletes the ring file. Clients which have mapped it keep their mapping.
+     */
+    public void delete() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Reads the samples of a ring, for clients. A reader starts with the oldest sample still in the
+     * ring, and must only be used by one thread at a time.
+     */
+    static class Reader {
+
+        /** read-only mapping of the ring file */
+        private final MappedByteBuffer ring;
+
+        /** number of slots, size of a slot and of the header */
+        private final int capacity, slotSize, headerSize;
+
+        /** sequence number of the next sample to read */
+        private long next;
+
+        /** number of samples overwritten before they could be read */
+        private long lostCount = 0;
+
+        /**
+         * Maps a ring
+         * @param descriptor descriptor of the ring file, e.g. from the {@code ParcelFileDescriptor}
+         *                   sent by the service; it may be closed once the reader is created
+         * @throws IOException if the file could not be mapped or is not a ring
+         */
+        Reader(FileDescriptor descriptor) throws IOException {
+            FileChannel channel = new FileInputStream(descriptor).getChannel();
+            ring = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ring.order(ByteOrder.LITTLE_ENDIAN);
+            if (ring.capacity() < HEADER_SIZE || ring.getInt(0) != MAGIC) {
+                throw new IOException("Not a sample ring");
+            }
+            if ((ring.getShort(4) & 0xffff) > VERSION) {
+                throw new IOException("Unsupported ring version " + (ring.getShort(4) & 0xffff));
+            }
+            headerSize = ring.getShort(6) & 0xffff;
+            capacity = ring.getInt(8);
+            slotSize = ring.getShort(12) & 0xffff;
+            if ((long) headerSize + (long) capacity * slotSize > ring.capacity()) {
+                throw new IOException("Truncated sample ring");
+            }
+            next = Math.max(0, getPublishedCount() - capacity);
+        }
+
+        /**
+         * @return the number of samples written into the ring so far
+         */
+        public long getPublishedCount() {
+            return ring.getLong(PUBLISHED_OFFSET);
+        }
+
+        /**
+         * Reads the samples written since the last call, up to a maximum
+         * @param timestamps receives the timestamps of the samples read
+         * @param values receives the axis values of the samples read, {@link SampleEncoder#VALUES_PER_SAMPLE} per sample
+         * @param maxSamples maximum number of samples to read
+         * @return the number of samples read
+         */
+        public int read(long[] timestamps, float[] values, int maxSamples) {
+            long published = getPublishedCount();
+            if (published - next > capacity) {
+                lostCount += published - capacity - next;
+                next = published - capacity;
+            }
+            int count = 0;
+            while (next < published && count < maxSamples) {
+                int position = headerSize + (int) (next & (capacity - 1)) * slotSize;
+                long sequence = ring.getLong(position);
+                long timestamp = ring.getLong(position + 8);
+                int base = count * SampleEncoder.VALUES_PER_SAMPLE;
+                for (int i = 0; i < SampleEncoder.VALUES_PER_SAMPLE; i++) {
+                    values[base + i] = ring.getFloat(position + 16 + 4 * i);
+                }
+                if (sequence == next && ring.getLong(position + CHECK_OFFSET) == check(next, timestamp, values, base)) {
+                    timestamps[count++] = timestamp;
+                    next++;
+                } else if (sequence > next || published - next >= capacity - 1) {
+                    // the slot has been, or is being, reused for a later sample
+                    lostCount++;
+                    next++;
+                } else {
+                    // the writes of the slot are not visible yet
+                    break;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return the number of samples overwritten before they could be read
+         */
+        public long getLostCount() {
+            return lostCount;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.microsoft.band.client;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A virtual Band which delivers samples from a {@link Signal} at a steady rate on its own thread, so
+ * that the writer and processing stages can be stressed without hardware, including on a plain JVM.
+ * Rates are not limited to those supported by the Band; several kilohertz are possible, and many
+ * sources can run at the same time to simulate several devices.
+ * <p>
+ * Samples are scheduled against {@link System#nanoTime()}: whenever the thread wakes up, it delivers
+ * all samples that are due, so the mean rate is exact even if the operating system cannot wake the
+ * thread once per sample period. Timestamps are derived from the schedule rather than from the
+ * delivery time, with a resolution of one millisecond like those of the Band; at rates above 1 kHz,
+ * consecutive samples may therefore share a timestamp. When the rate is switched with
+ * {@link #setSamplePeriod(SamplePeriod)} or {@link #setRate(double)}, the schedule continues from the
+ * next sample due at the old rate.
+ * </p>
+ *
+ * @see SyntheticSignal
+ * @see ReplaySignal
+ */
+class SimulatedSampleSource implements SampleSource, Runnable {
+
+    /** produces the axis values of successive samples */
+    interface Signal {
+
+        /**
+         * Computes the axis values of the next sample
+         * @param values receives the {@link SampleEncoder#VALUES_PER_SAMPLE} axis values
+         * @return false if the signal has ended, in which case {@code values} is left unchanged
+         */
+        boolean next(float[] values);
+
+        /**
+         * Tells the signal that its samples are now taken at a different rate. Called on the thread
+         * which calls {@link #next(float[])}.
+         * @param rateHz the new number of samples per second
+         */
+        void setRate(double rateHz);
+    }
+
+    /** name of the simulated device, used to name its thread */
+    private final String name;
+
+    /** the values of the samples */
+    private final Signal signal;
+
+    /** time between samples, in nanoseconds, as last requested */
+    private volatile long periodNanos;
+
+    /** reusable holder for the axis values of the current sample */
+    private final float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+
+    /** receives the samples */
+    private SampleListener listener;
+
+    /** the thread delivering the samples, null while stopped */
+    private Thread thread;
+
+    /** cleared to request that the thread stop */
+    private volatile boolean running;
+
+    /** number of samples delivered so far */
+    private volatile long sampleCount;
+
+    /**
+     * Creates a source
+     * @param name name of the simulated device
+     * @param signal the values of the samples
+     * @param rateHz number of samples per second
+     */
+    SimulatedSampleSource(String name, Signal signal, double rateHz) {
+        this.name = name;
+        this.signal = signal;
+        this.periodNanos = toPeriodNanos(rateHz);
+    }
+
+    private static long toPeriodNanos(double rateHz) {
+        if (!(rateHz > 0 && rateHz <= 1e6)) {
+            throw new IllegalArgumentException("Invalid sample rate: " + rateHz);
+        }
+        return Math.round(TimeUnit.SECONDS.toNanos(1) / rateHz);
+    }
+
+    @Override
+    public synchronized void start(SampleListener listener) {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        this.listener = listener;
+        running = true;
+        thread = new Thread(this, "SimulatedSampleSource-" + name);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() throws InterruptedException {
+        if (thread != null) {
+            running = false;
+            LockSupport.unpark(thread);
+            thread.join();
+            thread = null;
+        }
+    }
+
+    @Override
+    public void setSamplePeriod(SamplePeriod period) {
+        setRate(period.getRateHz());
+    }
+
+    /**
+     * Changes the rate of the source, which may be running
+     * @param rateHz the new number of samples per second
+     */
+    public synchronized void setRate(double rateHz) {
+        periodNanos = toPeriodNanos(rateHz);
+        if (thread != null) {
+            // wake up the thread in case it is waiting for the next sample at the old, slower rate
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public double getSampleRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / periodNanos;
+    }
+
+    @Override
+    public void run() {
+        // the schedule restarts from (baseNanos, baseMillis) at sample baseIndex whenever the rate changes
+        long period = periodNanos;
+        long baseNanos = System.nanoTime();
+        long baseMillis = System.currentTimeMillis();
+        long baseIndex = 0;
+        long index = 0;
+        while (running) {
+            long requested = periodNanos;
+            if (requested != period) {
+                long elapsed = (index - baseIndex) * period;
+                baseNanos += elapsed;
+                baseMillis += elapsed / 1000000;
+                baseIndex = index;
+                period = requested;
+                signal.setRate((double) TimeUnit.SECONDS.toNanos(1) / period);
+            }
+            long due = baseIndex + (System.nanoTime() - baseNanos) / period + 1;
+            for (; index < due; index++) {
+                if (!signal.next(values)) {
+                    running = false;
+                    break;
+                }
+                listener.onSample(baseMillis + (index - baseIndex) * period / 1000000, values, 0);
+                sampleCount = index + 1;
+            }
+            LockSupport.parkNanos(this, baseNanos + (index - baseIndex) * period - System.nanoTime());
+        }
+    }
+
+    /**
+     * @return whether the source is delivering samples, i.e. it was started and its signal has not ended
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of samples delivered so far
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Slow oscillations on every axis plus Gaussian noise, quantized to the resolution of the Band's
+     * sensors so that compressing writers see realistic bit patterns. The signal never ends.
+     */
+    static class SyntheticSignal implements Signal {
+
+        /** resolution of the accelerometer, in steps per g */
+        private static final float ACCELERATION_STEPS = 4096f;
+
+        /** resolution of the gyroscope, in steps per degree per second */
+        private static final float ANGULAR_VELOCITY_STEPS = 32.8f;
+
+        /** time between samples, in seconds */
+        private double period;
+
+        /** source of the noise */
+        private final Random random;
+
+        /** time of the next sample, in seconds */
+        private double time = 0;
+
+        /**
+         * Creates a signal
+         * @param rateHz number of samples per second, which determines the frequency of the oscillations
+         * @param seed seed of the noise, so that runs can be reproduced
+         */
+        SyntheticSignal(double rateHz, long seed) {
+            this.period = 1 / rateHz;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public boolean next(float[] values) {
+            double t = time;
+            time += period;
+            for (int axis = 0; axis < 3; axis++) {
+                double g = 0.6 * Math.sin(2 * Math.PI * (0.8 + 0.3 * axis) * t) + 0.02 * random.nextGaussian();
+                values[axis] = Math.round(g * ACCELERATION_STEPS) / ACCELERATION_STEPS;
+                double dps = 90 * Math.cos(2 * Math.PI * (0.5 + 0.2 * axis) * t) + 2 * random.nextGaussian();
+                values[3 + axis] = Math.round(dps * ANGULAR_VELOCITY_STEPS) / ANGULAR_VELOCITY_STEPS;
+            }
+            return true;
+        }
+
+        @Override
+        public void setRate(double rateHz) {
+            period = 1 / rateHz;
+        }
+    }
+
+    /**
+     * The axis values of a recorded CSV log, as written by {@link CsvSampleWriter}. The log is loaded
+     * into memory when the signal is created, so that replaying it involves no I/O; the recorded
+     * timestamps are ignored, as samples are delivered at the rate of the source. Several devices
+     * replay the same log without loading it again through {@link #ReplaySignal(ReplaySignal)}.
+     */
+    static class ReplaySignal implements Signal {
+
+        /** axis values of the recorded samples, {@link SampleEncoder#VALUES_PER_SAMPLE} per sample */
+        private final float[] recorded;
+
+        /** number of recorded samples */
+        private final int count;
+
+        /** whether to start over at the end of the log instead of ending the signal */
+        private final boolean loop;
+
+        /** index of the next sample */
+        private int index = 0;
+
+        /**
+         * Loads a recorded log
+         * @param file the CSV log, one sample per line
+         * @param loop whether to start over at the end of the log instead of ending the signal
+         * @throws IOException if the log could not be read or contains no samples
+         */
+        ReplaySignal(File file, boolean loop) throws IOException {
+            float[] samples = new float[1024 * SampleEncoder.VALUES_PER_SAMPLE];
+            int n = 0;
+            SampleReader in = new CsvSampleReader(new FileReader(file), file.getPath());
+            try {
+                while (in.next()) {
+                    if ((n + 1) * SampleEncoder.VALUES_PER_SAMPLE > samples.length) {
+                        samples = Arrays.copyOf(samples, samples.length * 2);
+                    }
+                    System.arraycopy(in.getValues(), 0, samples, n * SampleEncoder.VALUES_PER_SAMPLE,
+                            SampleEncoder.VALUES_PER_SAMPLE);
+                    n++;
+                }
+            } finally {
+                in.close();
+            }
+            if (n == 0) {
+                throw new IOException(file + ": no samples");
+            }
+            this.recorded = samples;
+            this.count = n;
+            this.loop = loop;
+        }
+
+        /**
+         * Creates another replay of a loaded log, starting with its first sample. The recorded samples
+         * are shared, as they are never modified, and each replay keeps its own position.
+         * @param other a replay of the log
+         */
+        ReplaySignal(ReplaySignal other) {
+            this.recorded = other.recorded;
+            this.count = other.count;
+            this.loop = other.loop;
+        }
+
+        @Override
+        public boolean next(float[] values) {
+            if (index == count) {
+                if (!loop) {
+                    return false;
+                }
+                index = 0;
+            }
+            System.arraycopy(recorded, index++ * SampleEncoder.VALUES_PER_SAMPLE, values, 0,
+                    SampleEncoder.VALUES_PER_SAMPLE);
+            return true;
+        }
+
+        /**
+         * The recorded samples are replayed one by one at any rate.
+         */
+        @Override
+        public void setRate(double rateHz) {
+        }
+    }
+}
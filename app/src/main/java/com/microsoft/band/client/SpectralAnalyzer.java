@@ -0,0 +1,275 @@
+package com.microsoft.band.client;
+
+import java.util.Locale;
+
+/**
+ * Computes spectral features of each axis of the accelerometer/gyroscope samples over windows of a
+ * fixed number of samples: the power in each of a set of frequency bands, e.g. those of gait and of
+ * tremor, and the dominant frequency. A window of {@link #getSize()} samples is analyzed every
+ * {@link #getHop()} samples.
+ * <p>
+ * Each axis of a window has its mean removed and is tapered with a Hann window before its
+ * {@link RealFft}. The power of a band is the mean square of the signal within the band, in squared
+ * axis units, so that the powers of all bands add up to about the variance of the axis; the
+ * dominant frequency is that of the strongest bin above 0 Hz. The sample rate is measured from the
+ * timestamps of each window, so windows recorded at any {@link SamplePeriod} are analyzed correctly.
+ * Windows which contain a gap, or an interval much shorter than the others as when the rate was
+ * raised within the window, are skipped and counted in {@link #getSkippedCount()}. Known rate
+ * changes are best announced with {@link #reset()}, so that no window spans them.
+ * </p>
+ * <p>
+ * All buffers are preallocated, so neither adding samples nor analyzing a window allocates.
+ * </p>
+ *
+ * @see SpectralWriter
+ */
+class SpectralAnalyzer {
+
+    /** receives the features of each analyzed window */
+    interface Listener {
+
+        /**
+         * Called for each analyzed window
+         * @param start timestamp of the first sample of the window, in milliseconds
+         * @param end timestamp of the last sample of the window
+         * @param rateHz sample rate measured over the window
+         * @param features the {@link #getFeatureNames()} features of the window; only valid during the call
+         */
+        void onSpectrum(long start, long end, double rateHz, double[] features);
+    }
+
+    /** edges of the default frequency bands in Hz: gait and other voluntary motion, then tremors */
+    static final double[] DEFAULT_BAND_EDGES = {0.5, 3, 8, 12, 20};
+
+    /** number of axes */
+    private static final int AXES = SampleEncoder.VALUES_PER_SAMPLE;
+
+    /** names of the axes, in the order of the sample values */
+    private static final String[] AXIS_NAMES = {"ax", "ay", "az", "gx", "gy", "gz"};
+
+    /** a window is skipped if any time between samples exceeds the mean time by this factor, or falls short of it */
+    private static final double MAX_INTERVAL_RATIO = 2.5;
+
+    /** number of samples per window */
+    private final int size;
+
+    /** number of samples between the starts of consecutive windows */
+    private final int hop;
+
+    /** edges of the frequency bands in Hz, in increasing order; band b spans [edges[b], edges[b + 1]) */
+    private final double[] bandEdges;
+
+    /** the transform */
+    private final RealFft fft;
+
+    /** Hann window coefficients */
+    private final double[] taper;
+
+    /** sum of the squared {@link #taper} coefficients, to normalize the powers */
+    private final double taperPower;
+
+    /** timestamps of the last {@link #size} samples, in a circular array */
+    private final long[] timestamps;
+
+    /** axis values of the last {@link #size} samples, one circular array per axis */
+    private final float[][] values;
+
+    /** index of the slot for the next sample */
+    private int next = 0;
+
+    /** number of samples received, up to {@link #size} */
+    private int filled = 0;
+
+    /** number of samples received since the last window */
+    private int sinceWindow = 0;
+
+    /** reusable signal of one axis, passed to the transform */
+    private final double[] signal;
+
+    /** reusable power spectrum of one axis */
+    private final double[] power;
+
+    /** reusable holder for the features of a window */
+    private final double[] features;
+
+    /** receives the features */
+    private final Listener listener;
+
+    /** number of windows analyzed and skipped */
+    private long windowCount = 0, skippedCount = 0;
+
+    /**
+     * Creates an analyzer
+     * @param size number of samples per window, a power of two and at least 4
+     * @param hop number of samples between the starts of consecutive windows, from 1 to {@code size}
+     * @param bandEdges edges of the frequency bands in Hz, in increasing order, at least two
+     * @param listener receives the features
+     */
+    SpectralAnalyzer(int size, int hop, double[] bandEdges, Listener listener) {
+        if (hop <= 0 || hop > size) {
+            throw new IllegalArgumentException("Invalid hop: " + hop + " samples for windows of " + size);
+        }
+        if (bandEdges.length < 2) {
+            throw new IllegalArgumentException("At least one band is needed");
+        }
+        for (int b = 0; b < bandEdges.length; b++) {
+            if (!(bandEdges[b] >= 0) || (b > 0 && !(bandEdges[b] > bandEdges[b - 1]))) {
+                throw new IllegalArgumentException("Band edges must be increasing: " + bandEdges[b]);
+            }
+        }
+        this.fft = new RealFft(size);
+        this.size = size;
+        this.hop = hop;
+        this.bandEdges = bandEdges.clone();
+        this.listener = listener;
+        taper = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            taper[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+            sum += taper[i] * taper[i];
+        }
+        taperPower = sum;
+        timestamps = new long[size];
+        values = new float[AXES][size];
+        signal = new double[size];
+        power = new double[size / 2 + 1];
+        // the powers of the bands, then the dominant frequency, for each axis
+        features = new double[AXES * bandEdges.length];
+    }
+
+    /**
+     * Returns the names of the features, in the order in which they are passed to the {@link Listener}:
+     * for each axis, the power of each band, then the dominant frequency
+     * @return the feature names, e.g. {@code ax_power_0.5_3} and {@code ax_dominant_hz}
+     */
+    public String[] getFeatureNames() {
+        String[] names = new String[features.length];
+        int i = 0;
+        for (String axis : AXIS_NAMES) {
+            for (int b = 0; b + 1 < bandEdges.length; b++) {
+                names[i++] = String.format(Locale.US, "%s_power_%s_%s", axis, formatHz(bandEdges[b]),
+                        formatHz(bandEdges[b + 1]));
+            }
+            names[i++] = axis + "_dominant_hz";
+        }
+        return names;
+    }
+
+    private static String formatHz(double hz) {
+        return hz == Math.rint(hz) ? Long.toString((long) hz) : Double.toString(hz);
+    }
+
+    /**
+     * Adds a sample, analyzing a window if one is complete. Must only be called from a single thread.
+     * @param timestamp the sample timestamp, in milliseconds
+     * @param sample array holding the axis values
+     * @param offset index of the first axis value in {@code sample}
+     */
+    public void onSample(long timestamp, float[] sample, int offset) {
+        timestamps[next] = timestamp;
+        for (int axis = 0; axis < AXES; axis++) {
+            values[axis][next] = sample[offset + axis];
+        }
+        next = (next + 1) % size;
+        if (filled < size) {
+            filled++;
+        }
+        sinceWindow++;
+        if (filled == size && sinceWindow >= hop) {
+            sinceWindow = 0;
+            analyze();
+        }
+    }
+
+    /**
+     * Discards the samples received so far, e.g. when the sample rate changes, so that the next
+     * window starts with the next sample. Must be called from the thread adding the samples.
+     */
+    public void reset() {
+        filled = 0;
+        sinceWindow = 0;
+    }
+
+    /**
+     * Analyzes the last {@link #size} samples, whose oldest is at index {@link #next}
+     */
+    private void analyze() {
+        long start = timestamps[next];
+        long end = timestamps[(next + size - 1) % size];
+        double meanInterval = (double) (end - start) / (size - 1);
+        if (!(meanInterval > 0)) {
+            skippedCount++;
+            return;
+        }
+        for (int i = 1; i < size; i++) {
+            long interval = timestamps[(next + i) % size] - timestamps[(next + i - 1) % size];
+            if (interval > MAX_INTERVAL_RATIO * meanInterval || interval < meanInterval / MAX_INTERVAL_RATIO) {
+                skippedCount++;
+                return;
+            }
+        }
+        double rateHz = 1000 / meanInterval;
+        double binHz = rateHz / size;
+        // the powers of both halves of the spectrum are folded into one, except for 0 Hz and Nyquist
+        double scale = 2 / (size * taperPower);
+        int f = 0;
+        for (int axis = 0; axis < AXES; axis++) {
+            float[] axisValues = values[axis];
+            double mean = 0;
+            for (int i = 0; i < size; i++) {
+                mean += axisValues[i];
+            }
+            mean /= size;
+            for (int i = 0; i < size; i++) {
+                signal[i] = (axisValues[(next + i) % size] - mean) * taper[i];
+            }
+            fft.powerSpectrum(signal, power);
+            for (int b = 0; b + 1 < bandEdges.length; b++) {
+                int first = Math.max(1, (int) Math.ceil(bandEdges[b] / binHz));
+                int last = Math.min(size / 2, (int) Math.ceil(bandEdges[b + 1] / binHz) - 1);
+                double bandPower = 0;
+                for (int k = first; k <= last; k++) {
+                    bandPower += k == size / 2 ? power[k] / 2 : power[k];
+                }
+                features[f++] = bandPower * scale;
+            }
+            int dominant = 1;
+            for (int k = 2; k <= size / 2; k++) {
+                if (power[k] > power[dominant]) {
+                    dominant = k;
+                }
+            }
+            features[f++] = dominant * binHz;
+        }
+        windowCount++;
+        listener.onSpectrum(start, end, rateHz, features);
+    }
+
+    /**
+     * @return the number of samples per window
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of samples between the starts of consecutive windows
+     */
+    public int getHop() {
+        return hop;
+    }
+
+    /**
+     * @return the number of windows analyzed so far
+     */
+    public long getWindowCount() {
+        return windowCount;
+    }
+
+    /**
+     * @return the number of windows skipped because of a gap or a change of the sample rate
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+}
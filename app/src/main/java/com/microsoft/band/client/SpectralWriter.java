@@ -0,0 +1,80 @@
+package com.microsoft.band.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Passes samples through a {@link SpectralAnalyzer} and writes the features of each window as a
+ * line of the CSV file {@code <name>_<session>_spectrum.csv}. The first line holds the column
+ * names: the timestamps of the first and last sample of the window, the sample rate measured over
+ * the window and the {@link SpectralAnalyzer#getFeatureNames()}. The analyzer is reset at each
+ * announced change of the sample rate, so that no window mixes two rates.
+ *
+ * @see DeviceRecorder
+ */
+class SpectralWriter extends CsvStage implements SpectralAnalyzer.Listener {
+
+    /** computes the features */
+    private final SpectralAnalyzer analyzer;
+
+    /** numbers of samples after which the sample rate changes, announced by other threads, in order */
+    private final ConcurrentLinkedQueue<Long> rateChanges = new ConcurrentLinkedQueue<>();
+
+    /** number of samples received */
+    private long sampleCount = 0;
+
+    /**
+     * Creates the spectrum file and writes its header line
+     * @param directory directory in which to create the spectrum file
+     * @param name common file name of the device's files
+     * @param session session id, included in the file name
+     * @param size number of samples per window, a power of two
+     * @param hop number of samples between the starts of consecutive windows
+     * @param bandEdges edges of the frequency bands in Hz, in increasing order
+     * @throws IOException if the file could not be created
+     */
+    SpectralWriter(File directory, String name, String session, int size, int hop, double[] bandEdges)
+            throws IOException {
+        super(name + "_" + session + "_spectrum.csv");
+        this.analyzer = new SpectralAnalyzer(size, hop, bandEdges, this);
+        create(directory, "window_start,window_end,rate_hz", analyzer.getFeatureNames());
+    }
+
+    @Override
+    public void setSampleRate(double rateHz, long fromSample) {
+        rateChanges.add(fromSample);
+    }
+
+    @Override
+    protected void process(long timestamp, float[] values, int offset) throws IOException {
+        Long change;
+        while ((change = rateChanges.peek()) != null && change <= sampleCount) {
+            rateChanges.poll();
+            analyzer.reset();
+        }
+        sampleCount++;
+        analyzer.onSample(timestamp, values, offset);
+        throwPendingError();
+    }
+
+    @Override
+    public void onSpectrum(long start, long end, double rateHz, double[] features) {
+        line.setLength(0);
+        line.append(start).append(',').append(end).append(',').append((float) rateHz);
+        for (double feature : features) {
+            line.append(',').append((float) feature);
+        }
+        writeLine();
+    }
+
+    @Override
+    public String getStreamName() {
+        return SessionManifest.SPECTRUM_STREAM;
+    }
+
+    @Override
+    public long getRecordCount() {
+        return analyzer.getWindowCount();
+    }
+}
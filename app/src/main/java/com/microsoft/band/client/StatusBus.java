@@ -0,0 +1,240 @@
+package com.microsoft.band.client;
+
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers the messages of the service, such as status messages, to the bound clients on a single
+ * background thread, so that callers on any thread never block on the clients and never see the
+ * client list change under them. The client registry is copy-on-write: registrations are rare,
+ * deliveries iterate a stable snapshot.
+ * <p>
+ * Status messages are coalesced, so that a burst of identical statuses, e.g. during a reconnect
+ * storm, reaches the clients once: a status equal to one still queued is dropped, and so is a
+ * status equal to the last one delivered less than {@link #REPEAT_WINDOW_MILLIS} ago. At most
+ * {@link #MAX_PENDING} messages are queued; when the clients fall behind, the oldest are dropped.
+ * The numbers of messages delivered, coalesced and dropped and of dead clients removed are counted.
+ * </p>
+ *
+ * @see SensorService
+ */
+class StatusBus implements Runnable {
+
+    /** tag used for debugging purposes */
+    private static final String TAG = StatusBus.class.getName();
+
+    /** maximum number of messages waiting for delivery */
+    static final int MAX_PENDING = 64;
+
+    /** time during which a status identical to the last one delivered is not delivered again */
+    static final long REPEAT_WINDOW_MILLIS = 1000;
+
+    /**
+     * A message waiting for delivery
+     */
+    private static class Pending {
+        /** the message code, one of {@link Constants.MESSAGE} */
+        final int what;
+        /** the message values, shared by the messages sent to all clients */
+        final Bundle data;
+        /** the status text, by which status messages are coalesced, or null for other messages */
+        final String status;
+
+        Pending(int what, Bundle data, String status) {
+            this.what = what;
+            this.data = data;
+            this.status = status;
+        }
+    }
+
+    /** the bound clients */
+    private final CopyOnWriteArrayList<Messenger> clients = new CopyOnWriteArrayList<>();
+
+    /** messages waiting for delivery, guarded by this */
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+    /** the last status delivered and when, from {@link System#nanoTime()}, guarded by this */
+    private String lastStatus;
+    private long lastStatusNanos;
+
+    /** the delivery thread, only non-null while running, guarded by this */
+    private Thread thread;
+
+    /** number of messages sent to clients, of statuses coalesced, of messages dropped and of dead clients removed */
+    private volatile long deliveredCount, coalescedCount, droppedCount, deadClientCount;
+
+    /**
+     * Registers a client
+     * @param messenger receives the messages
+     */
+    public void addClient(Messenger messenger) {
+        clients.addIfAbsent(messenger);
+    }
+
+    /**
+     * Unregisters a client
+     * @param messenger the client's messenger
+     */
+    public void removeClient(Messenger messenger) {
+        clients.remove(messenger);
+    }
+
+    /**
+     * @return a snapshot of the registered clients
+     */
+    public List<Messenger> getClients() {
+        return new ArrayList<>(clients);
+    }
+
+    /**
+     * Queues a status message for all clients, unless it is coalesced with an identical status
+     * @param status the status message
+     */
+    public void postStatus(String status) {
+        Bundle b = new Bundle();
+        b.putString(Constants.KEY.STATUS, status);
+        enqueue(new Pending(Constants.MESSAGE.STATUS, b, status));
+    }
+
+    /**
+     * Queues a message for all clients
+     * @param what the message code, one of {@link Constants.MESSAGE}
+     * @param data the message values
+     */
+    public void post(int what, Bundle data) {
+        enqueue(new Pending(what, data, null));
+    }
+
+    private synchronized void enqueue(Pending message) {
+        if (message.status != null) {
+            if (message.status.equals(lastStatus) && System.nanoTime() - lastStatusNanos < REPEAT_WINDOW_MILLIS * 1000000) {
+                coalescedCount++;
+                return;
+            }
+            for (Pending queued : pending) {
+                if (message.status.equals(queued.status)) {
+                    coalescedCount++;
+                    return;
+                }
+            }
+        }
+        if (pending.size() == MAX_PENDING) {
+            pending.poll();
+            droppedCount++;
+        }
+        pending.add(message);
+        notifyAll();
+    }
+
+    /**
+     * Starts the delivery thread
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "StatusBus");
+            thread.start();
+        }
+    }
+
+    /**
+     * Delivers the queued messages, then stops the delivery thread. Blocks until it has finished.
+     */
+    public void shutdown() {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+            notifyAll();
+        }
+        if (stopping != null) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Pending message;
+            synchronized (this) {
+                while (pending.isEmpty() && thread == Thread.currentThread()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                message = pending.poll();
+                if (message == null) {
+                    return;
+                }
+                if (message.status != null) {
+                    lastStatus = message.status;
+                    lastStatusNanos = System.nanoTime();
+                }
+            }
+            deliver(message);
+        }
+    }
+
+    /**
+     * Sends a message to all clients, removing the dead ones
+     * @param message the message
+     */
+    private void deliver(Pending message) {
+        for (Messenger client : clients) {
+            try {
+                Message msg = Message.obtain(null, message.what);
+                msg.setData(message.data);
+                client.send(msg);
+                deliveredCount++;
+            } catch (RemoteException e) {
+                // the client is dead
+                if (clients.remove(client)) {
+                    deadClientCount++;
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to deliver a message", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages sent to clients so far, counting each client
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * @return the number of status messages coalesced with an identical status so far
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of messages dropped because too many were waiting
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of dead clients removed so far
+     */
+    public long getDeadClientCount() {
+        return deadClientCount;
+    }
+}
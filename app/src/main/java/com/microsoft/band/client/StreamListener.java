@@ -0,0 +1,18 @@
+package com.microsoft.band.client;
+
+/**
+ * Receives records of the low-rate {@link SensorStream}s.
+ *
+ * @see StreamRecorder#onRecord(SensorStream, long, double[])
+ */
+interface StreamListener {
+
+    /**
+     * Called for every record. Records of different streams may be delivered on different threads,
+     * and the values are only valid for the duration of the call.
+     * @param stream the stream of the record
+     * @param timestamp the record timestamp, in milliseconds since the epoch
+     * @param values the {@link SensorStream#getValueCount()} values of the record
+     */
+    void onRecord(SensorStream stream, long timestamp, double[] values);
+}
@@ -0,0 +1,174 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Writes the records of one {@link SensorStream} as CSV into a sequence of segment files, named
+ * like those of the {@link RollingSampleWriter} of the accelerometer/gyroscope samples: segments
+ * are named {@code <name>_<session>_<sequence>.csv}, start with the stream's header line, and are
+ * listed in {@code <name>_<session>_manifest.csv} once closed. Files are only created when the
+ * first record arrives, so streams the Band never delivers leave no files behind.
+ * <p>
+ * Stream records arrive at a few hertz at most, so lines are built with a {@link StringBuilder}
+ * rather than a specialized encoder.
+ * </p>
+ *
+ * @see StreamRecorder
+ */
+class StreamLogWriter {
+
+    /** header line of the manifest; stream records arrive whenever a value changes, so no rate is listed */
+    static final String MANIFEST_HEADER = "segment,first_timestamp,last_timestamp,samples";
+
+    /** directory containing the segments and the manifest */
+    private final File directory;
+
+    /** common prefix of the segment file names: name and session id */
+    private final String prefix;
+
+    /** the stream whose records are written */
+    private final SensorStream stream;
+
+    /** maximum time between the first and last record of a segment, in milliseconds */
+    private final long maxDurationMillis;
+
+    /** reusable buffer for the line being written */
+    private final StringBuilder line = new StringBuilder();
+
+    /** the manifest, null until the first record arrives */
+    private BufferedWriter manifest;
+
+    /** the current segment, null if none is open */
+    private BufferedWriter segment;
+
+    /** file name of the current segment */
+    private String segmentName;
+
+    /** sequence number of the current segment */
+    private int sequence = -1;
+
+    /** number of records in the current segment */
+    private int segmentRecords;
+
+    /** timestamps of the first and last record in the current segment */
+    private long firstTimestamp, lastTimestamp;
+
+    /** total number of records written */
+    private long recordCount = 0;
+
+    /**
+     * Creates a writer; no file is created until the first record is written
+     * @param directory directory in which to create the segments and the manifest
+     * @param name common file name of the stream's files
+     * @param session session id, included in every file name
+     * @param stream the stream whose records are written
+     * @param maxDurationMillis maximum time spanned by a segment, in milliseconds
+     */
+    StreamLogWriter(File directory, String name, String session, SensorStream stream, long maxDurationMillis) {
+        if (maxDurationMillis <= 0) {
+            throw new IllegalArgumentException("Segment duration must be positive");
+        }
+        this.directory = directory;
+        this.prefix = name + "_" + session;
+        this.stream = stream;
+        this.maxDurationMillis = maxDurationMillis;
+    }
+
+    /**
+     * Writes a record
+     * @param timestamp the record timestamp
+     * @param values the {@link SensorStream#getValueCount()} values of the record
+     * @throws IOException if the record could not be written
+     */
+    public void write(long timestamp, double[] values) throws IOException {
+        if (manifest == null) {
+            manifest = new BufferedWriter(new FileWriter(new File(directory, getManifestName())));
+            manifest.write(MANIFEST_HEADER);
+            manifest.newLine();
+            manifest.flush();
+        }
+        if (segment != null && timestamp - firstTimestamp >= maxDurationMillis) {
+            closeSegment();
+        }
+        if (segment == null) {
+            openSegment(timestamp);
+        }
+        line.setLength(0);
+        stream.format(line, timestamp, values);
+        line.append('\n');
+        segment.append(line);
+        lastTimestamp = timestamp;
+        segmentRecords++;
+        recordCount++;
+    }
+
+    /**
+     * Passes the buffered records to the operating system
+     * @throws IOException if the records could not be written
+     */
+    public void flush() throws IOException {
+        if (segment != null) {
+            segment.flush();
+        }
+    }
+
+    /**
+     * Closes the current segment, listing it in the manifest, and closes the manifest
+     * @throws IOException if a file could not be closed
+     */
+    public void close() throws IOException {
+        try {
+            if (segment != null) {
+                closeSegment();
+            }
+        } finally {
+            if (manifest != null) {
+                manifest.close();
+            }
+        }
+    }
+
+    /**
+     * @return the file name of the manifest, relative to the directory of the segments
+     */
+    public String getManifestName() {
+        return prefix + "_manifest.csv";
+    }
+
+    /**
+     * @return the stream whose records are written
+     */
+    public SensorStream getStream() {
+        return stream;
+    }
+
+    /**
+     * @return the number of records written so far
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    private void openSegment(long timestamp) throws IOException {
+        sequence++;
+        segmentName = String.format(Locale.US, "%s_%04d.csv", prefix, sequence);
+        segment = new BufferedWriter(new FileWriter(new File(directory, segmentName)));
+        segment.write(stream.getHeader());
+        segment.newLine();
+        segmentRecords = 0;
+        firstTimestamp = timestamp;
+    }
+
+    private void closeSegment() throws IOException {
+        BufferedWriter closing = segment;
+        segment = null;
+        closing.close();
+        manifest.write(segmentName + "," + firstTimestamp + "," + lastTimestamp + "," + segmentRecords);
+        manifest.newLine();
+        manifest.flush();
+    }
+}
@@ -0,0 +1,245 @@
+package com.microsoft.band.client;
+
+import android.util.Log;
+
+import com.microsoft.band.BandIOException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the low-rate {@link SensorStream}s of one device, each into its own {@link StreamLogWriter}.
+ * Records are copied into a bounded queue on the delivering thread, which may be the same Band SDK
+ * thread that delivers the accelerometer/gyroscope samples, and written by a dedicated thread, so
+ * the low-rate streams never delay the sample path. If the queue is full, records are dropped and
+ * counted rather than blocking the caller.
+ * <p>
+ * The first error writing a log, e.g. because the storage is full or was removed, stops the writing
+ * thread and is reported to the {@link SampleWriterThread.Listener}. Later records are ignored rather
+ * than queued, so that they are not counted as dropped.
+ * </p>
+ *
+ * @see DeviceRecorder
+ */
+class StreamRecorder implements StreamListener, Runnable {
+
+    /** used for debugging purposes */
+    private static final String TAG = StreamRecorder.class.getName();
+
+    /** number of records that can be queued, minutes of data at the rates of the Band's streams */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /** time to wait for a record before checking whether the recorder was stopped */
+    private static final long POLL_MILLIS = 100;
+
+    /** a queued record */
+    private static class Record {
+        final SensorStream stream;
+        final long timestamp;
+        final double[] values;
+
+        Record(SensorStream stream, long timestamp, double[] values) {
+            this.stream = stream;
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+    }
+
+    /** short identifier of the device */
+    private final String name;
+
+    /** the source of the records */
+    private final BandStreamSource source;
+
+    /** queue between the delivering threads and the writing thread */
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** writer of each stream */
+    private final Map<SensorStream, StreamLogWriter> writers = new EnumMap<>(SensorStream.class);
+
+    /** the thread writing the records */
+    private final Thread thread;
+
+    /** cleared to request that the thread stop */
+    private volatile boolean running = true;
+
+    /** number of records dropped because the queue was full */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** receives the failure of a log, or null */
+    private SampleWriterThread.Listener listener;
+
+    /** the first error raised by a writer, or null */
+    private volatile IOException error;
+
+    /**
+     * Creates a recorder; call {@link #start()} to begin recording
+     * @param name short identifier of the device
+     * @param source the source of the records
+     * @param directory directory in which to create the logs
+     * @param fileName common file name of the device's logs, followed by the stream name
+     * @param session session id, included in every file name
+     * @param streams the streams to record
+     * @param maxDurationMillis maximum time spanned by a segment, in milliseconds
+     */
+    StreamRecorder(String name, BandStreamSource source, File directory, String fileName, String session,
+                   Iterable<SensorStream> streams, long maxDurationMillis) {
+        this.name = name;
+        this.source = source;
+        for (SensorStream stream : streams) {
+            writers.put(stream, new StreamLogWriter(directory, fileName + "_" + stream.getFileName(), session,
+                    stream, maxDurationMillis));
+        }
+        this.thread = new Thread(this, "StreamRecorder-" + name);
+    }
+
+    /**
+     * Reports the failure of a log to the given listener. Must be called before {@link #start()}.
+     * @param listener receives the failure, on the writing thread
+     */
+    public void setWriteFailureListener(SampleWriterThread.Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the writing thread, then subscribes to the streams
+     * @return the streams actually subscribed to
+     */
+    public Set<SensorStream> start() {
+        thread.start();
+        return source.start(this);
+    }
+
+    /**
+     * Subscribes to the streams again after the connection of the Band has been restored
+     * @return the streams actually subscribed to
+     */
+    public Set<SensorStream> resubscribe() {
+        return source.start(this);
+    }
+
+    /**
+     * Unsubscribes from the streams, then writes the queued records and closes the logs. Blocks until
+     * the logs are closed.
+     * @throws BandIOException if the Band could not be reached; the logs are closed regardless
+     */
+    public void stop() throws BandIOException {
+        try {
+            stopSource();
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Unsubscribes from the streams, the first half of {@link #stop()}
+     * @throws BandIOException if the Band could not be reached
+     */
+    public void stopSource() throws BandIOException {
+        source.stop();
+    }
+
+    /**
+     * Writes the queued records and closes the logs, once unsubscribed. Blocks until the logs are closed.
+     */
+    public void finish() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onRecord(SensorStream stream, long timestamp, double[] values) {
+        if (!writers.containsKey(stream) || error != null) {
+            return;
+        }
+        if (!queue.offer(new Record(stream, timestamp, values.clone()))) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running || !queue.isEmpty()) {
+                Record record = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (record == null) {
+                    continue;
+                }
+                do {
+                    writers.get(record.stream).write(record.timestamp, record.values);
+                } while ((record = queue.poll()) != null);
+                for (StreamLogWriter writer : writers.values()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write records of " + name, e);
+            error = e;
+            queue.clear();
+            if (listener != null) {
+                listener.onWriteFailed(name, e);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while recording " + name);
+        } finally {
+            for (StreamLogWriter writer : writers.values()) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to close log of " + writer.getStream(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param stream a recorded stream
+     * @return the writer of the stream, for its manifest name and record count
+     */
+    public StreamLogWriter getWriter(SensorStream stream) {
+        return writers.get(stream);
+    }
+
+    /**
+     * @return the total number of records written so far
+     */
+    public long getRecordCount() {
+        long count = 0;
+        for (StreamLogWriter writer : writers.values()) {
+            count += writer.getRecordCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the short identifier of the device
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the first error raised by a writer, or null if the logs were written successfully so far
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
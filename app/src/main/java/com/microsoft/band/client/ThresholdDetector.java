@@ -0,0 +1,67 @@
+package com.microsoft.band.client;
+
+/**
+ * Detects the moments a {@link GestureDetector.Signal} rises above a threshold, e.g. a tap or a jolt.
+ * A gesture is reported on the very sample which crosses the threshold, so the detector adds no
+ * latency. It is then disarmed until the signal falls back below the threshold and a refractory
+ * period has passed, so that one jolt is not reported many times.
+ */
+class ThresholdDetector implements GestureDetector {
+
+    /** name of the detector */
+    private final String name;
+
+    /** the watched signal */
+    private final Signal signal;
+
+    /** value of the signal above which a gesture is reported */
+    private final double threshold;
+
+    /** minimum time between two gestures, in milliseconds */
+    private final long refractoryMillis;
+
+    /** whether the signal has been below the threshold since the last gesture */
+    private boolean armed = true;
+
+    /** timestamp before which no gesture is reported */
+    private long quietUntil = Long.MIN_VALUE;
+
+    /**
+     * Creates a detector
+     * @param name name of the detector, reported with its gestures
+     * @param signal the watched signal
+     * @param threshold value of the signal above which a gesture is reported
+     * @param refractoryMillis minimum time between two gestures, in milliseconds
+     */
+    ThresholdDetector(String name, Signal signal, double threshold, long refractoryMillis) {
+        if (!(threshold > 0) || refractoryMillis < 0) {
+            throw new IllegalArgumentException("Invalid threshold detector: " + threshold + " every " + refractoryMillis + " ms");
+        }
+        this.name = name;
+        this.signal = signal;
+        this.threshold = threshold;
+        this.refractoryMillis = refractoryMillis;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void onSample(long timestamp, float[] values, int offset, Listener listener) {
+        double value = signal.of(values, offset);
+        if (value < threshold) {
+            armed = true;
+        } else if (armed && timestamp >= quietUntil) {
+            armed = false;
+            quietUntil = timestamp + refractoryMillis;
+            listener.onGesture(this, timestamp, timestamp, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + signal + " above " + threshold + ")";
+    }
+}
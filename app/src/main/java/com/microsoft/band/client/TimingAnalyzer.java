@@ -0,0 +1,247 @@
+package com.microsoft.band.client;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Watches the timestamps of a device's samples for gaps and jitter, against the period at which the
+ * source is configured to deliver them. It runs at the head of the {@link DeviceRecorder}'s chain of
+ * stages, on the writer thread, so it sees exactly the samples which reach the logs; samples dropped
+ * by a full {@link SampleRingBuffer} therefore also show as gaps, and are counted separately by the
+ * buffer.
+ * <p>
+ * An interval between two samples longer than {@link #GAP_FACTOR} periods is a gap, of as many
+ * missing samples as periods fit in it, less one. Samples are often delivered in bursts, whose short
+ * intervals make up for the long one which follows; up to {@link #MAX_BURST_SAMPLES} samples
+ * received ahead of schedule are credited against the next long interval, so that a burst is not
+ * taken for a gap. Each gap is recorded in the session's {@link EventLog} as a {@link EventLog#GAP}
+ * event, and a summary as a {@link EventLog#TIMING} event when the stage is closed.
+ * </p>
+ * <p>
+ * The jitter of an interval which is not a gap is its distance to the period. Its percentiles are
+ * taken from a histogram of 1 ms bins, the resolution of the timestamps, so each sample costs a few
+ * operations and nothing is allocated. The statistics may be read from any thread while recording.
+ * </p>
+ *
+ * @see DeviceRecorder
+ */
+class TimingAnalyzer extends SampleStage {
+
+    /** interval, in periods, above which a gap is reported */
+    static final double GAP_FACTOR = 1.5;
+
+    /** maximum number of samples received ahead of schedule which make up for a later long interval */
+    static final double MAX_BURST_SAMPLES = 4;
+
+    /** number of 1 ms bins of the jitter histogram; longer deviations fall in the last bin */
+    private static final int JITTER_BINS = 1000;
+
+    /** a period change which applies from a given sample on */
+    private static class PeriodChange {
+        /** the new period in milliseconds */
+        final double periodMillis;
+        /** number of samples received at the old period */
+        final long fromSample;
+
+        PeriodChange(double periodMillis, long fromSample) {
+            this.periodMillis = periodMillis;
+            this.fromSample = fromSample;
+        }
+    }
+
+    /** short identifier of the device */
+    private final String device;
+
+    /** period changes announced by other threads, in the order of the samples they apply to */
+    private final ConcurrentLinkedQueue<PeriodChange> periodChanges = new ConcurrentLinkedQueue<>();
+
+    /** number of intervals per jitter bin */
+    private final int[] jitterHistogram = new int[JITTER_BINS];
+
+    /** the session's event log, or null */
+    private EventLog eventLog;
+
+    /** the period in effect, in milliseconds, 0 until known */
+    private double periodMillis = 0;
+
+    /** timestamp of the previous sample */
+    private long previousTimestamp;
+
+    /** number of samples received ahead of schedule, not yet credited against a long interval */
+    private double aheadSamples = 0;
+
+    /** number of samples received, of gaps and of samples missing in them */
+    private volatile long sampleCount, gapCount, missingCount;
+
+    /** number of intervals in the jitter histogram */
+    private volatile long jitterCount;
+
+    /** longest jitter and longest gap, in milliseconds */
+    private volatile long maxJitterMillis, maxGapMillis;
+
+    /**
+     * Creates an analyzer
+     * @param device short identifier of the device, with which the gaps are recorded
+     */
+    TimingAnalyzer(String device) {
+        this.device = device;
+    }
+
+    /**
+     * Records the gaps in the given log. Must be called before the first sample.
+     * @param eventLog log of the session's events
+     */
+    void setEventLog(EventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    /**
+     * Announces that samples are taken at a new rate, starting with the given sample. May be called
+     * from any thread, typically the one which switched the rate of the source.
+     * @param rateHz the new number of samples per second
+     * @param fromSample number of samples received at the old rate, e.g. the
+     *                   {@link SampleRingBuffer#getPublishedCount()} of the buffer being drained
+     */
+    @Override
+    public void setSampleRate(double rateHz, long fromSample) {
+        periodChanges.add(new PeriodChange(1000 / rateHz, fromSample));
+    }
+
+    @Override
+    protected void process(long timestamp, float[] values, int offset) throws IOException {
+        long count = sampleCount;
+        double previousPeriod = periodMillis;
+        PeriodChange change;
+        while ((change = periodChanges.peek()) != null && change.fromSample <= count) {
+            periodChanges.poll();
+            periodMillis = change.periodMillis;
+        }
+        sampleCount = count + 1;
+        if (count == 0 || periodMillis == 0) {
+            previousTimestamp = timestamp;
+            return;
+        }
+        if (periodMillis != previousPeriod) {
+            // the interval spanning a rate change belongs to neither period
+            aheadSamples = 0;
+            previousTimestamp = timestamp;
+            return;
+        }
+        long interval = timestamp - previousTimestamp;
+        previousTimestamp = timestamp;
+        double periods = interval / periodMillis;
+        double late = periods - aheadSamples;
+        if (late > GAP_FACTOR) {
+            long missing = Math.round(late) - 1;
+            gapCount++;
+            missingCount += missing;
+            if (interval > maxGapMillis) {
+                maxGapMillis = interval;
+            }
+            aheadSamples = 0;
+            if (eventLog != null) {
+                eventLog.write(timestamp - interval, device, EventLog.GAP, String.format(Locale.US,
+                        "end=%d interval_ms=%d missing=%d", timestamp, interval, missing));
+            }
+            return;
+        }
+        aheadSamples = Math.max(0, Math.min(MAX_BURST_SAMPLES, aheadSamples + 1 - periods));
+        long jitter = Math.round(Math.abs(interval - periodMillis));
+        jitterHistogram[(int) Math.min(jitter, JITTER_BINS - 1)]++;
+        jitterCount++;
+        if (jitter > maxJitterMillis) {
+            maxJitterMillis = jitter;
+        }
+    }
+
+    @Override
+    protected void flushOutput() {
+    }
+
+    @Override
+    protected void syncOutput() {
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        if (eventLog != null && sampleCount > 0) {
+            eventLog.write(previousTimestamp, device, EventLog.TIMING, String.format(Locale.US,
+                    "samples=%d gaps=%d missing=%d max_gap_ms=%d jitter_p50_ms=%d jitter_p99_ms=%d jitter_max_ms=%d",
+                    sampleCount, gapCount, missingCount, maxGapMillis, getJitterPercentile(0.5),
+                    getJitterPercentile(0.99), maxJitterMillis));
+        }
+    }
+
+    @Override
+    public String getStreamName() {
+        return "timing";
+    }
+
+    @Override
+    public String getFileName() {
+        return null;
+    }
+
+    @Override
+    public long getRecordCount() {
+        return gapCount;
+    }
+
+    /**
+     * Returns a percentile of the jitter. The histogram may be updated meanwhile, so a result read
+     * while recording is approximate.
+     * @param fraction the fraction of intervals whose jitter is at most the result, e.g. 0.99
+     * @return the jitter percentile, in whole milliseconds, 0 if no interval was measured
+     */
+    public long getJitterPercentile(double fraction) {
+        long total = jitterCount;
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int bin = 0; bin < JITTER_BINS; bin++) {
+            seen += jitterHistogram[bin];
+            if (seen >= rank) {
+                return bin;
+            }
+        }
+        return JITTER_BINS - 1;
+    }
+
+    /**
+     * @return the number of samples received so far
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return the number of gaps found so far
+     */
+    public long getGapCount() {
+        return gapCount;
+    }
+
+    /**
+     * @return the number of samples missing in the gaps found so far
+     */
+    public long getMissingCount() {
+        return missingCount;
+    }
+
+    /**
+     * @return the longest gap found so far, in milliseconds
+     */
+    public long getMaxGapMillis() {
+        return maxGapMillis;
+    }
+
+    /**
+     * @return the longest jitter of an interval which is not a gap, in milliseconds
+     */
+    public long getMaxJitterMillis() {
+        return maxJitterMillis;
+    }
+}
@@ -0,0 +1,274 @@
+package com.microsoft.band.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a {@link ConnectionSupervisor} with a fake link which drops the connection on a schedule,
+ * with short timings so that each outage takes a fraction of a second.
+ */
+public class ConnectionSupervisorTest {
+
+    private static final long CHECK_MILLIS = 10;
+    private static final long STALL_MILLIS = 50;
+    private static final long BASE_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 800;
+
+    /** longest wait for an expected event */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /** outcome of a reconnection attempt of the fake link */
+    private enum Attempt {
+        /** the device is back and sends samples */
+        OK,
+        /** the device connects but sends no samples */
+        SILENT,
+        /** the device cannot be reached */
+        FAIL
+    }
+
+    /** a device which sends a sample per check and drops its connection after given sample counts */
+    private static class FakeLink implements ConnectionSupervisor.Link {
+        private final Deque<Long> drops = new ArrayDeque<>();
+        private final Deque<Attempt> attempts = new ArrayDeque<>();
+        private boolean connected = true, streaming = true;
+        private long sampleCount = 0;
+        private int reconnectCount = 0;
+        private long firstReconnectNanos;
+
+        FakeLink(long... dropAfter) {
+            for (long count : dropAfter) {
+                drops.add(count);
+            }
+        }
+
+        /** queues the outcomes of the next attempts; attempts beyond them succeed */
+        synchronized void thenAttempts(Attempt... outcomes) {
+            for (Attempt outcome : outcomes) {
+                attempts.add(outcome);
+            }
+        }
+
+        @Override
+        public synchronized boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public synchronized long getSampleCount() {
+            if (connected && streaming) {
+                sampleCount++;
+                if (!drops.isEmpty() && sampleCount >= drops.peek()) {
+                    drops.poll();
+                    connected = false;
+                }
+            }
+            return sampleCount;
+        }
+
+        @Override
+        public synchronized boolean reconnect() throws Exception {
+            if (reconnectCount++ == 0) {
+                firstReconnectNanos = System.nanoTime();
+            }
+            Attempt outcome = attempts.isEmpty() ? Attempt.OK : attempts.poll();
+            if (outcome == Attempt.FAIL) {
+                throw new Exception("unreachable");
+            }
+            connected = true;
+            streaming = outcome == Attempt.OK;
+            return true;
+        }
+
+        synchronized int getReconnectCount() {
+            return reconnectCount;
+        }
+
+        synchronized long getFirstReconnectNanos() {
+            return firstReconnectNanos;
+        }
+    }
+
+    /** an event reported by the supervisor */
+    private static class Event {
+        final String type;
+        final long nanos = System.nanoTime();
+        final int attempt;
+        final long retryMillis;
+        final Exception error;
+        final boolean recovered;
+
+        Event(String type, int attempt, long retryMillis, Exception error, boolean recovered) {
+            this.type = type;
+            this.attempt = attempt;
+            this.retryMillis = retryMillis;
+            this.error = error;
+            this.recovered = recovered;
+        }
+    }
+
+    /** queues the events of the supervisor */
+    private static class RecordingListener implements ConnectionSupervisor.Listener {
+        final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onConnectionLost(ConnectionSupervisor supervisor, long start) {
+            events.add(new Event("lost", 0, 0, null, false));
+        }
+
+        @Override
+        public void onReconnectFailed(ConnectionSupervisor supervisor, int attempt, long retryMillis, Exception error) {
+            events.add(new Event("failed", attempt, retryMillis, error, false));
+        }
+
+        @Override
+        public void onOutage(ConnectionSupervisor supervisor, long start, long end, int attempts, boolean recovered) {
+            events.add(new Event("outage", attempts, 0, null, recovered));
+        }
+
+        Event next(String type) throws InterruptedException {
+            Event event = events.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull("no " + type + " event", event);
+            assertEquals(type, event.type);
+            return event;
+        }
+    }
+
+    /** a random source whose draws are all the same value */
+    private static class FixedRandom extends Random {
+        private static final long serialVersionUID = 1L;
+
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+
+    private ConnectionSupervisor supervisor;
+
+    private ConnectionSupervisor start(FakeLink link, RecordingListener listener) {
+        supervisor = new ConnectionSupervisor("band0", link, listener, CHECK_MILLIS, STALL_MILLIS,
+                BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, new Random(42));
+        supervisor.start();
+        return supervisor;
+    }
+
+    @After
+    public void stopSupervisor() {
+        if (supervisor != null) {
+            supervisor.stop();
+        }
+    }
+
+    @Test
+    public void recoversFromScheduledDrops() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        start(new FakeLink(5, 20), listener);
+        for (int i = 0; i < 2; i++) {
+            listener.next("lost");
+            Event outage = listener.next("outage");
+            assertTrue(outage.recovered);
+            assertEquals(1, outage.attempt);
+        }
+        assertEquals(2, supervisor.getOutageCount());
+        assertEquals(2, supervisor.getAttemptCount());
+    }
+
+    @Test
+    public void firstRetryIsImmediate() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FakeLink link = new FakeLink(3);
+        link.thenAttempts(Attempt.FAIL, Attempt.FAIL);
+        start(link, listener);
+        Event lost = listener.next("lost");
+        Event failed = listener.next("failed");
+        assertEquals(1, failed.attempt);
+        assertNotNull(failed.error);
+        // no backoff before the first attempt, which is at least half the base delay before the second
+        long firstDelayMillis = TimeUnit.NANOSECONDS.toMillis(link.getFirstReconnectNanos() - lost.nanos);
+        assertTrue("first attempt after " + firstDelayMillis + " ms", firstDelayMillis < BASE_BACKOFF_MILLIS / 2);
+        Event second = listener.next("failed");
+        assertEquals(2, second.attempt);
+        long retryMillis = TimeUnit.NANOSECONDS.toMillis(second.nanos - failed.nanos);
+        assertTrue("second attempt after " + retryMillis + " ms", retryMillis >= failed.retryMillis - 1);
+        assertTrue(listener.next("outage").recovered);
+    }
+
+    @Test
+    public void backoffIsJitteredWithinBounds() {
+        ConnectionSupervisor.Listener listener = new RecordingListener();
+        ConnectionSupervisor low = new ConnectionSupervisor("band0", new FakeLink(), listener, CHECK_MILLIS,
+                STALL_MILLIS, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, new FixedRandom(0));
+        ConnectionSupervisor high = new ConnectionSupervisor("band0", new FakeLink(), listener, CHECK_MILLIS,
+                STALL_MILLIS, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, new FixedRandom(0.999999));
+        ConnectionSupervisor jittered = new ConnectionSupervisor("band0", new FakeLink(), listener, CHECK_MILLIS,
+                STALL_MILLIS, BASE_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS, new Random(42));
+        for (int attempt = 1; attempt <= 40; attempt++) {
+            long delay = attempt <= 3 ? BASE_BACKOFF_MILLIS << (attempt - 1) : MAX_BACKOFF_MILLIS;
+            assertEquals(delay / 2, low.getBackoffMillis(attempt));
+            assertEquals(delay - 1, high.getBackoffMillis(attempt));
+            for (int i = 0; i < 100; i++) {
+                long backoff = jittered.getBackoffMillis(attempt);
+                assertTrue(attempt + ": " + backoff, backoff >= delay / 2 && backoff <= delay);
+            }
+        }
+    }
+
+    @Test
+    public void silentReconnectionBacksOffAgain() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FakeLink link = new FakeLink(3);
+        link.thenAttempts(Attempt.SILENT, Attempt.SILENT);
+        start(link, listener);
+        listener.next("lost");
+        // each silent reconnection is only a failure once the stall timeout has passed without samples
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            Event failed = listener.next("failed");
+            assertEquals(attempt, failed.attempt);
+            assertNull(failed.error);
+            assertTrue(failed.retryMillis >= (BASE_BACKOFF_MILLIS << (attempt - 1)) / 2);
+        }
+        Event outage = listener.next("outage");
+        assertTrue(outage.recovered);
+        assertEquals(3, outage.attempt);
+        assertEquals(3, link.getReconnectCount());
+        assertEquals(1, supervisor.getOutageCount());
+    }
+
+    @Test
+    public void stopReportsOutageInProgress() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FakeLink link = new FakeLink(3);
+        link.thenAttempts(Attempt.FAIL, Attempt.FAIL, Attempt.FAIL, Attempt.FAIL);
+        start(link, listener);
+        listener.next("lost");
+        listener.next("failed");
+        supervisor.stop();
+        Event outage = listener.next("outage");
+        assertFalse(outage.recovered);
+        assertEquals(1, outage.attempt);
+        int reconnects = link.getReconnectCount();
+        Thread.sleep(2 * BASE_BACKOFF_MILLIS);
+        assertEquals(reconnects, link.getReconnectCount());
+        assertTrue(listener.events.isEmpty());
+    }
+}
@@ -0,0 +1,66 @@
+package com.microsoft.band.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the segments of a {@link MappedSampleWriter} which was never closed, as after the
+ * application is killed, read back as the samples written and nothing more.
+ */
+public class MappedSampleWriterTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int SAMPLES = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static float[] values(int sample) {
+        float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sample * 0.5f - i;
+        }
+        return values;
+    }
+
+    private void assertRecovered(SampleFormat format) throws IOException {
+        MappedSampleWriter writer = new MappedSampleWriter(folder.getRoot(), "sensor_data", format, SEGMENT_SIZE);
+        for (int n = 0; n < SAMPLES; n++) {
+            writer.write(1447866000000L + n * 16, values(n), 0);
+        }
+        // the writer is abandoned without being closed, so the segment keeps its preallocated zeros
+        File segment = writer.getSegmentFile(0);
+        assertEquals(SEGMENT_SIZE, segment.length());
+
+        SampleReader reader = SampleLogConverter.open(segment);
+        try {
+            for (int n = 0; n < SAMPLES; n++) {
+                assertTrue(reader.next());
+                assertEquals(1447866000000L + n * 16, reader.getTimestamp());
+                assertArrayEquals(values(n), reader.getValues(), 0);
+            }
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void binarySegmentEndsAtZeroTail() throws IOException {
+        assertRecovered(SampleFormat.BINARY);
+    }
+
+    @Test
+    public void csvSegmentEndsAtZeroTail() throws IOException {
+        assertRecovered(SampleFormat.CSV);
+    }
+}
@@ -0,0 +1,51 @@
+package com.microsoft.band.client;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the power spectrum of a {@link RealFft} against a direct evaluation of the discrete
+ * Fourier transform.
+ */
+public class RealFftTest {
+
+    /** squared magnitude of bin k of the DFT of a signal, computed term by term */
+    private static double naivePower(double[] signal, int k) {
+        double re = 0, im = 0;
+        for (int n = 0; n < signal.length; n++) {
+            double angle = 2 * Math.PI * k * n / signal.length;
+            re += signal[n] * Math.cos(angle);
+            im -= signal[n] * Math.sin(angle);
+        }
+        return re * re + im * im;
+    }
+
+    @Test
+    public void matchesNaiveDft() {
+        Random random = new Random(1);
+        for (int size = 4; size <= 256; size *= 2) {
+            RealFft fft = new RealFft(size);
+            double[] signal = new double[size];
+            for (int n = 0; n < size; n++) {
+                signal[n] = random.nextDouble() * 2 - 1;
+            }
+            double[] copy = signal.clone();
+            double[] power = new double[size / 2 + 1];
+            fft.powerSpectrum(signal, power);
+            for (int k = 0; k <= size / 2; k++) {
+                assertEquals("bin " + k + " of " + size, naivePower(signal, k), power[k], 1e-9);
+            }
+            for (int n = 0; n < size; n++) {
+                assertEquals(copy[n], signal[n], 0);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSizeWhichIsNotPowerOfTwo() {
+        new RealFft(96);
+    }
+}
@@ -0,0 +1,196 @@
+package com.microsoft.band.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the grid a {@link Resampler} outputs and the values it interpolates, across jitter, gaps
+ * and out-of-order timestamps.
+ */
+public class ResamplerTest {
+
+    /** a multiple of the grid period at every rate used here */
+    private static final long EPOCH = 1447866000000L;
+
+    private static final double RATE_HZ = 50;
+    private static final long PERIOD_MILLIS = 20;
+
+    /** keeps the samples it receives */
+    private static class CollectingWriter implements SampleWriter {
+        final List<Long> timestamps = new ArrayList<>();
+        final List<float[]> values = new ArrayList<>();
+
+        @Override
+        public void write(long timestamp, float[] values, int offset) {
+            timestamps.add(timestamp);
+            float[] copy = new float[SampleEncoder.VALUES_PER_SAMPLE];
+            System.arraycopy(values, offset, copy, 0, copy.length);
+            this.values.add(copy);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** values of a ramp, which both interpolations reproduce exactly, at a time since the epoch */
+    private static float[] ramp(long time) {
+        float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = time * 0.01f * (i + 1) - i;
+        }
+        return values;
+    }
+
+    private static void assertRamp(CollectingWriter output) {
+        for (int k = 0; k < output.timestamps.size(); k++) {
+            float[] expected = ramp(output.timestamps.get(k) - EPOCH);
+            float[] actual = output.values.get(k);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals("at " + output.timestamps.get(k), expected[i], actual[i], 1e-3f);
+            }
+        }
+    }
+
+    private void assertJitteredRamp(Resampler.Interpolation interpolation) throws Exception {
+        CollectingWriter output = new CollectingWriter();
+        Resampler resampler = new Resampler(RATE_HZ, interpolation, Resampler.DEFAULT_MAX_GAP_MILLIS, output);
+        // samples every 16 ms, each late by up to 6 ms
+        Random random = new Random(1);
+        long first = 3, last = 0;
+        for (int n = 0; n < 1000; n++) {
+            last = n == 0 ? first : n * 16 + random.nextInt(7);
+            resampler.write(EPOCH + last, ramp(last), 0);
+        }
+        resampler.close();
+
+        // every grid point from the first sample to the last, exactly once
+        long from = (first + PERIOD_MILLIS - 1) / PERIOD_MILLIS * PERIOD_MILLIS;
+        long to = last / PERIOD_MILLIS * PERIOD_MILLIS;
+        assertEquals((to - from) / PERIOD_MILLIS + 1, output.timestamps.size());
+        for (int k = 0; k < output.timestamps.size(); k++) {
+            assertEquals(EPOCH + from + k * PERIOD_MILLIS, (long) output.timestamps.get(k));
+        }
+        assertEquals(output.timestamps.size(), resampler.getOutputCount());
+        assertEquals(1000, resampler.getInputCount());
+        assertEquals(0, resampler.getSkippedCount());
+        assertRamp(output);
+    }
+
+    @Test
+    public void linearReproducesRampOnExactGrid() throws Exception {
+        assertJitteredRamp(Resampler.Interpolation.LINEAR);
+    }
+
+    @Test
+    public void cubicReproducesRampOnExactGrid() throws Exception {
+        assertJitteredRamp(Resampler.Interpolation.CUBIC);
+    }
+
+    private void assertGapLeft(Resampler.Interpolation interpolation) throws Exception {
+        CollectingWriter output = new CollectingWriter();
+        Resampler resampler = new Resampler(RATE_HZ, interpolation, 100, output);
+        long time = 0;
+        for (; time <= 1008; time += 16) {
+            resampler.write(EPOCH + time, ramp(time), 0);
+        }
+        long before = time - 16, after = before + 101;
+        for (time = after; time < after + 1000; time += 16) {
+            resampler.write(EPOCH + time, ramp(time), 0);
+        }
+        resampler.close();
+
+        boolean resumed = false;
+        for (long timestamp : output.timestamps) {
+            assertTrue("interpolated across the gap at " + timestamp,
+                    timestamp < EPOCH + before || timestamp >= EPOCH + after);
+            if (timestamp >= EPOCH + after) {
+                // the first grid point after the gap
+                assertEquals(EPOCH + (after + PERIOD_MILLIS - 1) / PERIOD_MILLIS * PERIOD_MILLIS, timestamp);
+                resumed = true;
+                break;
+            }
+        }
+        assertTrue(resumed);
+        assertRamp(output);
+    }
+
+    @Test
+    public void linearLeavesGap() throws Exception {
+        assertGapLeft(Resampler.Interpolation.LINEAR);
+    }
+
+    @Test
+    public void cubicLeavesGap() throws Exception {
+        assertGapLeft(Resampler.Interpolation.CUBIC);
+    }
+
+    @Test
+    public void skipsNonIncreasingTimestamps() throws Exception {
+        CollectingWriter output = new CollectingWriter();
+        Resampler resampler = new Resampler(RATE_HZ, Resampler.Interpolation.CUBIC,
+                Resampler.DEFAULT_MAX_GAP_MILLIS, output);
+        float[] wild = new float[SampleEncoder.VALUES_PER_SAMPLE];
+        for (int i = 0; i < wild.length; i++) {
+            wild[i] = 1e6f;
+        }
+        for (long time = 0; time <= 400; time += 16) {
+            resampler.write(EPOCH + time, ramp(time), 0);
+            if (time == 160) {
+                // a repeated and an earlier timestamp
+                resampler.write(EPOCH + time, wild, 0);
+                resampler.write(EPOCH + time - 40, wild, 0);
+            }
+        }
+        resampler.close();
+
+        assertEquals(28, resampler.getInputCount());
+        assertEquals(2, resampler.getSkippedCount());
+        assertEquals(400 / PERIOD_MILLIS + 1, output.timestamps.size());
+        assertRamp(output);
+    }
+
+    private void assertPointOnLastSample(Resampler.Interpolation interpolation) throws Exception {
+        CollectingWriter output = new CollectingWriter();
+        Resampler resampler = new Resampler(RATE_HZ, interpolation, Resampler.DEFAULT_MAX_GAP_MILLIS, output);
+        for (long time = 0; time <= 200; time += PERIOD_MILLIS) {
+            resampler.write(EPOCH + time, ramp(time), 0);
+        }
+        // the point on the last sample waits for a later sample, which never comes
+        assertTrue(output.timestamps.get(output.timestamps.size() - 1) < EPOCH + 200);
+        resampler.finish();
+
+        assertEquals(200 / PERIOD_MILLIS + 1, output.timestamps.size());
+        assertEquals(EPOCH + 200, (long) output.timestamps.get(output.timestamps.size() - 1));
+        float[] expected = ramp(200);
+        float[] actual = output.values.get(output.values.size() - 1);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0);
+        }
+        assertRamp(output);
+    }
+
+    @Test
+    public void linearFinishOutputsPointOnLastSample() throws Exception {
+        assertPointOnLastSample(Resampler.Interpolation.LINEAR);
+    }
+
+    @Test
+    public void cubicFinishOutputsPointOnLastSample() throws Exception {
+        assertPointOnLastSample(Resampler.Interpolation.CUBIC);
+    }
+}
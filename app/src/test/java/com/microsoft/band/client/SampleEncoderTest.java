@@ -0,0 +1,115 @@
+package com.microsoft.band.client;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link SampleEncoder} prints exactly what {@link Float#toString(float)} and
+ * {@link Long#toString(long)} print, which every CSV log depends on, and that it allocates nothing
+ * once warmed up.
+ */
+public class SampleEncoderTest {
+
+    /** bit patterns of the smallest and largest floats whose formatting must match {@link Float#toString(float)} */
+    private static final int EXACT_LOW = Float.floatToIntBits(1e-4f), EXACT_HIGH = Float.floatToIntBits(1e7f);
+
+    private final SampleEncoder encoder = new SampleEncoder();
+    private final char[] buffer = new char[SampleEncoder.MAX_SAMPLE_LENGTH];
+
+    private String format(float value) {
+        return new String(buffer, 0, encoder.writeFloat(value, buffer, 0));
+    }
+
+    @Test
+    public void matchesFloatToStringAcrossSensorRange() {
+        // an odd stride visits every exponent and a spread of mantissas, including both ends
+        for (long bits = EXACT_LOW; bits <= EXACT_HIGH; bits += 97) {
+            float value = Float.intBitsToFloat((int) bits);
+            assertEquals(Float.toString(value), format(value));
+            assertEquals(Float.toString(-value), format(-value));
+        }
+        assertEquals(Float.toString(1e7f), format(1e7f));
+    }
+
+    @Test
+    public void matchesFloatToStringOnTypicalValues() {
+        float[] values = {0f, -0f, 1f, -1f, 0.1f, 9.80665f, 0.001f, 1234567f, 8f, 2000f, -1.5e-3f, 1e-4f,
+                9999999f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (float value : values) {
+            assertEquals(Float.toString(value), format(value));
+        }
+        // what the sensors actually deliver: accelerations in g and angular velocities in degrees/s
+        Random random = new Random(1);
+        for (int i = 0; i < 1000000; i++) {
+            float value = (random.nextFloat() - 0.5f) * (i % 2 == 0 ? 16 : 4000);
+            assertEquals(Float.toString(value), format(value));
+        }
+    }
+
+    @Test
+    public void printsShortestRoundTripOutsideSensorRange() {
+        Random random = new Random(2);
+        for (int i = 0; i < 1000000; i++) {
+            float value = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(value)) {
+                continue;
+            }
+            String formatted = format(value);
+            assertEquals(formatted, Float.floatToIntBits(value), Float.floatToIntBits(Float.parseFloat(formatted)));
+            assertTrue(formatted, formatted.length() <= Float.toString(value).length());
+        }
+        for (float value : new float[]{Float.MIN_VALUE, Float.MAX_VALUE, Float.MIN_NORMAL}) {
+            assertEquals(value, Float.parseFloat(format(value)), 0);
+        }
+    }
+
+    @Test
+    public void encodesSampleLikeJoin() {
+        float[] values = {0.5f, -1.25f, 9.80665f, 120.5f, -0.001f, 0f, 7f};
+        long[] timestamps = {0, 1447866000000L, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long timestamp : timestamps) {
+            StringBuilder expected = new StringBuilder(Long.toString(timestamp));
+            for (int i = 1; i <= SampleEncoder.VALUES_PER_SAMPLE; i++) {
+                expected.append(',').append(Float.toString(values[i]));
+            }
+            expected.append('\n');
+            int length = encoder.encode(timestamp, values, 1);
+            assertEquals(expected.toString(), new String(encoder.getBuffer(), 0, length));
+        }
+    }
+
+    @Test
+    public void allocatesNothingOnceWarmedUp() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        Random random = new Random(3);
+        float[] pool = new float[1000 * SampleEncoder.VALUES_PER_SAMPLE];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = (random.nextFloat() - 0.5f) * 500;
+        }
+        long timestamp = 1447866000000L;
+        int checksum = 0;
+        for (int i = 0; i < 200000; i++) {
+            checksum += encoder.encode(timestamp + i * 16, pool, (i % 1000) * SampleEncoder.VALUES_PER_SAMPLE);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000000; i++) {
+            checksum += encoder.encode(timestamp + i * 16, pool, (i % 1000) * SampleEncoder.VALUES_PER_SAMPLE);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertTrue(checksum > 0);
+        // the measurement itself may allocate a few bytes, a million samples may not
+        assertTrue(allocated + " bytes allocated by 1000000 samples", allocated < 1024);
+    }
+}
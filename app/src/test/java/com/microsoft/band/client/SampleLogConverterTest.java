@@ -0,0 +1,92 @@
+package com.microsoft.band.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link SampleLogConverter#open(File)} reads back the logs of every format, as
+ * written by the recorder, plain or compressed in gzip blocks.
+ */
+public class SampleLogConverterTest {
+
+    private static final int SAMPLES = 10000;
+
+    /** samples between flushes, each of which completes a gzip member */
+    private static final int FLUSH_SAMPLES = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static float[] values(int sample) {
+        float[] values = new float[SampleEncoder.VALUES_PER_SAMPLE];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) Math.sin(sample * 0.01 + i) * (i < 3 ? 2 : 500);
+        }
+        return values;
+    }
+
+    private static void write(SampleWriter writer) throws IOException {
+        try {
+            for (int n = 0; n < SAMPLES; n++) {
+                writer.write(1447866000000L + n * 16, values(n), 0);
+                if ((n + 1) % FLUSH_SAMPLES == 0) {
+                    writer.flush();
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void assertSamples(File file) throws IOException {
+        SampleReader reader = SampleLogConverter.open(file);
+        try {
+            for (int n = 0; n < SAMPLES; n++) {
+                assertTrue(reader.next());
+                assertEquals(1447866000000L + n * 16, reader.getTimestamp());
+                assertArrayEquals(values(n), reader.getValues(), 0);
+            }
+            assertFalse(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void assertGzipRoundTrip(SampleFormat format) throws IOException {
+        File file = folder.newFile("sensor_data" + format.getExtension() + ".gz");
+        write(FileUtil.openGzipSampleWriter(file, format, 6, new CompressionStats()));
+        assertSamples(file);
+    }
+
+    @Test
+    public void readsGzipCsv() throws IOException {
+        assertGzipRoundTrip(SampleFormat.CSV);
+    }
+
+    @Test
+    public void readsGzipBinary() throws IOException {
+        assertGzipRoundTrip(SampleFormat.BINARY);
+    }
+
+    @Test
+    public void readsGzipCompressed() throws IOException {
+        assertGzipRoundTrip(SampleFormat.COMPRESSED);
+    }
+
+    @Test
+    public void readsPlainCsv() throws IOException {
+        File file = folder.newFile("sensor_data.csv");
+        write(new CsvSampleWriter(new FileOutputStream(file)));
+        assertSamples(file);
+    }
+}
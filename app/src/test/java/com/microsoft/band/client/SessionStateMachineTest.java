@@ -0,0 +1,122 @@
+package com.microsoft.band.client;
+
+import android.content.Intent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a {@link SessionStateMachine} with a session which only records its transitions.
+ */
+public class SessionStateMachineTest {
+
+    /** longest wait for the session thread */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /** records the transitions, and signals each idle state without a pending request; connecting takes a while */
+    private static class RecordingSession implements SessionStateMachine.Session {
+        final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch idle = new CountDownLatch(1);
+
+        @Override
+        public boolean connect(Intent intent) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            transitions.add("connect");
+            return true;
+        }
+
+        @Override
+        public void stopStreaming() {
+            transitions.add("stop");
+        }
+
+        @Override
+        public void flush() {
+            transitions.add("flush");
+        }
+
+        @Override
+        public void onStateChanged(SessionStateMachine.State state, boolean recordingRequested) {
+            if (state == SessionStateMachine.State.IDLE && !recordingRequested) {
+                idle.countDown();
+            }
+        }
+    }
+
+    /** counts down a latch when run */
+    private static class Signal implements Runnable {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void burstOfRequestsCostsAtMostOneSession() throws Exception {
+        RecordingSession session = new RecordingSession();
+        SessionStateMachine machine = new SessionStateMachine(session);
+        Intent intent = new Intent();
+        for (int i = 0; i < 5; i++) {
+            machine.requestStart(intent);
+            machine.requestStart(intent);
+            machine.requestStop();
+        }
+        assertTrue(session.idle.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Signal last = new Signal();
+        machine.shutdown(last);
+        assertTrue(last.await());
+        // the presses all arrive before the session thread runs or while it connects, so the burst
+        // ends with nothing recorded or with a session stopped right after it has started
+        List<String> transitions = new ArrayList<>(session.transitions);
+        assertTrue(transitions.toString(), transitions.isEmpty()
+                || transitions.equals(Arrays.asList("connect", "stop", "flush")));
+        assertEquals(SessionStateMachine.State.IDLE, machine.getState());
+    }
+
+    @Test
+    public void requestsAfterShutdownAreIgnored() throws Exception {
+        RecordingSession session = new RecordingSession();
+        SessionStateMachine machine = new SessionStateMachine(session);
+        assertTrue(machine.requestStart(new Intent()));
+        Signal last = new Signal();
+        machine.shutdown(last);
+        assertFalse(machine.requestStart(new Intent()));
+        assertFalse(machine.requestStop());
+        machine.shutdown(new Signal());
+        assertTrue(last.await());
+        assertEquals(SessionStateMachine.State.IDLE, machine.getState());
+    }
+
+    @Test
+    public void tasksAfterShutdownAreDropped() throws Exception {
+        SessionStateMachine machine = new SessionStateMachine(new RecordingSession());
+        Signal before = new Signal(), after = new Signal(), last = new Signal();
+        machine.getExecutor().execute(before);
+        machine.shutdown(last);
+        // e.g. a rate switch decided while the sources are still delivering samples
+        machine.getExecutor().execute(after);
+        assertTrue(before.await());
+        assertTrue(last.await());
+        assertEquals(1, after.latch.getCount());
+    }
+}
@@ -0,0 +1,95 @@
+package com.microsoft.band.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the windows a {@link SpectralAnalyzer} analyzes and the features it computes.
+ */
+public class SpectralAnalyzerTest {
+
+    private static final int SIZE = 128;
+
+    /** records the rate of each analyzed window, and the features of the last one */
+    private static class RecordingListener implements SpectralAnalyzer.Listener {
+        final List<Double> rates = new ArrayList<>();
+        double[] last;
+
+        @Override
+        public void onSpectrum(long start, long end, double rateHz, double[] features) {
+            rates.add(rateHz);
+            last = features.clone();
+        }
+    }
+
+    /** adds samples of a 5 Hz sine on every axis, at the given period, and returns the next timestamp */
+    private static long addSamples(SpectralAnalyzer analyzer, long timestamp, int count, long periodMillis) {
+        float[] sample = new float[SampleEncoder.VALUES_PER_SAMPLE];
+        for (int n = 0; n < count; n++) {
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = (float) Math.sin(2 * Math.PI * 5 * timestamp / 1000.0);
+            }
+            analyzer.onSample(timestamp, sample, 0);
+            timestamp += periodMillis;
+        }
+        return timestamp;
+    }
+
+    @Test
+    public void sinePowerIsInItsBand() {
+        RecordingListener listener = new RecordingListener();
+        SpectralAnalyzer analyzer = new SpectralAnalyzer(SIZE, SIZE, SpectralAnalyzer.DEFAULT_BAND_EDGES, listener);
+        addSamples(analyzer, 1447866000000L, SIZE, 16);
+        assertEquals(1, analyzer.getWindowCount());
+        assertEquals(62.5, listener.rates.get(0), 1e-9);
+        // bands 0.5-3, 3-8, 8-12 and 12-20 Hz, then the dominant frequency, on every axis
+        int features = SpectralAnalyzer.DEFAULT_BAND_EDGES.length;
+        double binHz = 62.5 / SIZE;
+        for (int axis = 0; axis < SampleEncoder.VALUES_PER_SAMPLE; axis++) {
+            double[] bands = new double[features - 1];
+            System.arraycopy(listener.last, axis * features, bands, 0, bands.length);
+            // a unit sine has a mean square of 1/2
+            assertEquals(0.5, bands[1], 0.05);
+            assertTrue(bands[0] + bands[2] + bands[3] < 0.05);
+            assertEquals(5, listener.last[axis * features + features - 1], binHz);
+        }
+    }
+
+    @Test
+    public void skipsWindowSpanningRateIncrease() {
+        RecordingListener listener = new RecordingListener();
+        SpectralAnalyzer analyzer = new SpectralAnalyzer(SIZE, SIZE, SpectralAnalyzer.DEFAULT_BAND_EDGES, listener);
+        // a switch from SamplePeriod.MS128 to SamplePeriod.MS16 within the window
+        long timestamp = addSamples(analyzer, 1447866000000L, 120, 128);
+        addSamples(analyzer, timestamp, 8, 16);
+        assertEquals(0, analyzer.getWindowCount());
+        assertEquals(1, analyzer.getSkippedCount());
+    }
+
+    @Test
+    public void skipsWindowSpanningRateDecrease() {
+        RecordingListener listener = new RecordingListener();
+        SpectralAnalyzer analyzer = new SpectralAnalyzer(SIZE, SIZE, SpectralAnalyzer.DEFAULT_BAND_EDGES, listener);
+        long timestamp = addSamples(analyzer, 1447866000000L, 120, 16);
+        addSamples(analyzer, timestamp, 8, 128);
+        assertEquals(0, analyzer.getWindowCount());
+        assertEquals(1, analyzer.getSkippedCount());
+    }
+
+    @Test
+    public void resetStartsWindowAtRateChange() {
+        RecordingListener listener = new RecordingListener();
+        SpectralAnalyzer analyzer = new SpectralAnalyzer(SIZE, SIZE / 2, SpectralAnalyzer.DEFAULT_BAND_EDGES, listener);
+        long timestamp = addSamples(analyzer, 1447866000000L, 120, 128);
+        analyzer.reset();
+        addSamples(analyzer, timestamp, SIZE, 16);
+        assertEquals(1, analyzer.getWindowCount());
+        assertEquals(0, analyzer.getSkippedCount());
+        assertEquals(62.5, listener.rates.get(0), 1e-9);
+    }
+}
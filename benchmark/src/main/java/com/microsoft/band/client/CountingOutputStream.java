@@ -0,0 +1,30 @@
+package com.microsoft.band.client;
+
+import java.io.OutputStream;
+
+/**
+ * Output stream which discards its data and counts the bytes, so that the benchmarks measure the
+ * cost of encoding and buffering rather than that of the storage device.
+ */
+class CountingOutputStream extends OutputStream {
+
+    /** number of bytes written so far */
+    private long count = 0;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,67 @@
+package com.microsoft.band.client;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * The original sample write path of {@link SensorService}, kept as the benchmark baseline: each
+ * sample is boxed into an {@code Object[]}, joined with commas as
+ * {@code android.text.TextUtils#join(CharSequence, Object[])} does, and written with a trailing
+ * newline to a {@link BufferedWriter}, as {@code FileUtil.writeToFile(String, BufferedWriter)} does.
+ */
+class LegacyCsvWriter implements SampleWriter {
+
+    /** the writer returned by {@code FileUtil.getFileWriter(String)} */
+    private final BufferedWriter out;
+
+    /**
+     * Creates a writer
+     * @param out the output stream
+     */
+    LegacyCsvWriter(OutputStream out) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out));
+    }
+
+    @Override
+    public void write(long timestamp, float[] values, int offset) throws IOException {
+        Object[] data = new Object[]{timestamp,
+                values[offset], values[offset + 1], values[offset + 2],
+                values[offset + 3], values[offset + 4], values[offset + 5]};
+        String sample = join(",", data);
+        out.write(sample + "\n");
+    }
+
+    /**
+     * Same implementation as {@code android.text.TextUtils#join(CharSequence, Object[])}
+     */
+    static String join(CharSequence delimiter, Object[] tokens) {
+        StringBuilder sb = new StringBuilder();
+        boolean firstTime = true;
+        for (Object token : tokens) {
+            if (firstTime) {
+                firstTime = false;
+            } else {
+                sb.append(delimiter);
+            }
+            sb.append(token);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void sync() throws IOException {
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,62 @@
+package com.microsoft.band.client;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic accelerometer/gyroscope samples for the benchmarks. The signals resemble
+ * Band data at 62.5 Hz: timestamps advance by 16 ms with occasional jitter, and the axis values come
+ * from a {@link SimulatedSampleSource.SyntheticSignal}.
+ */
+class SampleData {
+
+    /** timestamp of the first sample, in milliseconds */
+    private static final long START_TIMESTAMP = 1447866000000L;
+
+    /** timestamp of each sample */
+    private final long[] timestamps;
+
+    /** axis values of each sample, {@link SampleEncoder#VALUES_PER_SAMPLE} per sample */
+    private final float[] values;
+
+    /**
+     * Generates a data set
+     * @param count the number of samples
+     * @param seed seed of the noise, so that runs can be compared
+     */
+    SampleData(int count, long seed) {
+        Random random = new Random(seed);
+        SimulatedSampleSource.Signal signal = new SimulatedSampleSource.SyntheticSignal(62.5, seed);
+        float[] sample = new float[SampleEncoder.VALUES_PER_SAMPLE];
+        timestamps = new long[count];
+        values = new float[count * SampleEncoder.VALUES_PER_SAMPLE];
+        long timestamp = START_TIMESTAMP;
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = timestamp;
+            timestamp += random.nextInt(20) == 0 ? 15 + random.nextInt(3) : 16;
+            signal.next(sample);
+            System.arraycopy(sample, 0, values, i * SampleEncoder.VALUES_PER_SAMPLE, SampleEncoder.VALUES_PER_SAMPLE);
+        }
+    }
+
+    /**
+     * @return the number of samples
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * @param index index of a sample
+     * @return the timestamp of the sample
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @return the axis values of all samples, {@link SampleEncoder#VALUES_PER_SAMPLE} per sample
+     */
+    public float[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,74 @@
+package com.microsoft.band.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading back one sample of a binary or compressed log held in memory, in ns/sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleDecodeBenchmark {
+
+    /** number of samples in the log */
+    private static final int SAMPLE_COUNT = 65536;
+
+    /** the log formats being compared; {@link SampleFormat} cannot be used as it is not public */
+    public enum Input {
+        /** {@link BinarySampleReader} */
+        BINARY,
+        /** {@link CompressedSampleReader} */
+        COMPRESSED
+    }
+
+    @Param({"BINARY", "COMPRESSED"})
+    public Input input;
+
+    private byte[] log;
+
+    @Setup
+    public void writeLog() throws IOException {
+        SampleData data = new SampleData(SAMPLE_COUNT, 42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SampleWriter writer = input == Input.COMPRESSED
+                ? new CompressedSampleWriter(out) : new BinarySampleWriter(out);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            writer.write(data.getTimestamp(i), data.getValues(), i * SampleEncoder.VALUES_PER_SAMPLE);
+        }
+        writer.close();
+        log = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_COUNT)
+    public long readLog() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(log);
+        SampleReader reader = input == Input.COMPRESSED
+                ? new CompressedSampleReader(in) : new BinarySampleReader(in);
+        long checksum = 0;
+        while (reader.next()) {
+            checksum += reader.getTimestamp() + Float.floatToRawIntBits(reader.getValues()[0]);
+        }
+        reader.close();
+        return checksum;
+    }
+}
@@ -0,0 +1,65 @@
+package com.microsoft.band.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting one sample as a CSV line, without any I/O: the original boxing and joining
+ * versus {@link SampleEncoder}. The score is in ns/sample; with the GC profiler,
+ * {@code gc.alloc.rate.norm} is the number of bytes allocated per sample.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleEncodeBenchmark {
+
+    /** number of distinct samples formatted over and over */
+    @Param({"4096", "65536"})
+    public int sampleCount;
+
+    private SampleData data;
+    private final SampleEncoder encoder = new SampleEncoder();
+    private int next = 0;
+
+    @Setup
+    public void generate() {
+        data = new SampleData(sampleCount, 42);
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == sampleCount ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public String legacyJoin() {
+        int index = nextIndex();
+        float[] values = data.getValues();
+        int offset = index * SampleEncoder.VALUES_PER_SAMPLE;
+        Object[] sample = new Object[]{data.getTimestamp(index),
+                values[offset], values[offset + 1], values[offset + 2],
+                values[offset + 3], values[offset + 4], values[offset + 5]};
+        return LegacyCsvWriter.join(",", sample) + "\n";
+    }
+
+    @Benchmark
+    public int encoder() {
+        int index = nextIndex();
+        return encoder.encode(data.getTimestamp(index), data.getValues(), index * SampleEncoder.VALUES_PER_SAMPLE);
+    }
+}
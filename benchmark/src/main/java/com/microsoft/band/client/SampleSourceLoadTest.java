@@ -0,0 +1,138 @@
+package com.microsoft.band.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the recording pipeline without hardware: several {@link SimulatedSampleSource}s, each
+ * feeding its own {@link SampleRingBuffer} which is drained into a {@link SampleWriter} by its own
+ * thread, as in {@link SensorService}. The rate is doubled after every step until some device drops
+ * samples, which finds the maximum sustainable rate per device.
+ * <p>
+ * Usage: {@code SampleSourceLoadTest [devices] [start rate in Hz] [seconds per step] [format] [directory]}.
+ * Without a directory, the output is discarded, so that only the encoding cost is measured. The
+ * drain loop mirrors that of {@link SampleWriterThread}, which cannot run outside of Android.
+ * </p>
+ */
+public class SampleSourceLoadTest {
+
+    /** capacity of each device's buffer, as in {@link SensorService} */
+    private static final int BUFFER_CAPACITY = 4096;
+
+    /** highest rate tried, in Hz */
+    private static final double MAX_RATE = 1e6;
+
+    /** one simulated device and its pipeline */
+    private static class Device implements SampleListener, Runnable {
+        final SimulatedSampleSource source;
+        final SampleRingBuffer buffer = new SampleRingBuffer(BUFFER_CAPACITY);
+        final SampleWriter writer;
+        final Thread drainer;
+        volatile boolean running = true;
+        long written = 0;
+        IOException failure;
+
+        Device(int index, double rate, SampleWriter writer) {
+            this.source = new SimulatedSampleSource("device" + index,
+                    new SimulatedSampleSource.SyntheticSignal(rate, index), rate);
+            this.writer = writer;
+            this.drainer = new Thread(this, "Drainer-" + index);
+        }
+
+        @Override
+        public void onSample(long timestamp, float[] values, int offset) {
+            buffer.offer(timestamp, values, offset);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int unflushed = 0;
+                while (running || buffer.size() > 0) {
+                    int drained = buffer.drainTo(writer, 256);
+                    written += drained;
+                    unflushed += drained;
+                    if (unflushed >= FlushPolicy.DEFAULT.getFlushSamples()) {
+                        writer.flush();
+                        unflushed = 0;
+                    }
+                    if (drained == 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                    }
+                }
+                writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 62.5;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        SampleFormat format = args.length > 3 ? SampleFormat.valueOf(args[3]) : SampleFormat.BINARY;
+        File directory = args.length > 4 ? new File(args[4]) : null;
+
+        System.out.println("devices,rate_hz,delivered,written,dropped,peak_buffer,achieved_hz");
+        double sustained = 0;
+        for (; rate <= MAX_RATE; rate *= 2) {
+            Device[] pipelines = new Device[devices];
+            for (int i = 0; i < devices; i++) {
+                pipelines[i] = new Device(i, rate, openWriter(format, directory, i));
+                pipelines[i].drainer.start();
+            }
+            long start = System.nanoTime();
+            for (Device device : pipelines) {
+                device.source.start(device);
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            long delivered = 0, written = 0, dropped = 0;
+            int peak = 0;
+            for (Device device : pipelines) {
+                device.source.stop();
+                device.running = false;
+                device.drainer.join();
+                if (device.failure != null) {
+                    throw device.failure;
+                }
+                delivered += device.source.getSampleCount();
+                written += device.written;
+                dropped += device.buffer.getOverflowCount();
+                peak = Math.max(peak, device.buffer.getHighWaterMark());
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(Locale.US, "%d,%.1f,%d,%d,%d,%d,%.1f",
+                    devices, rate, delivered, written, dropped, peak, written / elapsed / devices));
+            if (dropped > 0) {
+                break;
+            }
+            sustained = rate;
+        }
+        System.out.println(String.format(Locale.US, "Maximum sustained rate: %.1f Hz per device, %d devices, %s",
+                sustained, devices, format));
+    }
+
+    private static SampleWriter openWriter(SampleFormat format, File directory, int device) throws IOException {
+        OutputStream out;
+        if (directory == null) {
+            out = new CountingOutputStream();
+        } else {
+            out = new FileOutputStream(new File(directory, "device" + device + format.getExtension()));
+        }
+        switch (format) {
+            case BINARY:
+                return new BinarySampleWriter(out);
+            case COMPRESSED:
+                return new CompressedSampleWriter(out);
+            case CSV:
+            default:
+                return new CsvSampleWriter(out, null);
+        }
+    }
+}
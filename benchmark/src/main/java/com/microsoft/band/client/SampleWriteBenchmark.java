@@ -0,0 +1,135 @@
+package com.microsoft.band.client;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing one sample with each of the sample writers, including the amortized cost of
+ * flushing every {@link #batchSize} samples as {@link SampleWriterThread} does. The output is
+ * discarded, so storage latency is not included.
+ * <p>
+ * The score is in ns/sample; with the GC profiler, {@code gc.alloc.rate.norm} is the number of bytes
+ * allocated per sample. The {@code bytes} and {@code samples} counters give the output size: divide
+ * them to obtain bytes/sample.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleWriteBenchmark {
+
+    /** the write paths being compared */
+    public enum Output {
+        /** boxed values joined into a String and written to a BufferedWriter, as originally */
+        LEGACY_CSV,
+        /** {@link CsvSampleWriter} */
+        CSV,
+        /** {@link BinarySampleWriter} */
+        BINARY,
+        /** {@link CompressedSampleWriter} */
+        COMPRESSED,
+        /** {@link CsvSampleWriter} on a {@link GzipBlockOutputStream} */
+        CSV_GZIP,
+        /** {@link BinarySampleWriter} on a {@link GzipBlockOutputStream} */
+        BINARY_GZIP
+    }
+
+    /** size of the output in bytes and number of samples written, per iteration */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class OutputCounters {
+        public long bytes;
+        public long samples;
+    }
+
+    @Param({"LEGACY_CSV", "CSV", "BINARY", "COMPRESSED", "CSV_GZIP", "BINARY_GZIP"})
+    public Output output;
+
+    /** number of samples written between flushes */
+    @Param({"1", "64", "1024"})
+    public int batchSize;
+
+    /** number of distinct samples written over and over */
+    @Param({"4096", "65536"})
+    public int sampleCount;
+
+    /** compression level of the gzip outputs */
+    @Param({"1"})
+    public int deflateLevel;
+
+    private SampleData data;
+    private CountingOutputStream sink;
+    private SampleWriter writer;
+    private int next = 0;
+    private int unflushed = 0;
+    private long iterationStartBytes;
+
+    @Setup(Level.Trial)
+    public void openWriter() throws IOException {
+        data = new SampleData(sampleCount, 42);
+        sink = new CountingOutputStream();
+        switch (output) {
+            case LEGACY_CSV:
+                writer = new LegacyCsvWriter(sink);
+                break;
+            case CSV:
+                writer = new CsvSampleWriter(sink, null);
+                break;
+            case BINARY:
+                writer = new BinarySampleWriter(sink);
+                break;
+            case COMPRESSED:
+                writer = new CompressedSampleWriter(sink);
+                break;
+            case CSV_GZIP:
+                writer = new CsvSampleWriter(new GzipBlockOutputStream(sink, deflateLevel, new CompressionStats()), null);
+                break;
+            case BINARY_GZIP:
+                writer = new BinarySampleWriter(new GzipBlockOutputStream(sink, deflateLevel, new CompressionStats()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown output: " + output);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void markIteration() {
+        iterationStartBytes = sink.getCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeWriter() throws IOException {
+        writer.close();
+    }
+
+    @Benchmark
+    public void writeSample(OutputCounters counters) throws IOException {
+        int index = next;
+        writer.write(data.getTimestamp(index), data.getValues(), index * SampleEncoder.VALUES_PER_SAMPLE);
+        next = index + 1 == sampleCount ? 0 : index + 1;
+        if (++unflushed == batchSize) {
+            writer.flush();
+            unflushed = 0;
+        }
+        counters.samples++;
+        counters.bytes = sink.getCount() - iterationStartBytes;
+    }
+}
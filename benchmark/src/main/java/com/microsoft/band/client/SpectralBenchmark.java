@@ -0,0 +1,82 @@
+package com.microsoft.band.client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the spectral features: {@code window} feeds a {@link SpectralAnalyzer} one hop of
+ * samples, which completes exactly one window of all six axes, so the score is in windows/s;
+ * {@code fft} is the {@link RealFft} power spectrum of a single axis. With the GC profiler,
+ * {@code gc.alloc.rate.norm} should be zero for both.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectralBenchmark implements SpectralAnalyzer.Listener {
+
+    /** number of samples per window */
+    @Param({"128", "256"})
+    public int size;
+
+    /** number of distinct samples fed over and over */
+    private static final int SAMPLE_COUNT = 4096;
+
+    private SampleData data;
+    private SpectralAnalyzer analyzer;
+    private RealFft fft;
+    private double[] signal;
+    private double[] power;
+    private int next = 0;
+    private long timestamp = 0;
+    private double sink;
+
+    @Setup
+    public void generate() {
+        data = new SampleData(SAMPLE_COUNT, 42);
+        // windows do not overlap, so that each operation completes one window
+        analyzer = new SpectralAnalyzer(size, size, SpectralAnalyzer.DEFAULT_BAND_EDGES, this);
+        fft = new RealFft(size);
+        signal = new double[size];
+        power = new double[size / 2 + 1];
+        for (int i = 0; i < size; i++) {
+            signal[i] = data.getValues()[i * SampleEncoder.VALUES_PER_SAMPLE];
+        }
+    }
+
+    @Override
+    public void onSpectrum(long start, long end, double rateHz, double[] features) {
+        sink += features[0];
+    }
+
+    @Benchmark
+    public double window() {
+        float[] values = data.getValues();
+        for (int i = 0; i < size; i++) {
+            // timestamps keep increasing when the data wraps around, so that no window is skipped
+            analyzer.onSample(timestamp, values, next * SampleEncoder.VALUES_PER_SAMPLE);
+            timestamp += 16;
+            next = next + 1 == SAMPLE_COUNT ? 0 : next + 1;
+        }
+        return sink;
+    }
+
+    @Benchmark
+    public double[] fft() {
+        fft.powerSpectrum(signal, power);
+        return power;
+    }
+}